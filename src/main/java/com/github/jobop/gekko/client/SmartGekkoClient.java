@@ -29,7 +29,9 @@ import com.github.jobop.gekko.core.exception.GekkoException;
 import com.github.jobop.gekko.core.lifecycle.LifeCycleAdpter;
 import com.github.jobop.gekko.core.metadata.Peer;
 import com.github.jobop.gekko.enums.ResultEnums;
+import com.github.jobop.gekko.protocols.codec.GekkoCustomSerializer;
 import com.github.jobop.gekko.protocols.message.GekkoEntry;
+import com.github.jobop.gekko.protocols.message.api.AppendEntriesReq;
 import com.github.jobop.gekko.protocols.message.api.AppendEntryReq;
 import com.github.jobop.gekko.protocols.message.api.GetMetadataReq;
 import com.github.jobop.gekko.protocols.message.api.GetMetadataResp;
@@ -38,6 +40,8 @@ import com.github.jobop.gekko.utils.PreConditions;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -57,6 +61,7 @@ public class SmartGekkoClient extends LifeCycleAdpter {
 
     @Override
     public void init() {
+        GekkoCustomSerializer.registerAll();
         rpcClient = new RpcClient();
         rpcClient.switches().turnOn(GlobalSwitch.CODEC_FLUSH_CONSOLIDATION);
         rpcClient.initWriteBufferWaterMark(2048 * 1024, 2048 * 1024);
@@ -106,7 +111,9 @@ public class SmartGekkoClient extends LifeCycleAdpter {
                 remotingException.printStackTrace();
 //                log.warn("waiting the node " + peer.getHost() + ":" + peer.getPort() + " to connect!", remotingException);
             } catch (InterruptedException interruptedException) {
-                interruptedException.printStackTrace();
+                log.error("load the metadata from " + peer.getHost() + " interrupted!", interruptedException);
+                Thread.currentThread().interrupt();
+                break;
             }
         }
 
@@ -122,9 +129,30 @@ public class SmartGekkoClient extends LifeCycleAdpter {
         try {
             respFuture = rpcClient.invokeWithFuture(parser.parse(leaderPeer.getApiUrl()), AppendEntryReq.builder().gekkoEntry(entry).build(), config.getConnectTimeout());
         } catch (RemotingException e) {
-            e.printStackTrace();
+            log.warn("append to the leader " + leaderPeer.getHost() + " fail!", e);
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            log.error("append to the leader " + leaderPeer.getHost() + " interrupted!", e);
+            Thread.currentThread().interrupt();
+        }
+        return respFuture;
+    }
+
+    //the datas are stored in order with contiguous indexes,see AppendEntriesResp
+    public RpcResponseFuture appendBatch(List<byte[]> datas) {
+        Peer leaderPeer = this.getPeersMap().get(this.leaderPeerId);
+
+        List<GekkoEntry> entries = new ArrayList<GekkoEntry>(datas.size());
+        for (byte[] data : datas) {
+            entries.add(GekkoEntry.builder().data(data).magic(0xCAFE_BABE).build());
+        }
+        RpcResponseFuture respFuture = null;
+        try {
+            respFuture = rpcClient.invokeWithFuture(parser.parse(leaderPeer.getApiUrl()), AppendEntriesReq.builder().entries(entries).build(), config.getConnectTimeout());
+        } catch (RemotingException e) {
+            log.warn("append a batch of " + datas.size() + " to the leader " + leaderPeer.getHost() + " fail!", e);
+        } catch (InterruptedException e) {
+            log.error("append a batch of " + datas.size() + " to the leader " + leaderPeer.getHost() + " interrupted!", e);
+            Thread.currentThread().interrupt();
         }
         return respFuture;
     }
@@ -22,16 +22,21 @@ package com.github.jobop.gekko.connector;
 
 import com.github.jobop.gekko.core.metadata.NodeState;
 import com.github.jobop.gekko.core.replication.EntriesSynchronizer;
+import com.github.jobop.gekko.core.snapshot.SnapshotManager;
 import com.github.jobop.gekko.core.statemachine.StateMachine;
+import com.github.jobop.gekko.core.statemachine.StateMachineApplier;
 import com.github.jobop.gekko.enums.PushResultEnums;
 import com.github.jobop.gekko.enums.ResultEnums;
 import com.github.jobop.gekko.protocols.GekkoInboundProtocol;
 import com.github.jobop.gekko.protocols.message.GekkoEntry;
+import com.github.jobop.gekko.protocols.message.GekkoEntryView;
 import com.github.jobop.gekko.protocols.message.api.*;
 import com.github.jobop.gekko.protocols.message.node.*;
 import com.github.jobop.gekko.store.Store;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -47,12 +52,18 @@ public class GekkoInboundMsgHelper implements GekkoInboundProtocol {
 
     GekkoNodeNettyClient client;
 
-    public GekkoInboundMsgHelper(Store store, StateMachine stateMachine, NodeState nodeState, EntriesSynchronizer entriesSynchronizer, GekkoNodeNettyClient client) {
+    SnapshotManager snapshotManager;
+
+    StateMachineApplier applier;
+
+    public GekkoInboundMsgHelper(Store store, StateMachine stateMachine, NodeState nodeState, EntriesSynchronizer entriesSynchronizer, GekkoNodeNettyClient client, SnapshotManager snapshotManager, StateMachineApplier applier) {
         this.store = store;
         this.stateMachine = stateMachine;
         this.nodeState = nodeState;
         this.entriesSynchronizer = entriesSynchronizer;
         this.client = client;
+        this.snapshotManager = snapshotManager;
+        this.applier = applier;
     }
 
     /**
@@ -68,24 +79,6 @@ public class GekkoInboundMsgHelper implements GekkoInboundProtocol {
         return PullEntryResp.builder().enries(entries).build();
     }
 
-    /**
-     * from user
-     *
-     * @param req
-     * @return
-     */
-    @Override
-    public AppendEntryResp handleAppendEntry(AppendEntryReq req) {
-        GekkoEntry entry = req.getGekkoEntry();
-        store.append(entry);
-        if (entry.getPos() != -1) {
-            entriesSynchronizer.accept(entry);
-            return AppendEntryResp.builder().index(entry.getEntryIndex()).resultCode(ResultEnums.SUCCESS).build();
-        } else {
-            return AppendEntryResp.builder().index(-1).resultCode(ResultEnums.APPEND_FAIL).build();
-        }
-    }
-
     /**
      * from flower or user
      *
@@ -138,11 +131,19 @@ public class GekkoInboundMsgHelper implements GekkoInboundProtocol {
         if (req.getStartIndex() < nodeState.getWriteId()) {
             store.trimAfter(req.getStartIndex() - 1);
         }
+        //a pipelined batch whose predecessor was lost,let the leader roll back to the index we expect
+        if (req.getStartIndex() > nodeState.getWriteId() + 1) {
+            return PushEntryResp.builder().group(nodeState.getGroup()).acceptNodeId(nodeState.getSelfId()).index(nodeState.getWriteId() + 1).term(nodeState.getTerm()).result(PushResultEnums.REJECT).build();
+        }
+        if (null != req.getRawEntries()) {
+            return handlePushRawDatas(req);
+        }
 
         if (
                 this.nodeState.getLastChecksum() == 0 ||
                         (this.nodeState.getLastChecksum() != 0 && this.nodeState.getLastChecksum() == req.getPreCheckSum())) {
             log.info("checksum is match do append!");
+            List<GekkoEntry> needAppendEntries = new ArrayList<GekkoEntry>(req.getEntries().size());
             for (GekkoEntry entry : req.getEntries()) {
                 if (this.nodeState.getWriteId() >= entry.getEntryIndex()) {
                     GekkoEntry oleEntry = this.store.getByIndex(entry.getEntryIndex());
@@ -152,21 +153,107 @@ public class GekkoInboundMsgHelper implements GekkoInboundProtocol {
                         //TODO: return data error resp
                     }
                 }
-                this.store.append(entry);
-                if (entry.getPos() != -1) {
-                    log.info("follower append success!");
-                } else {
+                needAppendEntries.add(entry);
+            }
+            this.store.appendBatch(needAppendEntries);
+            for (GekkoEntry entry : needAppendEntries) {
+                if (entry.getPos() == -1) {
                     //FIXME: return part success error code
                     log.warn("follower append fail!");
 
                     return PushEntryResp.builder().group(nodeState.getGroup()).acceptNodeId(nodeState.getSelfId()).term(nodeState.getTerm()).index(nodeState.getWriteId() + 1).result(PushResultEnums.REJECT).build();
                 }
             }
+            log.info("follower append success! count=" + needAppendEntries.size());
             nodeState.setCommitId(req.getLastCommitIndex());
+            applier.trigger();
             return PushEntryResp.builder().group(nodeState.getGroup()).acceptNodeId(nodeState.getSelfId()).index(nodeState.getWriteId() + 1).term(nodeState.getTerm()).result(PushResultEnums.AGREE).build();
         } else {
             return PushEntryResp.builder().group(nodeState.getGroup()).acceptNodeId(nodeState.getSelfId()).index(nodeState.getWriteId() + 1).term(nodeState.getTerm()).result(PushResultEnums.REJECT).build();
         }
 
     }
+
+    /**
+     * the entries come as the bytes of the log of the leader,check them without decoding and append them as one block
+     */
+    private PushEntryResp handlePushRawDatas(PushEntryReq req) {
+        //the entry before startIndex may exist,the raw entries always start from the next one
+        if (req.getStartIndex() <= nodeState.getWriteId()) {
+            store.trimAfter(req.getStartIndex() - 1);
+        }
+        ByteBuffer rawEntries = ByteBuffer.wrap(req.getRawEntries());
+        if ((this.nodeState.getLastChecksum() != 0 && this.nodeState.getLastChecksum() != req.getPreCheckSum()) || !verifyRawEntries(req, rawEntries)) {
+            return PushEntryResp.builder().group(nodeState.getGroup()).acceptNodeId(nodeState.getSelfId()).index(nodeState.getWriteId() + 1).term(nodeState.getTerm()).result(PushResultEnums.REJECT).build();
+        }
+        int appended = this.store.appendRaw(rawEntries);
+        if (appended != req.getCount()) {
+            log.warn("follower append raw entries fail! appended=" + appended + " count=" + req.getCount());
+            return PushEntryResp.builder().group(nodeState.getGroup()).acceptNodeId(nodeState.getSelfId()).index(nodeState.getWriteId() + 1).term(nodeState.getTerm()).result(PushResultEnums.REJECT).build();
+        }
+        log.info("follower append success! count=" + appended);
+        nodeState.setCommitId(req.getLastCommitIndex());
+        applier.trigger();
+        return PushEntryResp.builder().group(nodeState.getGroup()).acceptNodeId(nodeState.getSelfId()).index(nodeState.getWriteId() + 1).term(nodeState.getTerm()).result(PushResultEnums.AGREE).build();
+    }
+
+    //every entry is intact,the indexes run from startIndex to endIndex and the last one is what the leader says
+    private boolean verifyRawEntries(PushEntryReq req, ByteBuffer rawEntries) {
+        GekkoEntryView view = new GekkoEntryView();
+        long expectIndex = req.getStartIndex();
+        int offset = rawEntries.position();
+        while (offset < rawEntries.limit()) {
+            if (rawEntries.limit() - offset < GekkoEntry.BODY_OFFSET) {
+                break;
+            }
+            view.wrap(rawEntries, offset, null);
+            int size = view.getTotalSize();
+            if (size < GekkoEntry.BODY_OFFSET || size > rawEntries.limit() - offset) {
+                break;
+            }
+            if (view.getEntryIndex() != expectIndex || !view.isIntact()) {
+                log.warn("raw entry is broken! index=" + view.getEntryIndex() + " expect=" + expectIndex);
+                return false;
+            }
+            expectIndex++;
+            offset += size;
+        }
+        if (expectIndex == req.getStartIndex() || offset != rawEntries.limit() || expectIndex - 1 != req.getEndIndex() || expectIndex - req.getStartIndex() != req.getCount()
+                || view.getChecksum() != req.getLastCheckSum()) {
+            log.warn("raw entries do not match the frame! startIndex=" + req.getStartIndex() + " endIndex=" + req.getEndIndex());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * from leader
+     *
+     * @param req
+     * @return
+     */
+    @Override
+    public InstallSnapshotResp handleInstallSnapshot(InstallSnapshotReq req) {
+        int length = null == req.getData() ? 0 : req.getData().length;
+        long nextOffset;
+        boolean accepted;
+        try {
+            nextOffset = snapshotManager.receiveChunk(req);
+            //an offset behind the expected one means the chunk was written by a retry
+            accepted = nextOffset == req.getOffset() + length;
+            if (accepted && req.isDone()) {
+                log.info("### snapshot received index=" + req.getLastIncludedIndex());
+                if (!snapshotManager.installReceived(req.getLastIncludedIndex())) {
+                    accepted = false;
+                    nextOffset = -1;
+                }
+            }
+        } catch (IOException e) {
+            log.error("receive snapshot fail! file=" + req.getFileName(), e);
+            accepted = false;
+            nextOffset = -1;
+        }
+        return InstallSnapshotResp.builder().group(nodeState.getGroup()).acceptNodeId(nodeState.getSelfId()).term(nodeState.getTerm())
+                .nextOffset(nextOffset).result(accepted ? PushResultEnums.AGREE : PushResultEnums.REJECT).build();
+    }
 }
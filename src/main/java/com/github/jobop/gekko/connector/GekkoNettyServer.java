@@ -31,8 +31,10 @@ import com.github.jobop.gekko.core.election.GekkoLeaderElector;
 import com.github.jobop.gekko.core.lifecycle.LifeCycleAdpter;
 import com.github.jobop.gekko.core.metadata.NodeState;
 import com.github.jobop.gekko.core.metadata.Peer;
+import com.github.jobop.gekko.core.replication.AppendPipeline;
 import com.github.jobop.gekko.enums.RoleEnum;
 import com.github.jobop.gekko.protocols.GekkoInboundProtocol;
+import com.github.jobop.gekko.protocols.codec.GekkoCustomSerializer;
 import com.github.jobop.gekko.protocols.message.api.RefreshPeersReq;
 import lombok.extern.slf4j.Slf4j;
 
@@ -52,16 +54,19 @@ public class GekkoNettyServer extends LifeCycleAdpter {
 
     RpcServer apiRpcServer;
     GekkoLeaderElector elector;
+    AppendPipeline appendPipeline;
 
-    public GekkoNettyServer(GekkoConfig conf, GekkoInboundProtocol inboundHelper, NodeState nodeState, GekkoLeaderElector elector) {
+    public GekkoNettyServer(GekkoConfig conf, GekkoInboundProtocol inboundHelper, NodeState nodeState, GekkoLeaderElector elector, AppendPipeline appendPipeline) {
         this.inboundHelper = inboundHelper;
         this.conf = conf;
         this.nodeState = nodeState;
         this.elector = elector;
+        this.appendPipeline = appendPipeline;
     }
 
     public void init() {
         System.setProperty(RpcConfigs.DISPATCH_MSG_LIST_IN_DEFAULT_EXECUTOR, "false");
+        GekkoCustomSerializer.registerAll();
 
         Peer selfPeer = this.nodeState.getPeersMap().get(conf.getSelfId());
         nodeRpcServer = new RpcServer(selfPeer.getNodePort());
@@ -76,6 +81,7 @@ public class GekkoNettyServer extends LifeCycleAdpter {
         nodeRpcServer.registerUserProcessor(new ReqVoteProcessor(inboundHelper, elector));
         nodeRpcServer.registerUserProcessor(new GetMetadataProcessor(inboundHelper, elector));
         nodeRpcServer.registerUserProcessor(new ProbeProcessor(inboundHelper, elector));
+        nodeRpcServer.registerUserProcessor(new InstallSnapshotProcessor(inboundHelper, elector));
 
 
         nodeRpcServer.switches().turnOn(GlobalSwitch.SERVER_MANAGE_CONNECTION_SWITCH);
@@ -83,7 +89,8 @@ public class GekkoNettyServer extends LifeCycleAdpter {
 
         //api
         apiRpcServer.registerUserProcessor(new PullEntryProcessor(inboundHelper));
-        apiRpcServer.registerUserProcessor(new AppendEntryProcessor(inboundHelper, elector));
+        apiRpcServer.registerUserProcessor(new AppendEntryProcessor(inboundHelper, elector, appendPipeline));
+        apiRpcServer.registerUserProcessor(new AppendEntriesProcessor(inboundHelper, elector, appendPipeline));
         apiRpcServer.registerUserProcessor(new GetMetadataProcessor(inboundHelper, elector));
 
     }
@@ -36,6 +36,7 @@ import com.github.jobop.gekko.core.replication.AcceptCollector;
 import com.github.jobop.gekko.core.replication.PenddingEntryBatch;
 import com.github.jobop.gekko.enums.RoleEnum;
 import com.github.jobop.gekko.protocols.GekkoNodeConnectProtocol;
+import com.github.jobop.gekko.protocols.codec.GekkoCustomSerializer;
 import com.github.jobop.gekko.protocols.message.GekkoEntry;
 import com.github.jobop.gekko.protocols.message.api.PullEntryReq;
 import com.github.jobop.gekko.protocols.message.api.PullEntryResp;
@@ -61,6 +62,8 @@ public class GekkoNodeNettyClient extends LifeCycleAdpter implements GekkoNodeCo
 
     static int WAIT_FOR_PUSH_TIME_OUT = 150;
 
+    static int WAIT_FOR_INSTALL_SNAPSHOT_TIME_OUT = 5000;
+
     public GekkoNodeNettyClient(GekkoConfig conf, NodeState nodeState) {
         this.conf = conf;
         this.nodeState = nodeState;
@@ -68,6 +71,7 @@ public class GekkoNodeNettyClient extends LifeCycleAdpter implements GekkoNodeCo
 
     @Override
     public void init() {
+        GekkoCustomSerializer.registerAll();
         orderNodesRpcClient = new RpcClient();
         //FIXME: need deep into it
         orderNodesRpcClient.switches().turnOn(GlobalSwitch.CODEC_FLUSH_CONSOLIDATION);
@@ -102,7 +106,9 @@ public class GekkoNodeNettyClient extends LifeCycleAdpter implements GekkoNodeCo
             } catch (RemotingException remotingException) {
                 log.warn("waiting the node " + peer.getHost() + ":" + peer.getNodePort() + " to connect!");
             } catch (InterruptedException interruptedException) {
-                interruptedException.printStackTrace();
+                log.error("send heartbeat to " + peer.getHost() + ":" + peer.getNodePort() + " interrupted!", interruptedException);
+                Thread.currentThread().interrupt();
+                return;
             }
         }
     }
@@ -114,7 +120,8 @@ public class GekkoNodeNettyClient extends LifeCycleAdpter implements GekkoNodeCo
         } catch (RemotingException e) {
             log.warn("waiting to probe " + peer.getNodePort());
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            log.error("send probe to " + peer.getHost() + ":" + peer.getNodePort() + " interrupted!", e);
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -132,7 +139,9 @@ public class GekkoNodeNettyClient extends LifeCycleAdpter implements GekkoNodeCo
             } catch (RemotingException remotingException) {
                 log.warn("waiting for " + peer.getHost() + ":" + peer.getNodePort() + " to connect!", remotingException);
             } catch (InterruptedException interruptedException) {
-                interruptedException.printStackTrace();
+                log.error("send pre vote to " + peer.getHost() + ":" + peer.getNodePort() + " interrupted!", interruptedException);
+                Thread.currentThread().interrupt();
+                return;
             }
         }
     }
@@ -156,9 +165,11 @@ public class GekkoNodeNettyClient extends LifeCycleAdpter implements GekkoNodeCo
                                 lastIndex(nodeState.getCommitId()).
                                 build(), voteCollector, WAIT_FOR_VOTE_TIME_OUT);
             } catch (RemotingException remotingException) {
-                remotingException.printStackTrace();
+                log.warn("send vote to " + peer.getHost() + ":" + peer.getNodePort() + " fail!", remotingException);
             } catch (InterruptedException interruptedException) {
-                interruptedException.printStackTrace();
+                log.error("send vote to " + peer.getHost() + ":" + peer.getNodePort() + " interrupted!", interruptedException);
+                Thread.currentThread().interrupt();
+                return;
             }
         }
     }
@@ -179,9 +190,11 @@ public class GekkoNodeNettyClient extends LifeCycleAdpter implements GekkoNodeCo
             try {
                 orderNodesRpcClient.invokeWithCallback(parser.parse(peer.getNodeUrl()), PushEntryReq.builder().group(nodeState.getGroup()).entries(entries).remoteNodeId(nodeState.getSelfId()).term(nodeState.getTerm()).lastCommitIndex(nodeState.getCommitId()).preCheckSum(nodeState.getPreChecksum()).build(), callback, WAIT_FOR_PUSH_TIME_OUT);
             } catch (RemotingException remotingException) {
-                remotingException.printStackTrace();
+                log.warn("push to " + peer.getHost() + ":" + peer.getNodePort() + " fail!", remotingException);
             } catch (InterruptedException interruptedException) {
-                interruptedException.printStackTrace();
+                log.error("push to " + peer.getHost() + ":" + peer.getNodePort() + " interrupted!", interruptedException);
+                Thread.currentThread().interrupt();
+                return;
             }
         }
     }
@@ -205,11 +218,15 @@ public class GekkoNodeNettyClient extends LifeCycleAdpter implements GekkoNodeCo
                     count(penddingEntry.getCount()).
                     startIndex(startIndex).
                     endIndex(endIndex).
-                    build(), callback, WAIT_FOR_PUSH_TIME_OUT);
+                    rawEntries(penddingEntry.getRawEntries()).
+                    lastCheckSum(penddingEntry.getLastCheckSum()).
+                    build(), callback, conf.getEntriesPushTimeout());
         } catch (RemotingException remotingException) {
-            remotingException.printStackTrace();
+            //let the replicator roll back instead of waiting for an ack that never comes
+            callback.onException(remotingException);
         } catch (InterruptedException interruptedException) {
-            interruptedException.printStackTrace();
+            Thread.currentThread().interrupt();
+            callback.onException(interruptedException);
         }
     }
 
@@ -222,10 +239,33 @@ public class GekkoNodeNettyClient extends LifeCycleAdpter implements GekkoNodeCo
             PullEntryResp reps = (PullEntryResp) future.get();
             return reps.getEnries();
         } catch (RemotingException e) {
-            e.printStackTrace();
+            log.warn("pull entries from the leader fail!", e);
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            log.error("pull entries from the leader interrupted!", e);
+            Thread.currentThread().interrupt();
         }
         return new ArrayList<GekkoEntry>();
     }
+
+    /**
+     * send one chunk and wait for the follower,the next chunk starts from the offset it returns
+     *
+     * @return null if the follower can not be reached
+     */
+    @Override
+    public InstallSnapshotResp installSnapshot(Peer peer, InstallSnapshotReq req) {
+        if (this.nodeState.getRole() != RoleEnum.LEADER) {
+            log.warn("not a leader can not install snapshot!");
+            return null;
+        }
+        try {
+            return (InstallSnapshotResp) orderNodesRpcClient.invokeSync(parser.parse(peer.getNodeUrl()), req, WAIT_FOR_INSTALL_SNAPSHOT_TIME_OUT);
+        } catch (RemotingException remotingException) {
+            log.warn("send snapshot chunk to " + peer.getHost() + ":" + peer.getNodePort() + " fail!", remotingException);
+        } catch (InterruptedException interruptedException) {
+            log.error("send snapshot chunk to " + peer.getHost() + ":" + peer.getNodePort() + " interrupted!", interruptedException);
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
 }
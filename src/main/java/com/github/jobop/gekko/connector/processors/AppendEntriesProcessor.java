@@ -0,0 +1,65 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jobop.gekko.connector.processors;
+
+import com.alipay.remoting.AsyncContext;
+import com.alipay.remoting.BizContext;
+import com.github.jobop.gekko.core.election.GekkoLeaderElector;
+import com.github.jobop.gekko.core.replication.AppendPipeline;
+import com.github.jobop.gekko.enums.ResultEnums;
+import com.github.jobop.gekko.protocols.GekkoInboundProtocol;
+import com.github.jobop.gekko.protocols.message.GekkoEntry;
+import com.github.jobop.gekko.protocols.message.api.AppendEntriesReq;
+import com.github.jobop.gekko.protocols.message.api.AppendEntriesResp;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+
+/**
+ * process the batch append req from client,publish it into the append pipeline with the single ones
+ */
+@Slf4j
+public class AppendEntriesProcessor extends DefaultProcessor<AppendEntriesReq> {
+    GekkoLeaderElector elector;
+    AppendPipeline appendPipeline;
+
+    public AppendEntriesProcessor(GekkoInboundProtocol helper, GekkoLeaderElector elector, AppendPipeline appendPipeline) {
+        super(helper);
+        this.elector = elector;
+        this.appendPipeline = appendPipeline;
+    }
+
+    /**
+     * @param bizCtx
+     * @param asyncCtx
+     * @param request
+     */
+    public void handleRequest(BizContext bizCtx, AsyncContext asyncCtx, AppendEntriesReq request) {
+        List<GekkoEntry> entries = request.getEntries();
+        if (null == entries || entries.isEmpty()) {
+            asyncCtx.sendResponse(AppendEntriesResp.builder().firstIndex(-1).count(0).resultCode(ResultEnums.SUCCESS).build());
+            return;
+        }
+        appendPipeline.publish(entries, (stored, result) -> asyncCtx.sendResponse(AppendEntriesResp.builder()
+                .firstIndex(stored > 0 ? entries.get(0).getEntryIndex() : -1).count(stored).resultCode(result).build()));
+    }
+
+    public String interest() {
+        return AppendEntriesReq.class.getName();
+    }
+}
@@ -21,22 +21,27 @@ package com.github.jobop.gekko.connector.processors;
 import com.alipay.remoting.AsyncContext;
 import com.alipay.remoting.BizContext;
 import com.github.jobop.gekko.core.election.GekkoLeaderElector;
-import com.github.jobop.gekko.enums.ResultEnums;
+import com.github.jobop.gekko.core.replication.AppendPipeline;
 import com.github.jobop.gekko.protocols.GekkoInboundProtocol;
+import com.github.jobop.gekko.protocols.message.GekkoEntry;
 import com.github.jobop.gekko.protocols.message.api.AppendEntryReq;
 import com.github.jobop.gekko.protocols.message.api.AppendEntryResp;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Collections;
+
 /**
- * process the push req from leader
+ * process the append req from client,publish it into the append pipeline
  */
 @Slf4j
 public class AppendEntryProcessor extends DefaultProcessor<AppendEntryReq> {
     GekkoLeaderElector elector;
+    AppendPipeline appendPipeline;
 
-    public AppendEntryProcessor(GekkoInboundProtocol helper, GekkoLeaderElector elector) {
+    public AppendEntryProcessor(GekkoInboundProtocol helper, GekkoLeaderElector elector, AppendPipeline appendPipeline) {
         super(helper);
         this.elector = elector;
+        this.appendPipeline = appendPipeline;
     }
 
     /**
@@ -45,8 +50,11 @@ public class AppendEntryProcessor extends DefaultProcessor<AppendEntryReq> {
      * @param request
      */
     public void handleRequest(BizContext bizCtx, AsyncContext asyncCtx, AppendEntryReq request) {
-        log.info("### recived a append req ");
-        asyncCtx.sendResponse(helper.handleAppendEntry(request));
+        log.debug("### recived a append req ");
+        GekkoEntry entry = request.getGekkoEntry();
+        //an unknown result keeps the index,so the client can read it back to find out
+        appendPipeline.publish(Collections.singletonList(entry), (stored, result) -> asyncCtx.sendResponse(AppendEntryResp.builder()
+                .index(stored == 1 ? entry.getEntryIndex() : -1).resultCode(result).build()));
     }
 
     public String interest() {
@@ -0,0 +1,59 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jobop.gekko.connector.processors;
+
+import com.alipay.remoting.AsyncContext;
+import com.alipay.remoting.BizContext;
+import com.github.jobop.gekko.core.election.GekkoLeaderElector;
+import com.github.jobop.gekko.enums.PushResultEnums;
+import com.github.jobop.gekko.protocols.GekkoInboundProtocol;
+import com.github.jobop.gekko.protocols.message.node.InstallSnapshotReq;
+import com.github.jobop.gekko.protocols.message.node.InstallSnapshotResp;
+
+/**
+ * process the snapshot chunks from leader
+ */
+public class InstallSnapshotProcessor extends DefaultProcessor<InstallSnapshotReq> {
+    GekkoLeaderElector elector;
+
+    public InstallSnapshotProcessor(GekkoInboundProtocol helper, GekkoLeaderElector elector) {
+        super(helper);
+        this.elector = elector;
+    }
+
+    public void handleRequest(BizContext bizCtx, AsyncContext asyncCtx, InstallSnapshotReq request) {
+        if (!elector.getState().getGroup().equals(request.getGroup())) {
+            return;
+        }
+        //the leader waits for every chunk,tell a stale one to stop instead of letting it time out
+        if (request.getTerm() < elector.getState().getTerm()) {
+            asyncCtx.sendResponse(InstallSnapshotResp.builder().group(request.getGroup()).term(elector.getState().getTerm())
+                    .acceptNodeId(elector.getState().getSelfId()).nextOffset(-1).result(PushResultEnums.REJECT).build());
+            return;
+        }
+
+        this.elector.asFollower(request.getTerm(), request.getRemoteNodeId());
+        this.elector.getState().setLastCommunityToLeaderTime(System.currentTimeMillis());
+        InstallSnapshotResp resp = helper.handleInstallSnapshot(request);
+        asyncCtx.sendResponse(resp);
+    }
+
+    public String interest() {
+        return InstallSnapshotReq.class.getName();
+    }
+}
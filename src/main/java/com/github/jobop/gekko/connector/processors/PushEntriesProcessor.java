@@ -25,15 +25,20 @@ import com.github.jobop.gekko.protocols.GekkoInboundProtocol;
 import com.github.jobop.gekko.protocols.message.node.PushEntryReq;
 import com.github.jobop.gekko.protocols.message.node.PushEntryResp;
 
+import java.util.concurrent.Executor;
+
 /**
  * process the push req from leader
  */
 public class PushEntriesProcessor extends DefaultProcessor<PushEntryReq> {
     GekkoLeaderElector elector;
+    //a single thread shut down with the node
+    private final Executor executor;
 
     public PushEntriesProcessor(GekkoInboundProtocol helper, GekkoLeaderElector elector) {
         super(helper);
         this.elector = elector;
+        this.executor = elector.getCallbackExecutors().getPushEntriesExecutor();
     }
 
     public void handleRequest(BizContext bizCtx, AsyncContext asyncCtx, PushEntryReq request) {
@@ -50,6 +55,11 @@ public class PushEntriesProcessor extends DefaultProcessor<PushEntryReq> {
         asyncCtx.sendResponse(resp);
     }
 
+    @Override
+    public Executor getExecutor() {
+        return executor;
+    }
+
     public String interest() {
         return PushEntryReq.class.getName();
     }
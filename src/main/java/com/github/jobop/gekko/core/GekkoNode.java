@@ -26,14 +26,18 @@ import com.github.jobop.gekko.connector.GekkoNettyServer;
 import com.github.jobop.gekko.connector.GekkoNodeNettyClient;
 import com.github.jobop.gekko.core.lifecycle.LifeCycleAdpter;
 import com.github.jobop.gekko.core.metadata.NodeState;
+import com.github.jobop.gekko.core.replication.AppendPipeline;
 import com.github.jobop.gekko.core.replication.EntriesSynchronizer;
+import com.github.jobop.gekko.core.snapshot.SnapshotManager;
 import com.github.jobop.gekko.core.statemachine.StateMachine;
+import com.github.jobop.gekko.core.statemachine.StateMachineApplier;
 import com.github.jobop.gekko.enums.StoreEnums;
 import com.github.jobop.gekko.protocols.GekkoInboundProtocol;
 import com.github.jobop.gekko.store.FileStore;
 import com.github.jobop.gekko.store.MemoryStore;
 import com.github.jobop.gekko.store.RockDbStore;
 import com.github.jobop.gekko.store.Store;
+import com.github.jobop.gekko.utils.CallbackExecutors;
 
 
 public class GekkoNode extends LifeCycleAdpter {
@@ -46,6 +50,10 @@ public class GekkoNode extends LifeCycleAdpter {
     StateMachine stateMachine;
     GekkoLeaderElector elector;
     EntriesSynchronizer synchronizer;
+    SnapshotManager snapshotManager;
+    StateMachineApplier applier;
+    AppendPipeline appendPipeline;
+    CallbackExecutors callbackExecutors;
 
     public GekkoNode(GekkoConfig conf) {
         this.conf = conf;
@@ -59,15 +67,19 @@ public class GekkoNode extends LifeCycleAdpter {
         }
 
         this.stateMachine = conf.getStateMachine();
+        this.applier = new StateMachineApplier(conf, this.nodeState, this.store, this.stateMachine);
+        this.snapshotManager = new SnapshotManager(conf, this.nodeState, this.store, this.stateMachine, this.applier);
 
         this.nodeClient = new GekkoNodeNettyClient(conf, nodeState);
-        this.synchronizer =new EntriesSynchronizer(conf, nodeClient, nodeState,store);
-        this.elector = new GekkoLeaderElector(conf, nodeClient, nodeState,this.synchronizer);
+        this.callbackExecutors = new CallbackExecutors(conf);
+        this.synchronizer =new EntriesSynchronizer(conf, nodeClient, nodeState,store,this.snapshotManager,this.applier,this.callbackExecutors);
+        this.elector = new GekkoLeaderElector(conf, nodeClient, nodeState,this.synchronizer,this.callbackExecutors);
 
 
 
-        this.inboundHelper = new GekkoInboundMsgHelper(this.store, this.stateMachine,this.nodeState, this.synchronizer,this.nodeClient);
-        this.server = new GekkoNettyServer(conf, this.inboundHelper, this.nodeState,this.elector);
+        this.inboundHelper = new GekkoInboundMsgHelper(this.store, this.stateMachine,this.nodeState, this.synchronizer,this.nodeClient,this.snapshotManager,this.applier);
+        this.appendPipeline = new AppendPipeline(conf, this.store, this.synchronizer, this.applier);
+        this.server = new GekkoNettyServer(conf, this.inboundHelper, this.nodeState,this.elector,this.appendPipeline);
 
 
 
@@ -78,6 +90,9 @@ public class GekkoNode extends LifeCycleAdpter {
     public void init() {
         this.nodeState.init();
         this.store.init();
+        this.applier.init();
+        this.snapshotManager.init();
+        this.appendPipeline.init();
         this.server.init();
         this.nodeClient.init();
         this.elector.init();
@@ -88,19 +103,32 @@ public class GekkoNode extends LifeCycleAdpter {
     public void start() {
         this.nodeState.start();
         this.store.start();
+        this.snapshotManager.start();
+        this.appendPipeline.start();
         this.server.start();
         this.nodeClient.start();
         this.elector.start();
         this.synchronizer.start();
+        this.applier.start();
     }
 
     @Override
     public void shutdown() {
         this.nodeState.shutdown();
+        this.snapshotManager.shutdown();
+        //stop writing and reading the log before the store is closed
+        this.appendPipeline.shutdown();
+        this.applier.shutdown();
         this.store.shutdown();
         this.server.shutdown();
         this.nodeClient.shutdown();
         this.elector.shutdown();
         this.synchronizer.shutdown();
+        this.callbackExecutors.shutdown();
+    }
+
+    //the queue depths of the rpc callback executors
+    public CallbackExecutors getCallbackExecutors() {
+        return callbackExecutors;
     }
 }
@@ -20,6 +20,8 @@ package com.github.jobop.gekko.core.config;
 
 import com.github.jobop.gekko.core.statemachine.NoopStateMachine;
 import com.github.jobop.gekko.core.statemachine.StateMachine;
+import com.github.jobop.gekko.enums.AckModeEnum;
+import com.github.jobop.gekko.enums.FlushModeEnum;
 import com.github.jobop.gekko.enums.StoreEnums;
 import lombok.Builder;
 import lombok.Data;
@@ -54,9 +56,62 @@ public class GekkoConfig {
     @Builder.Default
     int flushInterval = 1;
     @Builder.Default
+    FlushModeEnum flushMode = FlushModeEnum.ASYNC;
+    //milliseconds the GROUP flusher sleeps when no append wakes it up
+    @Builder.Default
+    int groupFlushInterval = 10;
+    //milliseconds an append waits for the GROUP flusher before it fails
+    @Builder.Default
+    int groupFlushTimeout = 3000;
+    @Builder.Default
     int indexCountPerFile = 100000;
+    //how many segments of 65536 indexes the file store keeps in memory for the lookups by index
+    @Builder.Default
+    int indexCacheSegmentCount = 2;
+    //how many store files are created ahead in the background,so that rolling to a new file won't stall the appends,0 means disable
+    @Builder.Default
+    int preAllocateFileCount = 1;
+    //touch every page of the pre-allocated files,so the first writes won't page fault
+    @Builder.Default
+    boolean warmMappedFile = false;
+    //the most bytes of the data files(and of the index files) kept mapped,the least recently read sealed files are unmapped above it,0 means no cap
+    @Builder.Default
+    long maxMappedBytes = 0;
+    //seconds before a sealed store file which has not been read is unmapped,it's mapped again on the next read,0 means never
+    @Builder.Default
+    int mappedFileIdleTime = 300;
+    //the entries a cursor reads ahead from the stores which can only read by ranges
+    @Builder.Default
+    int cursorReadAheadCount = 256;
+    //the bytes of pages the cursor of the file store touches ahead of the entry it reads
+    @Builder.Default
+    int cursorReadAheadBytes = 1024 * 1024;
+    //the memory store keeps the entries in direct slabs of this size,an entry can not be larger than one slab
+    @Builder.Default
+    int memorySlabSize = 1024 * 1024 * 4;
+    //the most bytes the memory store can hold before appends have to wait for trimBefore,it must hold the log of snapshotThreshold entries
+    @Builder.Default
+    long memoryStoreMaxBytes = 1024L * 1024 * 256;
+    //milliseconds an append waits for free space in the memory store before it fails
+    @Builder.Default
+    int memoryStoreAppendTimeout = 1000;
+    //the block cache shared by the rocksdb store,it bounds the memory used by the reads
+    @Builder.Default
+    long rocksDbBlockCacheSize = 1024L * 1024 * 64;
+    @Builder.Default
+    long rocksDbWriteBufferSize = 1024L * 1024 * 64;
     @Builder.Default
     int saveCheckPointInterval = 5;
+    //seconds between two checks of the compactor
+    @Builder.Default
+    int snapshotInterval = 60;
+    //take a snapshot and compact the log once this many entries have been committed since the last one,0 means disable,
+    //only turn it on with a state machine which saves and loads its snapshots,the memory store requires it
+    @Builder.Default
+    long snapshotThreshold = 0;
+    //bytes of a snapshot file sent in one InstallSnapshotReq
+    @Builder.Default
+    int snapshotChunkSize = 1024 * 1024;
     @Builder.Default
     int maxElectionTimeOut = 5000;
     @Builder.Default
@@ -65,10 +120,47 @@ public class GekkoConfig {
     int heartBeatInterval = 1000;
 
 
+    //the replicators are woken up by the appends,the interval only drives the probes and the timeout checks
     @Builder.Default
     int entriesPushInterval = 1000;
+    //micros a woken replicator waits for more entries before pushing a batch not full yet,0 means push at once
+    @Builder.Default
+    int entriesPushLingerMicros = 0;
 
     @Builder.Default
     int entriesPushMaxCount = 1000;
+    //batches sent to one follower without waiting for their acks,1 means stop-and-wait
+    @Builder.Default
+    int entriesPushMaxInflight = 8;
+    //millis to wait for the ack of a batch before rolling back to it
+    @Builder.Default
+    int entriesPushTimeout = 3000;
+    //rpc callbacks waiting in the queue of one callback executor at most,the ones beyond it are dropped like lost responses
+    @Builder.Default
+    int callbackQueueCapacity = 1024;
+    @Builder.Default
+    int electionCallbackThreads = 2;
+    //entries of the concurrent client appends written and replicated together at most
+    @Builder.Default
+    int appendCoalesceMaxCount = 1000;
+    //slots of the ring the client appends are published into,a power of 2,the processors block while it's full
+    @Builder.Default
+    int appendRingBufferSize = 1024;
+    //when an append is acked to the client,see AckModeEnum
+    @Builder.Default
+    AckModeEnum appendAckMode = AckModeEnum.LOCAL;
+    //initial slots of the ring the appends wait in for their ack,it grows when full
+    @Builder.Default
+    int appendWaiterCapacity = 1024;
+
+    //committed entries handed to StateMachine.onApply in one call at most
+    @Builder.Default
+    int applyBatchMaxCount = 1000;
+    //client appends wait while this many committed entries are not applied yet,0 means never wait
+    @Builder.Default
+    long applyMaxLag = 100000;
+    //milliseconds the applier sleeps when no commit wakes it up
+    @Builder.Default
+    int applyInterval = 1000;
 
 }
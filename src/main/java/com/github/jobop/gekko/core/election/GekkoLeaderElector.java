@@ -27,6 +27,7 @@ import com.github.jobop.gekko.core.replication.EntriesSynchronizer;
 import com.github.jobop.gekko.core.timout.DelayChangeableTimeoutHolder;
 import com.github.jobop.gekko.core.timout.RefreshableTimeoutHolder;
 import com.github.jobop.gekko.enums.RoleEnum;
+import com.github.jobop.gekko.utils.CallbackExecutors;
 import io.netty.util.Timeout;
 import io.netty.util.TimerTask;
 import lombok.Data;
@@ -51,15 +52,17 @@ public class GekkoLeaderElector extends LifeCycleAdpter {
 
     RefreshableTimeoutHolder heartBeatSender;
     EntriesSynchronizer synchronizer;
+    CallbackExecutors callbackExecutors;
 
     Random random = new Random();
 
 
-    public GekkoLeaderElector(GekkoConfig conf, GekkoNodeNettyClient client, NodeState state, EntriesSynchronizer synchronizer) {
+    public GekkoLeaderElector(GekkoConfig conf, GekkoNodeNettyClient client, NodeState state, EntriesSynchronizer synchronizer, CallbackExecutors callbackExecutors) {
         this.conf = conf;
         this.client = client;
         this.state = state;
         this.synchronizer = synchronizer;
+        this.callbackExecutors = callbackExecutors;
 
     }
 
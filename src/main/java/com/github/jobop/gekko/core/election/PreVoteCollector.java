@@ -35,7 +35,6 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -107,7 +106,7 @@ public class PreVoteCollector implements InvokeCallback {
 
     @Override
     public Executor getExecutor() {
-        return Executors.newSingleThreadExecutor();
+        return elector.getCallbackExecutors().getElectionExecutor();
     }
 
     public void disAble() {
@@ -32,7 +32,6 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 @Slf4j
@@ -97,7 +96,7 @@ public class VoteCollector implements InvokeCallback {
 
     @Override
     public Executor getExecutor() {
-        return Executors.newSingleThreadExecutor();
+        return elector.getCallbackExecutors().getElectionExecutor();
     }
 
     public void disAble() {
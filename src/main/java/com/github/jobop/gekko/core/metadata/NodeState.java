@@ -60,6 +60,8 @@ public class NodeState extends LifeCycleAdpter {
     private volatile AtomicLong termAtomic;
     private volatile long writeId;
     private volatile long commitId;
+    //the last index the state machine has applied
+    private volatile long lastApplied;
     private volatile long preChecksum;
     private volatile long lastChecksum;
     //avoid the inode thich cannot connect to the leader send a vote or prevote to it,make it cannot handle the append push from the leader
@@ -77,6 +79,7 @@ public class NodeState extends LifeCycleAdpter {
         this.termAtomic = new AtomicLong(-1);
         this.writeId = 0;
         this.commitId = 0;
+        this.lastApplied = 0;
         if (this.config.getPeers() == null || this.config.getPeerIds() == null) {
             throw new GekkoException(ResultEnums.PEER_OR_PEERID_CANNOT_BE_NULL);
         }
@@ -34,7 +34,6 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
@@ -45,11 +44,13 @@ public class AcceptCollector implements InvokeCallback {
     private Set<String> agreeSet = Collections.synchronizedSet(new HashSet<>());
     private AtomicBoolean hasNotify = new AtomicBoolean(false);
     private GekkoEntry entry;
+    private Executor executor;
 
-    public AcceptCollector(GekkoEntry entry, NodeState nodeState, Consumer callback) {
+    public AcceptCollector(GekkoEntry entry, NodeState nodeState, Consumer callback, Executor executor) {
         this.callback = callback;
         this.nodeState = nodeState;
         this.entry = entry;
+        this.executor = executor;
     }
 
 
@@ -76,6 +77,6 @@ public class AcceptCollector implements InvokeCallback {
 
     @Override
     public Executor getExecutor() {
-        return Executors.newSingleThreadExecutor();
+        return executor;
     }
 }
@@ -0,0 +1,273 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jobop.gekko.core.replication;
+
+import com.github.jobop.gekko.core.config.GekkoConfig;
+import com.github.jobop.gekko.core.exception.GekkoException;
+import com.github.jobop.gekko.core.lifecycle.LifeCycleAdpter;
+import com.github.jobop.gekko.core.statemachine.StateMachineApplier;
+import com.github.jobop.gekko.enums.ResultEnums;
+import com.github.jobop.gekko.protocols.message.GekkoEntry;
+import com.github.jobop.gekko.store.Store;
+import com.lmax.disruptor.*;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * the write path of the leader,the processors publish the client appends into a ring and three handlers run on them in order:
+ * the store handler is the only writer and writes all the appends it can see as one batch,
+ * the replicate handler wakes the replicators once per batch,
+ * the respond handler calls each append back when it can be acked under the ack mode
+ */
+@Slf4j
+public class AppendPipeline extends LifeCycleAdpter {
+    private static final EventTranslatorTwoArg<AppendEvent, List<GekkoEntry>, BiConsumer<Integer, ResultEnums>> TRANSLATOR =
+            (event, sequence, entries, callback) -> {
+                event.entries = entries;
+                event.callback = callback;
+                event.stored = 0;
+                event.lastStoredOfBatch = null;
+            };
+    private GekkoConfig conf;
+    private Store store;
+    private EntriesSynchronizer entriesSynchronizer;
+    private StateMachineApplier applier;
+    private Disruptor<AppendEvent> disruptor;
+
+    public AppendPipeline(GekkoConfig conf, Store store, EntriesSynchronizer entriesSynchronizer, StateMachineApplier applier) {
+        this.conf = conf;
+        this.store = store;
+        this.entriesSynchronizer = entriesSynchronizer;
+        this.applier = applier;
+    }
+
+    //the handlers are passed as generic varargs to the disruptor
+    @SuppressWarnings("unchecked")
+    @Override
+    public void init() {
+        AtomicInteger threadIndex = new AtomicInteger(0);
+        String[] names = {"AppendPipeline-store", "AppendPipeline-replicate", "AppendPipeline-respond"};
+        disruptor = new Disruptor<AppendEvent>(AppendEvent::new, conf.getAppendRingBufferSize(), r -> {
+            Thread t = new Thread(r, names[threadIndex.getAndIncrement() % names.length]);
+            t.setDaemon(true);
+            return t;
+        }, ProducerType.MULTI, new BlockingWaitStrategy());
+        disruptor.setDefaultExceptionHandler(new ExceptionHandler<AppendEvent>() {
+            @Override
+            public void handleEventException(Throwable ex, long sequence, AppendEvent event) {
+                log.error("append pipeline fail! sequence=" + sequence, ex);
+            }
+
+            @Override
+            public void handleOnStartException(Throwable ex) {
+                log.error("append pipeline start fail!", ex);
+            }
+
+            @Override
+            public void handleOnShutdownException(Throwable ex) {
+                log.error("append pipeline shutdown fail!", ex);
+            }
+        });
+        disruptor.handleEventsWith(new StoreHandler()).then(new ReplicateHandler()).then(new RespondHandler());
+    }
+
+    @Override
+    public void start() {
+        disruptor.start();
+    }
+
+    @Override
+    public void shutdown() {
+        try {
+            disruptor.shutdown(conf.getEntriesPushTimeout(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("the append pipeline is not drained in time!");
+            disruptor.halt();
+        }
+    }
+
+    /**
+     * blocks while the ring is full
+     *
+     * @param entries
+     * @param callback receive how many of the entries are stored,they are always a prefix of the entries,and the result:
+     *                 SUCCESS if all of them can be acked,APPEND_FAIL if the rest are not stored,
+     *                 APPEND_UNKNOWN if the stored ones are written but cannot be acked yet(flush timeout or step down)
+     */
+    public void publish(List<GekkoEntry> entries, BiConsumer<Integer, ResultEnums> callback) {
+        //an entry the store can never hold would stop the rest of the coalesced batch,so it only fails its own caller
+        int storable = 0;
+        while (storable < entries.size() && entries.get(storable).computSizeInBytes() <= store.getMaxEntrySize()) {
+            storable++;
+        }
+        if (storable == entries.size()) {
+            disruptor.publishEvent(TRANSLATOR, entries, callback);
+        } else if (storable == 0) {
+            callback.accept(0, ResultEnums.APPEND_FAIL);
+        } else {
+            disruptor.publishEvent(TRANSLATOR, entries.subList(0, storable),
+                    (stored, result) -> callback.accept(stored, result == ResultEnums.SUCCESS ? ResultEnums.APPEND_FAIL : result));
+        }
+    }
+
+    static class AppendEvent {
+        List<GekkoEntry> entries;
+        BiConsumer<Integer, ResultEnums> callback;
+        int stored;
+        //set on the last event of a batch if any entry of the batch is stored
+        GekkoEntry lastStoredOfBatch;
+    }
+
+    /**
+     * only this thread writes the client appends,so the batch is whatever the producers published while the last one was written
+     */
+    class StoreHandler implements SequenceReportingEventHandler<AppendEvent> {
+        private Sequence sequenceCallback;
+        private List<AppendEvent> batchEvents = new ArrayList<AppendEvent>();
+        private List<GekkoEntry> batchEntries = new ArrayList<GekkoEntry>();
+
+        @Override
+        public void setSequenceCallback(Sequence sequenceCallback) {
+            this.sequenceCallback = sequenceCallback;
+        }
+
+        @Override
+        public void onEvent(AppendEvent event, long sequence, boolean endOfBatch) {
+            batchEvents.add(event);
+            if (null != event.entries) {
+                batchEntries.addAll(event.entries);
+            }
+            if (endOfBatch || batchEntries.size() >= conf.getAppendCoalesceMaxCount()) {
+                flush();
+                //the next handlers must not see the events before they are written
+                sequenceCallback.set(sequence);
+            }
+        }
+
+        private void flush() {
+            int stored = 0;
+            try {
+                if (!batchEntries.isEmpty()) {
+                    //a store failing part way leaves the rest untouched,so they must not look written
+                    for (GekkoEntry entry : batchEntries) {
+                        entry.setPos(-1);
+                    }
+                    try {
+                        //push back on the clients while the state machine cannot keep up with the commits
+                        applier.waitForBacklog();
+                        //the flush is waited in the respond stage,so the replicators need not wait for it
+                        store.appendBatchNoFlushWait(batchEntries);
+                    } catch (RuntimeException e) {
+                        log.error("append batch fail! size=" + batchEntries.size(), e);
+                    }
+                    //the written prefix is replicated and acked even if the store threw after it
+                    while (stored < batchEntries.size() && batchEntries.get(stored).getPos() != -1) {
+                        stored++;
+                    }
+                }
+                int offset = 0;
+                for (AppendEvent event : batchEvents) {
+                    int size = null == event.entries ? 0 : event.entries.size();
+                    event.stored = Math.max(0, Math.min(size, stored - offset));
+                    offset += size;
+                }
+                batchEvents.get(batchEvents.size() - 1).lastStoredOfBatch = stored > 0 ? batchEntries.get(stored - 1) : null;
+            } finally {
+                //never carried into the next batch,or they would be appended again
+                batchEvents.clear();
+                batchEntries.clear();
+            }
+        }
+    }
+
+    class ReplicateHandler implements EventHandler<AppendEvent> {
+        @Override
+        public void onEvent(AppendEvent event, long sequence, boolean endOfBatch) {
+            //the last one is enough to wake the replicators
+            if (null != event.lastStoredOfBatch) {
+                entriesSynchronizer.accept(event.lastStoredOfBatch);
+            }
+        }
+    }
+
+    class RespondHandler implements EventHandler<AppendEvent> {
+        @Override
+        public void onEvent(AppendEvent event, long sequence, boolean endOfBatch) {
+            BiConsumer<Integer, ResultEnums> callback = event.callback;
+            List<GekkoEntry> entries = event.entries;
+            int stored = event.stored;
+            //the slot is reused,keep nothing of the append in it
+            event.entries = null;
+            event.callback = null;
+            event.lastStoredOfBatch = null;
+            if (stored == 0) {
+                complete(callback, 0, ResultEnums.APPEND_FAIL);
+                return;
+            }
+            ResultEnums acked = stored == entries.size() ? ResultEnums.SUCCESS : ResultEnums.APPEND_FAIL;
+            try {
+                store.waitForFlush(entries.subList(0, stored));
+            } catch (GekkoException e) {
+                //written but not known to be forced,it may still be committed
+                log.warn("wait for flush fail! stored=" + stored, e);
+                complete(callback, stored, ResultEnums.APPEND_UNKNOWN);
+                return;
+            }
+            //the waiters come in index order,so each commit completes them from the head of the ring
+            waitForAck(entries.get(stored - 1), ok -> complete(callback, stored, ok ? acked : ResultEnums.APPEND_UNKNOWN));
+        }
+
+        private void waitForAck(GekkoEntry last, Consumer<Boolean> callback) {
+            long index = last.getEntryIndex();
+            switch (conf.getAppendAckMode()) {
+                case QUORUM:
+                    entriesSynchronizer.waitForCommit(index, last.getTerm(), callback);
+                    break;
+                case APPLIED:
+                    //a committed entry never changes,so the apply waiter needs no failing when this node steps down
+                    entriesSynchronizer.waitForCommit(index, last.getTerm(), committed -> {
+                        if (committed) {
+                            applier.waitForApply(index, callback);
+                        } else {
+                            callback.accept(false);
+                        }
+                    });
+                    break;
+                default:
+                    callback.accept(true);
+            }
+        }
+
+        private void complete(BiConsumer<Integer, ResultEnums> callback, int stored, ResultEnums result) {
+            try {
+                callback.accept(stored, result);
+            } catch (Throwable t) {
+                log.error("append callback fail!", t);
+            }
+        }
+    }
+}
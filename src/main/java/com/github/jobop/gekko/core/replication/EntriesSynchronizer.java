@@ -26,122 +26,163 @@ import com.github.jobop.gekko.core.config.GekkoConfig;
 import com.github.jobop.gekko.core.lifecycle.LifeCycleAdpter;
 import com.github.jobop.gekko.core.metadata.NodeState;
 import com.github.jobop.gekko.core.metadata.Peer;
+import com.github.jobop.gekko.core.snapshot.SnapshotManager;
+import com.github.jobop.gekko.core.snapshot.SnapshotMeta;
+import com.github.jobop.gekko.core.statemachine.StateMachineApplier;
+import com.github.jobop.gekko.enums.PushResultEnums;
 import com.github.jobop.gekko.enums.ResultEnums;
 import com.github.jobop.gekko.enums.RoleEnum;
 import com.github.jobop.gekko.protocols.message.GekkoEntry;
+import com.github.jobop.gekko.protocols.message.GekkoEntryView;
+import com.github.jobop.gekko.protocols.message.node.InstallSnapshotReq;
+import com.github.jobop.gekko.protocols.message.node.InstallSnapshotResp;
 import com.github.jobop.gekko.protocols.message.node.ProbeResp;
 import com.github.jobop.gekko.protocols.message.node.PushEntryResp;
 import com.github.jobop.gekko.store.Store;
+import com.github.jobop.gekko.utils.CallbackExecutors;
 import com.github.jobop.gekko.utils.NotifyableThread;
 import com.github.jobop.gekko.utils.Utils;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
 
 @Slf4j
 public class EntriesSynchronizer extends LifeCycleAdpter {
-    //<term,<peerId,writeIndex>>
-    private Map<Long, ConcurrentHashMap<String, Long>> peerTermWaterMarks = new HashMap<Long, ConcurrentHashMap<String, Long>>();
     GekkoConfig conf;
     Store store;
     GekkoNodeNettyClient client;
     NodeState state;
-    NotifyableThread commitIndexUpdateThread;
-    private static int COMMIT_INDEX_UPDATE_INTERVAL = 1000;
+    SnapshotManager snapshotManager;
+    StateMachineApplier applier;
+    CallbackExecutors callbackExecutors;
+    private static int SELF_SLOT = 0;
+    //the highest index known to be replicated on each node,slot 0 is this node,the others are the replicators'
+    private long[] matchIndex;
+    private long[] sortedMatchIndex;
+    //the first index of the current term,an index before it is only committed along with one of this term
+    private long termFirstIndex = Long.MAX_VALUE;
     private List<Replicator> replicators = new ArrayList<Replicator>();
+    //the appends acked on commit,completed as the commit index moves
+    private IndexWaiterQueue commitWaiters;
 
 
     @Override
     public void init() {
-        commitIndexUpdateThread = new NotifyableThread(COMMIT_INDEX_UPDATE_INTERVAL, TimeUnit.MILLISECONDS, "commitIndexUpdateThread") {
-            @Override
-            public void doWork() {
-                state.setCommitId(getQuorumIndex());
-            }
-        };
+        matchIndex = new long[state.getPeersMap().size()];
+        sortedMatchIndex = new long[matchIndex.length];
+        commitWaiters = new IndexWaiterQueue(conf.getAppendWaiterCapacity(), state.getCommitId());
         state.getPeersMap().forEach((k, v) -> {
             if (k.equals(state.getSelfId())) {
                 return;
             }
-            replicators.add(new Replicator(k, v));
+            replicators.add(new Replicator(k, v, replicators.size() + 1));
         });
 
 
     }
 
-    @Override
-    public void start() {
-        commitIndexUpdateThread.start();
-    }
-
     @Override
     public void shutdown() {
-
-        commitIndexUpdateThread.shutdown();
         replicators.forEach(r -> r.shutdown());
+        commitWaiters.failAll();
     }
 
     public void triggerProbes() {
-//        peerTermWaterMarks.getOrDefault(entry.getTerm(), new ConcurrentHashMap<String, Long>()).put(state.getSelfId(), entry.getEntryIndex());
-
+        synchronized (this) {
+            Arrays.fill(matchIndex, 0);
+            matchIndex[SELF_SLOT] = state.getWriteId();
+            termFirstIndex = state.getWriteId() + 1;
+        }
+        commitWaiters.open(state.getTerm());
         replicators.forEach(r -> r.start());
     }
 
     public void stopProbes() {
         replicators.forEach(r -> r.stop());
+        //a follower cannot tell whether its uncommitted entries survive the new leader
+        commitWaiters.failAll();
     }
 
-    public void accept(GekkoEntry entry) {
-        ConcurrentHashMap peerMap = peerTermWaterMarks.getOrDefault(entry.getTerm(), new ConcurrentHashMap<String, Long>());
-        peerMap.put(state.getSelfId(), entry.getEntryIndex());
-        peerTermWaterMarks.put(entry.getTerm(), peerMap);
+    /**
+     * call back once the index is committed,or with false when this node is not the leader of the term any more
+     *
+     * @param index
+     * @param term  the term the entry at the index was written in
+     * @param callback
+     */
+    public void waitForCommit(long index, long term, Consumer<Boolean> callback) {
+        commitWaiters.await(index, term, callback);
+    }
 
+    public void accept(GekkoEntry entry) {
+        updateMatchIndex(SELF_SLOT, entry.getEntryIndex());
         replicators.forEach(r -> r.accept(entry));
     }
 
-    private Long getQuorumIndex() {
-        ConcurrentHashMap<String, Long> termWaterMarks = peerTermWaterMarks.get(state.getTerm());
-        //当前期还没有产生数据，用之前的
-        if (null == termWaterMarks) {
-            return state.getCommitId();
+    /**
+     * called on every ack,the commit index moves as soon as a quorum has the entries
+     */
+    void updateMatchIndex(int slot, long index) {
+        long committed = advanceMatchIndex(slot, index);
+        //the waiters are called back out of the lock
+        if (committed != -1) {
+            commitWaiters.advance(committed);
+            applier.trigger();
+        }
+    }
+
+    //return the new commit index,or -1 if it does not move
+    private synchronized long advanceMatchIndex(int slot, long index) {
+        if (index <= matchIndex[slot]) {
+            return -1;
+        }
+        matchIndex[slot] = index;
+        //a follower never acks past the log of the leader,so our own slot only decides the quorum when we are alone
+        if (slot == SELF_SLOT && matchIndex.length > 1) {
+            return -1;
         }
-        //sort and get the middle one index
-        List<Long> sortedWaterMarks = termWaterMarks.values()
-                .stream()
-                .sorted(Comparator.reverseOrder())
-                .collect(Collectors.toList());
-        //少于一半人情况已知
-        if (sortedWaterMarks.size() < (state.getPeersMap().size() / 2) + 1) {
-            return state.getCommitId();
-        } else {
-            //大于等于一半人情况已知
-            long quorumIndex = sortedWaterMarks.get(state.getPeersMap().size() / 2);
+        long quorumIndex = getQuorumIndex();
+        if (quorumIndex >= termFirstIndex && quorumIndex > state.getCommitId()) {
+            state.setCommitId(quorumIndex);
             return quorumIndex;
         }
+        return -1;
+    }
 
-
+    //the highest index a majority has
+    private long getQuorumIndex() {
+        System.arraycopy(matchIndex, 0, sortedMatchIndex, 0, matchIndex.length);
+        Arrays.sort(sortedMatchIndex);
+        return sortedMatchIndex[(sortedMatchIndex.length - 1) / 2];
     }
 
 
-    public EntriesSynchronizer(GekkoConfig conf, GekkoNodeNettyClient client, NodeState state, Store store) {
+    public EntriesSynchronizer(GekkoConfig conf, GekkoNodeNettyClient client, NodeState state, Store store, SnapshotManager snapshotManager, StateMachineApplier applier, CallbackExecutors callbackExecutors) {
         this.conf = conf;
         this.client = client;
         this.state = state;
         this.store = store;
+        this.snapshotManager = snapshotManager;
+        this.applier = applier;
+        this.callbackExecutors = callbackExecutors;
 
     }
 
     public void append(GekkoEntry entry, Consumer callback) {
         List<GekkoEntry> entries = new ArrayList<GekkoEntry>();
         entries.add(entry);
-        client.pushDatas(entries, new AcceptCollector(entry, this.state, callback));
+        client.pushDatas(entries, new AcceptCollector(entry, this.state, callback, callbackExecutors.getElectionExecutor()));
     }
 
 
@@ -165,25 +206,34 @@ public class EntriesSynchronizer extends LifeCycleAdpter {
     class Replicator extends LifeCycleAdpter {
         private Peer peer;
         private String peerId;
+        private int slot;
 
         NotifyableThread replicateThread;
         volatile long nexReplicateIndex = 0;
         volatile boolean needProbe = true;
         volatile boolean needTrim=false;
 
-        List<PenddingEntryBatch> penddingQueue = new ArrayList<>();
-
-        PenddingEntryBatch lastPenddingEntryBatch;
+        //the batches sent but not acked yet,in index order,changed under the replicator lock
+        Deque<PenddingEntryBatch> penddingQueue = new ConcurrentLinkedDeque<PenddingEntryBatch>();
+        AtomicLong batchIdGenerator = new AtomicLong(0);
+        //acks of one follower are handled one by one and in the order they come back
+        Executor callbackExecutor;
         volatile AtomicBoolean start = new AtomicBoolean(false);
+        //set by the first append after the replicate thread began its work,the later ones only read it
+        AtomicBoolean wakeupPending = new AtomicBoolean(false);
 
 
-        public Replicator(String peerId, Peer peer) {
+        public Replicator(String peerId, Peer peer, int slot) {
             this.peerId = peerId;
             this.peer = peer;
+            this.slot = slot;
+            this.callbackExecutor = callbackExecutors.serialExecutorOf(peerId);
             //TODO:
             replicateThread = new NotifyableThread(conf.getEntriesPushInterval(), TimeUnit.MILLISECONDS, "Replicator-" + peerId) {
                 @Override
                 public void doWork() {
+                    //the appends from now on wake us up again
+                    wakeupPending.set(false);
                     if (!start.get()) {
                         return;
                     }
@@ -202,36 +252,82 @@ public class EntriesSynchronizer extends LifeCycleAdpter {
         }
 
 
+        /**
+         * keep up to entriesPushMaxInflight batches on the wire,each one is sent right after the previous one
+         * without waiting for its ack,so the throughput is bound by the bandwidth instead of the round trip
+         */
         private void push() {
-            //TODO:
-            long fromIndex = getnextIndex();
+            checkTimeout();
+            linger();
+            while (start.get() && state.isLeader() && penddingQueue.size() < conf.getEntriesPushMaxInflight()) {
+                if (!pushNextBatch()) {
+                    return;
+                }
+            }
+        }
+
+        private boolean pushNextBatch() {
+            long fromIndex;
+            PenddingEntryBatch lastBatch;
+            synchronized (this) {
+                lastBatch = penddingQueue.peekLast();
+                fromIndex = getnextIndex();
+            }
             long maxIndex = store.getMaxIndex();
             if (maxIndex < fromIndex) {
-                return;
+                return false;
+            }
+            if (null == lastBatch && needInstallSnapshot(fromIndex)) {
+                installSnapshot();
+                return false;
             }
 
             long endIndex = (maxIndex - fromIndex) > conf.getEntriesPushMaxCount() ?
                     fromIndex + conf.getEntriesPushMaxCount() : maxIndex;
-            GekkoEntry preEntry = store.getByIndex(fromIndex - 1);
-            List<GekkoEntry> entries = store.batchGetByIndex(fromIndex, endIndex+1);
-            if (null == entries || entries.isEmpty()) {
-                return;
+            //the bytes go to the follower as they are in the log,only the headers are read
+            ByteBuffer rawEntries = store.readRawByIndex(fromIndex, endIndex + 1);
+            if (!rawEntries.hasRemaining()) {
+                return false;
             }
+            GekkoEntryView view = new GekkoEntryView();
+            int count = 0;
+            for (int offset = rawEntries.position(); offset < rawEntries.limit(); offset += view.getTotalSize()) {
+                view.wrap(rawEntries, offset, null);
+                count++;
+            }
+            long lastIndex = view.getEntryIndex();
+            long lastCheckSum = view.getChecksum();
             long preCheckSum = 0;
-            if (null != preEntry) {
-                preCheckSum = preEntry.getChecksum();
+            if (null != lastBatch) {
+                //chain to the batch still in flight
+                preCheckSum = lastBatch.getLastCheckSum();
+            } else {
+                GekkoEntry preEntry = store.getByIndex(fromIndex - 1);
+                if (null != preEntry) {
+                    preCheckSum = preEntry.getChecksum();
+                } else if (null != snapshotManager.getLastSnapshotMeta() && snapshotManager.getLastSnapshotMeta().getLastIncludedIndex() == fromIndex - 1) {
+                    preCheckSum = snapshotManager.getLastSnapshotMeta().getLastIncludedChecksum();
+                }
             }
             log.info("###need push index from " + fromIndex + " to " + endIndex);
 
             PenddingEntryBatch penddingEntry = PenddingEntryBatch.builder().
-                    startIndex(entries.get(0).getEntryIndex()).
-                    endIndex(entries.get(entries.size() - 1).getEntryIndex()).
+                    batchId(batchIdGenerator.incrementAndGet()).
+                    startIndex(fromIndex).
+                    endIndex(lastIndex).
                     preCheckSum(preCheckSum).
-                    entries(entries).
-                    preCommitIndex(state.getCommitId()).count(entries.size()).build();
-
-            penddingQueue.add(penddingEntry);
-            lastPenddingEntryBatch = penddingEntry;
+                    rawEntries(toArray(rawEntries)).
+                    lastCheckSum(lastCheckSum).
+                    sendTime(System.currentTimeMillis()).
+                    preCommitIndex(state.getCommitId()).count(count).build();
+
+            synchronized (this) {
+                //rolled back by an ack while reading,start over from the new index
+                if (penddingQueue.peekLast() != lastBatch || getnextIndex() != fromIndex) {
+                    return true;
+                }
+                penddingQueue.addLast(penddingEntry);
+            }
 
             client.pushDatas(peer, penddingEntry, new InvokeCallback() {
                 @Override
@@ -241,18 +337,31 @@ public class EntriesSynchronizer extends LifeCycleAdpter {
                     //FIXME:why reject?
                     switch (resp.getResult()) {
                         case REJECT:
-                            long remoteTerm = resp.getTerm();
-                            nexReplicateIndex = remoteIndex;
-                            penddingQueue.clear();
+                            synchronized (Replicator.this) {
+                                //an ack of a batch sent before the last rollback
+                                if (!penddingQueue.contains(penddingEntry)) {
+                                    return;
+                                }
+                                rollback(remoteIndex);
+                            }
+                            replicateThread.trigger();
                             return;
                         default:
-                            if (remoteIndex > nexReplicateIndex) {
-                                nexReplicateIndex = remoteIndex;
-                                ConcurrentHashMap peerMap = peerTermWaterMarks.getOrDefault(state.getTerm(), new ConcurrentHashMap<String, Long>());
-                                peerMap.put(peerId, remoteIndex - 1);
-                                peerTermWaterMarks.put(state.getTerm(), peerMap);
+                            synchronized (Replicator.this) {
+                                //acked by an earlier batch already,or sent before the last rollback
+                                if (!penddingQueue.contains(penddingEntry)) {
+                                    return;
+                                }
+                                //the follower has everything before remoteIndex,so the acks of the earlier batches are implied
+                                while (!penddingQueue.isEmpty() && penddingQueue.peekFirst().getEndIndex() < remoteIndex) {
+                                    penddingQueue.pollFirst();
+                                }
+                                if (remoteIndex > nexReplicateIndex) {
+                                    nexReplicateIndex = remoteIndex;
+                                }
                             }
-                            penddingQueue.remove(penddingEntry);
+                            updateMatchIndex(slot, remoteIndex - 1);
+                            replicateThread.trigger();
                             return;
                     }
                     //TODO:
@@ -260,26 +369,137 @@ public class EntriesSynchronizer extends LifeCycleAdpter {
 
                 @Override
                 public void onException(Throwable e) {
-                    //TODO:
-                    penddingQueue.clear();
-                    lastPenddingEntryBatch = null;
-                    log.error("push data exception", e);
+                    synchronized (Replicator.this) {
+                        if (!penddingQueue.contains(penddingEntry)) {
+                            return;
+                        }
+                        //resend from the first batch not acked
+                        rollback(penddingQueue.peekFirst().getStartIndex());
+                    }
+                    log.error("push data to " + peerId + " exception", e);
                 }
 
                 @Override
                 public Executor getExecutor() {
-                    return Executors.newSingleThreadExecutor();
+                    return callbackExecutor;
                 }
             });
+            return true;
+        }
+
+        //give the appends a moment to fill up the batch,only when it is not full and nothing is in flight
+        private void linger() {
+            int lingerMicros = conf.getEntriesPushLingerMicros();
+            if (lingerMicros <= 0 || !penddingQueue.isEmpty()) {
+                return;
+            }
+            long backlog = store.getMaxIndex() - nexReplicateIndex + 1;
+            if (backlog > 0 && backlog < conf.getEntriesPushMaxCount()) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(lingerMicros));
+            }
+        }
+
+        //an ack lost without a callback,e.g. the connection was broken before the request left
+        private void checkTimeout() {
+            synchronized (this) {
+                PenddingEntryBatch first = penddingQueue.peekFirst();
+                if (null != first && System.currentTimeMillis() - first.getSendTime() > conf.getEntriesPushTimeout()) {
+                    log.warn("push to " + peerId + " timeout,roll back to " + first.getStartIndex());
+                    rollback(first.getStartIndex());
+                }
+            }
+        }
+
+        //drop everything in flight,the responses of the dropped batches are ignored
+        private void rollback(long index) {
+            penddingQueue.clear();
+            nexReplicateIndex = index;
+        }
+
+        //the stores hand out a heap buffer of the exact size,so the array goes out without another copy
+        private byte[] toArray(ByteBuffer bb) {
+            if (bb.hasArray() && bb.arrayOffset() == 0 && bb.position() == 0 && bb.limit() == bb.array().length) {
+                return bb.array();
+            }
+            byte[] bytes = new byte[bb.remaining()];
+            bb.duplicate().get(bytes);
+            return bytes;
+        }
 
+        //the entries to push or the one they chain to have been compacted into the snapshot
+        private boolean needInstallSnapshot(long fromIndex) {
+            SnapshotMeta meta = snapshotManager.getLastSnapshotMeta();
+            if (null == meta || fromIndex > meta.getLastIncludedIndex()) {
+                return false;
+            }
+            return null == store.getByIndex(Math.max(fromIndex - 1, 1));
+        }
 
+        /**
+         * stream the files of the latest snapshot chunk by chunk,every chunk waits for the follower,
+         * which answers the offset it has,so a broken transfer goes on from there in the next round
+         */
+        private void installSnapshot() {
+            SnapshotMeta meta = snapshotManager.getLastSnapshotMeta();
+            log.info("### install snapshot to " + peerId + " lastIncludedIndex=" + meta.getLastIncludedIndex());
+            boolean installed = false;
+            try {
+                List<String> fileNames = snapshotManager.listSnapshotFiles();
+                for (int i = 0; i < fileNames.size(); i++) {
+                    String fileName = fileNames.get(i);
+                    boolean lastFile = i == fileNames.size() - 1;
+                    try (FileChannel channel = FileChannel.open(snapshotManager.getSnapshotFile(fileName).toPath(), StandardOpenOption.READ)) {
+                        long fileSize = channel.size();
+                        long offset = 0;
+                        do {
+                            //a newer snapshot replaced it,send that one in the next round
+                            if (!start.get() || !state.isLeader() || meta != snapshotManager.getLastSnapshotMeta()) {
+                                return;
+                            }
+                            byte[] data = new byte[(int) Math.min(conf.getSnapshotChunkSize(), fileSize - offset)];
+                            ByteBuffer bb = ByteBuffer.wrap(data);
+                            while (bb.hasRemaining() && channel.read(bb, offset + bb.position()) >= 0) {
+                            }
+                            //the follower may have the whole last file already,then an empty chunk asks it to install
+                            boolean done = lastFile && offset + data.length == fileSize;
+                            InstallSnapshotResp resp = client.installSnapshot(peer, InstallSnapshotReq.builder()
+                                    .group(state.getGroup())
+                                    .remoteNodeId(state.getSelfId())
+                                    .term(state.getTerm())
+                                    .lastIncludedIndex(meta.getLastIncludedIndex())
+                                    .fileName(fileName)
+                                    .fileSize(fileSize)
+                                    .offset(offset)
+                                    .data(data)
+                                    .done(done)
+                                    .build());
+                            if (null == resp || resp.getNextOffset() < 0) {
+                                return;
+                            }
+                            offset = resp.getNextOffset();
+                            installed = done && resp.getResult() == PushResultEnums.AGREE;
+                        } while (offset < fileSize || (lastFile && !installed));
+                    }
+                }
+            } catch (IOException e) {
+                log.error("install snapshot to " + peerId + " fail", e);
+                return;
+            }
+            if (!installed) {
+                return;
+            }
+            synchronized (this) {
+                rollback(meta.getLastIncludedIndex() + 1);
+            }
+            log.info("### install snapshot to " + peerId + " pass,next index=" + this.nexReplicateIndex);
         }
 
         private long getnextIndex() {
-            if (penddingQueue.isEmpty()) {
+            PenddingEntryBatch lastBatch = penddingQueue.peekLast();
+            if (null == lastBatch) {
                 return nexReplicateIndex;
             } else {
-                return lastPenddingEntryBatch.getEndIndex() + 1;
+                return lastBatch.getEndIndex() + 1;
             }
         }
 
@@ -302,9 +522,8 @@ public class EntriesSynchronizer extends LifeCycleAdpter {
                         }
                         log.info("### probe remoteNextId=" + resp.getNextIndex() + " remoteTerm=" + resp.getTerm() + " localIndex=" + state.getWriteId());
 
-                        ConcurrentHashMap peerMap = peerTermWaterMarks.getOrDefault(resp.getTerm(), new ConcurrentHashMap<String, Long>());
-                        peerMap.put(peerId, resp.getCommitIndex());
-                        peerTermWaterMarks.put(state.getTerm(), peerMap);
+                        //what the follower has committed matches ours
+                        updateMatchIndex(slot, resp.getCommitIndex());
 
                         if (resp.getNextIndex() > state.getWriteId() + 1) {
                             //TODO:如果对方比主大，则要truncate它
@@ -325,7 +544,7 @@ public class EntriesSynchronizer extends LifeCycleAdpter {
 
                 @Override
                 public Executor getExecutor() {
-                    return Executors.newSingleThreadExecutor();
+                    return callbackExecutor;
                 }
             });
         }
@@ -340,10 +559,8 @@ public class EntriesSynchronizer extends LifeCycleAdpter {
 
         }
 
-        private void clear() {
-            this.penddingQueue.clear();
-            this.lastPenddingEntryBatch = null;
-            this.nexReplicateIndex = 0;
+        private synchronized void clear() {
+            rollback(0);
         }
 
         public void stop() {
@@ -353,15 +570,20 @@ public class EntriesSynchronizer extends LifeCycleAdpter {
 
         @Override
         public void shutdown() {
+            //the callback executor is shut down with the node's CallbackExecutors
             replicateThread.shutdown();
 
         }
 
+        /**
+         * called on every append,so it must be cheap: only the first append after the replicate thread
+         * began its work triggers it,the others see the pending flag and return
+         */
         public void accept(GekkoEntry entry) {
-            if (nexReplicateIndex == -1) {
+            if (nexReplicateIndex == -1 || !start.get()) {
                 return;
             }
-            if (entry.getEntryIndex() - nexReplicateIndex > conf.getEntriesPushMaxCount()) {
+            if (!wakeupPending.get() && wakeupPending.compareAndSet(false, true)) {
                 replicateThread.trigger();
             }
         }
@@ -0,0 +1,166 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jobop.gekko.core.replication;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * the callbacks waiting for an index to be reached,kept in a ring ordered by index,
+ * so one advance completes all the waiters up to it in a single pass from the head and no waiter holds a thread
+ */
+@Slf4j
+public class IndexWaiterQueue {
+    private long[] indexes;
+    private Object[] callbacks;
+    private int head = 0;
+    private int size = 0;
+    //the highest index reached so far,a waiter at or below it completes at once
+    private long reachedIndex;
+    //the term whose waiters are taken while opened,they only change under the same lock as the waiters
+    private boolean opened = false;
+    private long openTerm;
+
+    public IndexWaiterQueue(int initialCapacity, long reachedIndex) {
+        int capacity = Integer.highestOneBit(Math.max(2, initialCapacity - 1)) << 1;
+        this.indexes = new long[capacity];
+        this.callbacks = new Object[capacity];
+        this.reachedIndex = reachedIndex;
+    }
+
+    /**
+     * @param index
+     * @param callback receive true when the index is reached,false when the waiter is failed
+     */
+    public void await(long index, Consumer<Boolean> callback) {
+        synchronized (this) {
+            if (index > reachedIndex) {
+                offer(index, callback);
+                return;
+            }
+        }
+        complete(callback, true);
+    }
+
+    /**
+     * wait for an index written in the term,fail at once if the queue is not open for that term,
+     * so a waiter never slips in after the failAll of its term
+     *
+     * @param index
+     * @param term     the term of the entry at the index
+     * @param callback receive true when the index is reached,false when the waiter is failed
+     */
+    public void await(long index, long term, Consumer<Boolean> callback) {
+        boolean reached;
+        synchronized (this) {
+            boolean taken = opened && term == openTerm;
+            reached = taken && index <= reachedIndex;
+            if (taken && !reached) {
+                offer(index, callback);
+                return;
+            }
+        }
+        complete(callback, reached);
+    }
+
+    //take the waiters of the term,an entry of it at an index is never replaced while the term is open
+    public synchronized void open(long term) {
+        this.opened = true;
+        this.openTerm = term;
+    }
+
+    public void advance(long index) {
+        List<Consumer<Boolean>> reached;
+        synchronized (this) {
+            if (index <= reachedIndex) {
+                return;
+            }
+            reachedIndex = index;
+            reached = poll(index);
+        }
+        reached.forEach(c -> complete(c, true));
+    }
+
+    //fail all the waiters and close the term,such as the node is not the leader any more
+    public void failAll() {
+        List<Consumer<Boolean>> failed;
+        synchronized (this) {
+            opened = false;
+            failed = poll(Long.MAX_VALUE);
+        }
+        failed.forEach(c -> complete(c, false));
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private void offer(long index, Consumer<Boolean> callback) {
+        if (size == indexes.length) {
+            grow();
+        }
+        int mask = indexes.length - 1;
+        //the waiters nearly always come in index order,otherwise shift the bigger ones back
+        int pos = size;
+        while (pos > 0 && indexes[(head + pos - 1) & mask] > index) {
+            indexes[(head + pos) & mask] = indexes[(head + pos - 1) & mask];
+            callbacks[(head + pos) & mask] = callbacks[(head + pos - 1) & mask];
+            pos--;
+        }
+        indexes[(head + pos) & mask] = index;
+        callbacks[(head + pos) & mask] = callback;
+        size++;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Consumer<Boolean>> poll(long upTo) {
+        List<Consumer<Boolean>> polled = new ArrayList<Consumer<Boolean>>();
+        int mask = indexes.length - 1;
+        while (size > 0 && indexes[head] <= upTo) {
+            polled.add((Consumer<Boolean>) callbacks[head]);
+            callbacks[head] = null;
+            head = (head + 1) & mask;
+            size--;
+        }
+        return polled;
+    }
+
+    private void grow() {
+        long[] newIndexes = new long[indexes.length << 1];
+        Object[] newCallbacks = new Object[indexes.length << 1];
+        for (int i = 0; i < size; i++) {
+            newIndexes[i] = indexes[(head + i) & (indexes.length - 1)];
+            newCallbacks[i] = callbacks[(head + i) & (indexes.length - 1)];
+        }
+        indexes = newIndexes;
+        callbacks = newCallbacks;
+        head = 0;
+    }
+
+    private void complete(Consumer<Boolean> callback, boolean reached) {
+        try {
+            callback.accept(reached);
+        } catch (Throwable t) {
+            log.error("index waiter callback fail!", t);
+        }
+    }
+}
@@ -32,10 +32,15 @@ import java.util.List;
 public class PenddingEntryBatch {
     long preCommitIndex;
     long preCheckSum;
+    //unique per replicator,so a resent batch never equals the stale one
     long batchId;
+    long sendTime;
     private long startIndex;
     private long endIndex;
     private long count;
     @Singular
     List<GekkoEntry> entries;
+    //the encoded entries read out of the log,sent instead of the entries when set
+    byte[] rawEntries;
+    long lastCheckSum;
 }
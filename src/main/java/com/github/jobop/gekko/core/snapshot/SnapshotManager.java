@@ -0,0 +1,324 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jobop.gekko.core.snapshot;
+
+import com.github.jobop.gekko.core.config.GekkoConfig;
+import com.github.jobop.gekko.core.exception.GekkoException;
+import com.github.jobop.gekko.core.lifecycle.LifeCycleAdpter;
+import com.github.jobop.gekko.core.metadata.NodeState;
+import com.github.jobop.gekko.core.statemachine.StateMachine;
+import com.github.jobop.gekko.core.statemachine.StateMachineApplier;
+import com.github.jobop.gekko.enums.ResultEnums;
+import com.github.jobop.gekko.protocols.message.GekkoEntry;
+import com.github.jobop.gekko.protocols.message.node.InstallSnapshotReq;
+import com.github.jobop.gekko.store.Store;
+import com.github.jobop.gekko.utils.NotifyableThread;
+import com.github.jobop.gekko.utils.PreConditions;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * take snapshots of the state machine and compact the log before them.
+ * the snapshot is written into a temp dir first and then renamed to {baseFilePath}/snapshot,
+ * so there is always a whole snapshot on the disk
+ */
+@Slf4j
+public class SnapshotManager extends LifeCycleAdpter {
+    private static final String SNAPSHOT_DIR_NAME = "snapshot";
+    private static final String TEMP_SNAPSHOT_DIR_NAME = "snapshot.tmp";
+    //the snapshot being received from the leader,suffixed with its last included index
+    private static final String RECEIVE_DIR_PREFIX = "snapshot.recv.";
+    private GekkoConfig conf;
+    private NodeState nodeState;
+    private Store store;
+    private StateMachine stateMachine;
+    //null if the entries are not applied by this node
+    private StateMachineApplier applier;
+    private String snapshotPath;
+    private volatile SnapshotMeta lastSnapshotMeta;
+    private NotifyableThread compactThread;
+
+    public SnapshotManager(GekkoConfig conf, NodeState nodeState, Store store, StateMachine stateMachine) {
+        this.conf = conf;
+        this.nodeState = nodeState;
+        this.store = store;
+        this.stateMachine = stateMachine;
+    }
+
+    public SnapshotManager(GekkoConfig conf, NodeState nodeState, Store store, StateMachine stateMachine, StateMachineApplier applier) {
+        this(conf, nodeState, store, stateMachine);
+        this.applier = applier;
+    }
+
+    @Override
+    public void init() {
+        this.snapshotPath = conf.getBaseFilePath() + File.separator + SNAPSHOT_DIR_NAME;
+        try {
+            //crashed after the old snapshot was deleted and before the new one was renamed
+            File tempDir = new File(conf.getBaseFilePath() + File.separator + TEMP_SNAPSHOT_DIR_NAME);
+            if (null == SnapshotMeta.load(this.snapshotPath) && null != SnapshotMeta.load(tempDir.getPath())) {
+                FileUtils.deleteDirectory(new File(this.snapshotPath));
+                PreConditions.check(tempDir.renameTo(new File(this.snapshotPath)), ResultEnums.LOAD_FILE_FAIL, "can not recover the snapshot dir!");
+            }
+            this.lastSnapshotMeta = SnapshotMeta.load(this.snapshotPath);
+        } catch (Exception e) {
+            log.error("load snapshot meta fail!", e);
+            throw new GekkoException(e);
+        }
+        if (null != this.lastSnapshotMeta) {
+            PreConditions.check(stateMachine.onSnapshotLoad(this.snapshotPath), ResultEnums.LOAD_FILE_FAIL, "the state machine can not load the snapshot!");
+            //the state machine is what the snapshot has,apply again after it
+            if (null != applier) {
+                applier.resetTo(this.lastSnapshotMeta.getLastIncludedIndex());
+            }
+            log.info("load snapshot pass!" + this.lastSnapshotMeta);
+        }
+        this.compactThread = new NotifyableThread(conf.getSnapshotInterval(), TimeUnit.SECONDS, "snapshot-compact-thread") {
+            @Override
+            public void doWork() {
+                if (needSnapshot()) {
+                    takeSnapshot();
+                }
+            }
+        };
+    }
+
+    @Override
+    public void start() {
+        if (conf.getSnapshotThreshold() > 0) {
+            this.compactThread.start();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        this.compactThread.shutdown();
+    }
+
+    private boolean needSnapshot() {
+        long lastIncludedIndex = null == lastSnapshotMeta ? 0 : lastSnapshotMeta.getLastIncludedIndex();
+        return nodeState.getCommitId() - lastIncludedIndex >= conf.getSnapshotThreshold();
+    }
+
+    /**
+     * snapshot the state up to the commit index and then drop the log before it,
+     * the last included entry is kept so the next entry can still be checked against its checksum
+     *
+     * @return the latest snapshot,null if there is none
+     */
+    public synchronized SnapshotMeta takeSnapshot() {
+        if (null == applier) {
+            return takeSnapshot(nodeState.getCommitId());
+        }
+        //the state machine catches up with the commit index and stays there while it's saving
+        return applier.applyAndHold(nodeState.getCommitId(), this::takeSnapshot);
+    }
+
+    private SnapshotMeta takeSnapshot(long lastIncludedIndex) {
+        if (lastIncludedIndex <= 0 || (null != lastSnapshotMeta && lastIncludedIndex <= lastSnapshotMeta.getLastIncludedIndex())) {
+            return lastSnapshotMeta;
+        }
+        GekkoEntry lastIncludedEntry = store.getByIndex(lastIncludedIndex);
+        if (null == lastIncludedEntry) {
+            log.warn("can not find the entry to snapshot,index=" + lastIncludedIndex);
+            return lastSnapshotMeta;
+        }
+        File tempDir = new File(conf.getBaseFilePath() + File.separator + TEMP_SNAPSHOT_DIR_NAME);
+        File snapshotDir = new File(this.snapshotPath);
+        try {
+            FileUtils.deleteQuietly(tempDir);
+            FileUtils.forceMkdir(tempDir);
+            if (!stateMachine.onSnapshotSave(tempDir.getPath(), lastIncludedIndex)) {
+                log.warn("the state machine fail to save the snapshot,index=" + lastIncludedIndex);
+                return lastSnapshotMeta;
+            }
+            SnapshotMeta meta = SnapshotMeta.builder()
+                    .lastIncludedIndex(lastIncludedIndex)
+                    .lastIncludedTerm(lastIncludedEntry.getTerm())
+                    .lastIncludedChecksum(lastIncludedEntry.getChecksum())
+                    .createTime(System.currentTimeMillis())
+                    .build();
+            meta.save(tempDir.getPath());
+            FileUtils.deleteDirectory(snapshotDir);
+            if (!tempDir.renameTo(snapshotDir)) {
+                log.warn("fail to rename the snapshot dir " + tempDir.getPath());
+                return lastSnapshotMeta;
+            }
+            this.lastSnapshotMeta = meta;
+        } catch (IOException e) {
+            log.error("take snapshot fail!", e);
+            return lastSnapshotMeta;
+        }
+        store.trimBefore(lastIncludedIndex);
+        log.info("take snapshot pass!" + this.lastSnapshotMeta);
+        return this.lastSnapshotMeta;
+    }
+
+    /**
+     * @return the files of the latest snapshot relative to its dir,the snapshot.meta is the last one
+     */
+    public List<String> listSnapshotFiles() throws IOException {
+        Path root = Paths.get(this.snapshotPath);
+        List<String> fileNames;
+        try (Stream<Path> paths = Files.walk(root)) {
+            fileNames = paths.filter(Files::isRegularFile)
+                    .map(path -> root.relativize(path).toString())
+                    .filter(name -> !SnapshotMeta.META_FILE_NAME.equals(name))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        fileNames.add(SnapshotMeta.META_FILE_NAME);
+        return fileNames;
+    }
+
+    public File getSnapshotFile(String fileName) {
+        return new File(this.snapshotPath, fileName);
+    }
+
+    /**
+     * write a chunk from the leader into snapshot.recv.{lastIncludedIndex},what has been received is kept,
+     * so a broken transfer goes on from where it stopped
+     *
+     * @return the offset the leader should send next
+     */
+    public synchronized long receiveChunk(InstallSnapshotReq req) throws IOException {
+        File receiveDir = receiveDirOf(req.getLastIncludedIndex());
+        clearReceiveDirs(receiveDir);
+        File file = new File(receiveDir, req.getFileName());
+        PreConditions.check(file.getCanonicalPath().startsWith(receiveDir.getCanonicalPath() + File.separator),
+                ResultEnums.INSTALL_SNAPSHOT_FAIL, "illegal snapshot file " + req.getFileName());
+        FileUtils.forceMkdir(file.getParentFile());
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long length = channel.size();
+            //not the file the leader is sending
+            if (length > req.getFileSize()) {
+                channel.truncate(0);
+                length = 0;
+            }
+            if (req.getOffset() != length) {
+                return length;
+            }
+            if (null != req.getData()) {
+                ByteBuffer bb = ByteBuffer.wrap(req.getData());
+                while (bb.hasRemaining()) {
+                    channel.write(bb, length + bb.position());
+                }
+                length += req.getData().length;
+            }
+            if (length == req.getFileSize()) {
+                channel.force(false);
+            }
+            return length;
+        }
+    }
+
+    /**
+     * replace the local snapshot with the received one,load it into the state machine
+     * and restart the log after its last included entry
+     */
+    public synchronized boolean installReceived(long lastIncludedIndex) throws IOException {
+        File receiveDir = receiveDirOf(lastIncludedIndex);
+        SnapshotMeta meta = SnapshotMeta.load(receiveDir.getPath());
+        if (null == meta || meta.getLastIncludedIndex() != lastIncludedIndex) {
+            log.warn("the received snapshot is not whole,index=" + lastIncludedIndex);
+            return false;
+        }
+        //go through the temp dir,so init can recover it like a snapshot taken locally
+        File tempDir = new File(conf.getBaseFilePath() + File.separator + TEMP_SNAPSHOT_DIR_NAME);
+        File snapshotDir = new File(this.snapshotPath);
+        FileUtils.deleteDirectory(tempDir);
+        if (!receiveDir.renameTo(tempDir)) {
+            log.warn("fail to rename the snapshot dir " + receiveDir.getPath());
+            return false;
+        }
+        FileUtils.deleteDirectory(snapshotDir);
+        if (!tempDir.renameTo(snapshotDir)) {
+            log.warn("fail to rename the snapshot dir " + tempDir.getPath());
+            return false;
+        }
+        this.lastSnapshotMeta = meta;
+        //no entry of the old log is applied while the state machine is being replaced
+        boolean loaded = null == applier ? loadReceived(meta) : applier.hold(() -> loadReceived(meta));
+        if (!loaded) {
+            return false;
+        }
+        nodeState.saveCheckPoint();
+        log.info("install snapshot pass!" + meta);
+        return true;
+    }
+
+    private boolean loadReceived(SnapshotMeta meta) {
+        long lastIncludedIndex = meta.getLastIncludedIndex();
+        if (!stateMachine.onSnapshotLoad(this.snapshotPath)) {
+            log.warn("the state machine can not load the snapshot,index=" + lastIncludedIndex);
+            return false;
+        }
+        store.resetTo(lastIncludedIndex);
+        synchronized (nodeState) {
+            nodeState.setWriteId(lastIncludedIndex);
+            nodeState.setPreChecksum(0);
+            nodeState.setLastChecksum(meta.getLastIncludedChecksum());
+            if (nodeState.getCommitId() < lastIncludedIndex) {
+                nodeState.setCommitId(lastIncludedIndex);
+            }
+        }
+        if (null != applier) {
+            applier.resetTo(lastIncludedIndex);
+        }
+        return true;
+    }
+
+    private File receiveDirOf(long lastIncludedIndex) {
+        return new File(conf.getBaseFilePath() + File.separator + RECEIVE_DIR_PREFIX + lastIncludedIndex);
+    }
+
+    //a newer snapshot is coming,the older ones will never be finished
+    private void clearReceiveDirs(File receiveDir) {
+        File[] dirs = new File(conf.getBaseFilePath()).listFiles((dir, name) -> name.startsWith(RECEIVE_DIR_PREFIX));
+        if (null == dirs) {
+            return;
+        }
+        for (File dir : dirs) {
+            if (!dir.getName().equals(receiveDir.getName())) {
+                FileUtils.deleteQuietly(dir);
+            }
+        }
+    }
+
+    public SnapshotMeta getLastSnapshotMeta() {
+        return lastSnapshotMeta;
+    }
+
+    public String getSnapshotPath() {
+        return snapshotPath;
+    }
+}
@@ -0,0 +1,73 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jobop.gekko.core.snapshot;
+
+import com.github.jobop.gekko.utils.IOUtils;
+import lombok.Builder;
+import lombok.Data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Properties;
+
+/**
+ * describe what a snapshot includes,saved as snapshot.meta beside the state machine files
+ */
+@Builder
+@Data
+public class SnapshotMeta implements Serializable {
+    public static final String META_FILE_NAME = "snapshot.meta";
+    private static String LAST_INCLUDED_INDEX_KEY = "LAST_INCLUDED_INDEX_KEY";
+    private static String LAST_INCLUDED_TERM_KEY = "LAST_INCLUDED_TERM_KEY";
+    private static String LAST_INCLUDED_CHECK_SUM_KEY = "LAST_INCLUDED_CHECK_SUM_KEY";
+    private static String CREATE_TIME_KEY = "CREATE_TIME_KEY";
+
+    private long lastIncludedIndex;
+    private long lastIncludedTerm;
+    //the checksum of the last included entry,the next entry chains to it
+    private long lastIncludedChecksum;
+    private long createTime;
+
+    public void save(String snapshotDir) throws IOException {
+        Properties properties = new Properties();
+        properties.put(LAST_INCLUDED_INDEX_KEY, String.valueOf(lastIncludedIndex));
+        properties.put(LAST_INCLUDED_TERM_KEY, String.valueOf(lastIncludedTerm));
+        properties.put(LAST_INCLUDED_CHECK_SUM_KEY, String.valueOf(lastIncludedChecksum));
+        properties.put(CREATE_TIME_KEY, String.valueOf(createTime));
+        IOUtils.string2File(IOUtils.properties2String(properties), snapshotDir + File.separator + META_FILE_NAME);
+    }
+
+    /**
+     * @return null if there is no snapshot in the dir
+     */
+    public static SnapshotMeta load(String snapshotDir) throws IOException {
+        String data = IOUtils.file2String(snapshotDir + File.separator + META_FILE_NAME);
+        if (null == data) {
+            return null;
+        }
+        Properties properties = IOUtils.string2Properties(data);
+        return SnapshotMeta.builder()
+                .lastIncludedIndex(Long.valueOf(properties.getProperty(LAST_INCLUDED_INDEX_KEY)))
+                .lastIncludedTerm(Long.valueOf(properties.getProperty(LAST_INCLUDED_TERM_KEY)))
+                .lastIncludedChecksum(Long.valueOf(properties.getProperty(LAST_INCLUDED_CHECK_SUM_KEY)))
+                .createTime(Long.valueOf(properties.getProperty(CREATE_TIME_KEY)))
+                .build();
+    }
+}
@@ -21,7 +21,35 @@ package com.github.jobop.gekko.core.statemachine;
 
 import com.github.jobop.gekko.protocols.message.GekkoEntry;
 
+import java.util.List;
+
 
 public interface StateMachine {
     public void onAppend(GekkoEntry entry);
+
+    /**
+     * apply the committed entries in index order,called by one thread at a time,hands them to onAppend one by one by default.
+     * after a restart the entries are applied again from the last snapshot,or from the first index if there is none,
+     * so a state machine which takes snapshots starts from the state onSnapshotLoad restores.
+     * it's the same entries again when it throws
+     */
+    default void onApply(List<GekkoEntry> entries) {
+        for (GekkoEntry entry : entries) {
+            onAppend(entry);
+        }
+    }
+
+    /**
+     * save the state which includes the entries up to lastIncludedIndex into the dir,
+     * the log before lastIncludedIndex will be deleted once it returns true.
+     * nothing is saved by default,so the log is kept and applied again from the first index
+     */
+    default boolean onSnapshotSave(String snapshotDir, long lastIncludedIndex) {
+        return false;
+    }
+
+    //restore the state from the dir which onSnapshotSave wrote,a state machine which can not restore it refuses the snapshot
+    default boolean onSnapshotLoad(String snapshotDir) {
+        return false;
+    }
 }
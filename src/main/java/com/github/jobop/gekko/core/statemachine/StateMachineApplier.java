@@ -0,0 +1,186 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jobop.gekko.core.statemachine;
+
+import com.github.jobop.gekko.core.config.GekkoConfig;
+import com.github.jobop.gekko.core.lifecycle.LifeCycleAdpter;
+import com.github.jobop.gekko.core.metadata.NodeState;
+import com.github.jobop.gekko.core.replication.IndexWaiterQueue;
+import com.github.jobop.gekko.protocols.message.GekkoEntry;
+import com.github.jobop.gekko.store.LogCursor;
+import com.github.jobop.gekko.store.Store;
+import com.github.jobop.gekko.utils.NotifyableThread;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+
+/**
+ * hand the committed entries to the state machine in batches on its own thread,
+ * it's woken up whenever the commit index moves and reads the log through a cursor from the last applied index
+ */
+@Slf4j
+public class StateMachineApplier extends LifeCycleAdpter {
+    private GekkoConfig conf;
+    private NodeState nodeState;
+    private Store store;
+    private StateMachine stateMachine;
+    //hold it to keep the state machine from moving,such as while it's saving a snapshot
+    private final Object applyLock = new Object();
+    //the appends acked once applied,completed as the applied index moves
+    private IndexWaiterQueue applyWaiters;
+    private NotifyableThread applyThread;
+
+    public StateMachineApplier(GekkoConfig conf, NodeState nodeState, Store store, StateMachine stateMachine) {
+        this.conf = conf;
+        this.nodeState = nodeState;
+        this.store = store;
+        this.stateMachine = stateMachine;
+    }
+
+    @Override
+    public void init() {
+        applyWaiters = new IndexWaiterQueue(conf.getAppendWaiterCapacity(), nodeState.getLastApplied());
+        applyThread = new NotifyableThread(conf.getApplyInterval(), TimeUnit.MILLISECONDS, "StateMachineApplier") {
+            @Override
+            public void doWork() {
+                while (applyBatch(nodeState.getCommitId())) {
+                }
+            }
+        };
+    }
+
+    @Override
+    public void start() {
+        applyThread.start();
+    }
+
+    @Override
+    public void shutdown() {
+        applyThread.shutdown();
+        applyWaiters.failAll();
+        synchronized (applyLock) {
+            applyLock.notifyAll();
+        }
+    }
+
+    //call it after the commit index moves
+    public void trigger() {
+        if (nodeState.getCommitId() > nodeState.getLastApplied()) {
+            applyThread.trigger();
+        }
+    }
+
+    /**
+     * call back once the committed index is applied
+     */
+    public void waitForApply(long index, Consumer<Boolean> callback) {
+        applyWaiters.await(index, callback);
+    }
+
+    /**
+     * block the client appends while the state machine lags too far behind the commit index
+     */
+    public void waitForBacklog() {
+        long maxLag = conf.getApplyMaxLag();
+        if (maxLag <= 0 || nodeState.getCommitId() - nodeState.getLastApplied() < maxLag) {
+            return;
+        }
+        synchronized (applyLock) {
+            while (nodeState.getCommitId() - nodeState.getLastApplied() >= maxLag) {
+                try {
+                    applyLock.wait(conf.getApplyInterval());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * apply up to the index on the caller thread and run the action before any later entry is applied
+     *
+     * @return what the action returns
+     */
+    public <T> T applyAndHold(long index, LongFunction<T> action) {
+        synchronized (applyLock) {
+            while (nodeState.getLastApplied() < index && applyBatch(index)) {
+            }
+            return action.apply(nodeState.getLastApplied());
+        }
+    }
+
+    //run the action while no entry is being applied
+    public <T> T hold(Supplier<T> action) {
+        synchronized (applyLock) {
+            return action.get();
+        }
+    }
+
+    //the state machine is replaced by a snapshot
+    public void resetTo(long lastIncludedIndex) {
+        synchronized (applyLock) {
+            nodeState.setLastApplied(lastIncludedIndex);
+        }
+        applyWaiters.advance(lastIncludedIndex);
+    }
+
+    /**
+     * @return true if some entries are applied
+     */
+    private boolean applyBatch(long toIndex) {
+        long lastIndex;
+        synchronized (applyLock) {
+            long fromIndex = nodeState.getLastApplied() + 1;
+            //never past the log,a follower may be told a commit index before it has the entries
+            toIndex = Math.min(toIndex, nodeState.getWriteId());
+            if (fromIndex > toIndex) {
+                return false;
+            }
+            List<GekkoEntry> entries = new ArrayList<GekkoEntry>((int) Math.min(toIndex - fromIndex + 1, conf.getApplyBatchMaxCount()));
+            //a cursor per batch,a cursor kept open could have read the entries beyond the commit index before they were trimmed
+            try (LogCursor cursor = store.openCursor(fromIndex)) {
+                GekkoEntry entry;
+                while (entries.size() < conf.getApplyBatchMaxCount() && (entry = cursor.next()) != null && entry.getEntryIndex() <= toIndex) {
+                    entries.add(entry);
+                }
+            }
+            if (entries.isEmpty()) {
+                log.warn("can not read the committed entries to apply,fromIndex=" + fromIndex + " toIndex=" + toIndex);
+                return false;
+            }
+            try {
+                stateMachine.onApply(entries);
+            } catch (Throwable t) {
+                log.error("the state machine fail to apply the entries,fromIndex=" + fromIndex, t);
+                return false;
+            }
+            lastIndex = entries.get(entries.size() - 1).getEntryIndex();
+            nodeState.setLastApplied(lastIndex);
+            applyLock.notifyAll();
+        }
+        applyWaiters.advance(lastIndex);
+        return true;
+    }
+}
@@ -33,7 +33,11 @@ public enum ResultEnums {
     LOAD_FILE_FAIL("LoadFileFail","LoadFileFail"),
 
     CLIENT_LOAD_FAIL("CLIENT_LOAD_FAIL","CLIENT_LOAD_FAIL"),
-    APPEND_FAIL("APPEND_FAIL","APPEND_FAIL")
+    APPEND_FAIL("APPEND_FAIL","APPEND_FAIL"),
+    FLUSH_TIMEOUT("FLUSH_TIMEOUT","FLUSH_TIMEOUT"),
+    INSTALL_SNAPSHOT_FAIL("INSTALL_SNAPSHOT_FAIL","INSTALL_SNAPSHOT_FAIL"),
+    APPEND_UNKNOWN("APPEND_UNKNOWN","APPEND_UNKNOWN"),
+    MEMORY_STORE_NEEDS_SNAPSHOT("MEMORY_STORE_NEEDS_SNAPSHOT","MEMORY_STORE_NEEDS_SNAPSHOT")
 
     ;
     private String code;
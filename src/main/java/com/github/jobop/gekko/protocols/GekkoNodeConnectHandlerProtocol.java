@@ -30,5 +30,7 @@ public interface GekkoNodeConnectHandlerProtocol {
     public HeartBeatResp handleHeartBeat(HeartBeatReq req);
 
     public PushEntryResp handlePushDatas(PushEntryReq req);
+
+    public InstallSnapshotResp handleInstallSnapshot(InstallSnapshotReq req);
 }
 
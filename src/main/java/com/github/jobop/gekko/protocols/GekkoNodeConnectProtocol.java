@@ -27,6 +27,8 @@ import com.github.jobop.gekko.core.metadata.Peer;
 import com.github.jobop.gekko.core.replication.AcceptCollector;
 import com.github.jobop.gekko.core.replication.PenddingEntryBatch;
 import com.github.jobop.gekko.protocols.message.GekkoEntry;
+import com.github.jobop.gekko.protocols.message.node.InstallSnapshotReq;
+import com.github.jobop.gekko.protocols.message.node.InstallSnapshotResp;
 
 import java.util.List;
 
@@ -43,4 +45,6 @@ public interface GekkoNodeConnectProtocol {
     public void pushDatas(Peer peer, PenddingEntryBatch penddingEntry, InvokeCallback callback);
 
     public List<GekkoEntry> pullEntriesByFollower(long fromIndex, long toIndex);
+
+    public InstallSnapshotResp installSnapshot(Peer peer, InstallSnapshotReq req);
 }
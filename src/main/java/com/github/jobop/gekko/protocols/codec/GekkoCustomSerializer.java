@@ -0,0 +1,120 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jobop.gekko.protocols.codec;
+
+import com.alipay.remoting.CustomSerializerManager;
+import com.alipay.remoting.DefaultCustomSerializer;
+import com.alipay.remoting.InvokeContext;
+import com.alipay.remoting.exception.DeserializationException;
+import com.alipay.remoting.exception.SerializationException;
+import com.alipay.remoting.rpc.RequestCommand;
+import com.alipay.remoting.rpc.ResponseCommand;
+import com.alipay.remoting.rpc.protocol.RpcRequestCommand;
+import com.alipay.remoting.rpc.protocol.RpcResponseCommand;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * plug the codecs of MessageCodecs into bolt,the content of a command is a version byte followed by the message,
+ * the messages without a codec keep going through hessian
+ */
+public class GekkoCustomSerializer<T> extends DefaultCustomSerializer {
+    public static final byte PROTOCOL_VERSION = 1;
+    private static final AtomicBoolean REGISTERED = new AtomicBoolean(false);
+    private final Class<T> type;
+    private final MessageCodec<T> codec;
+
+    public GekkoCustomSerializer(Class<T> type, MessageCodec<T> codec) {
+        this.type = type;
+        this.codec = codec;
+    }
+
+    public static <T> GekkoCustomSerializer<T> of(Class<T> type) {
+        return new GekkoCustomSerializer<T>(type, MessageCodecs.of(type));
+    }
+
+    /**
+     * the serializers of bolt are global,so every client and server in the process shares one registration
+     */
+    public static void registerAll() {
+        if (!REGISTERED.compareAndSet(false, true)) {
+            return;
+        }
+        for (Class<?> type : MessageCodecs.all().keySet()) {
+            CustomSerializerManager.registerCustomSerializer(type.getName(), of(type));
+        }
+    }
+
+    @Override
+    public <T extends RequestCommand> boolean serializeContent(T request, InvokeContext invokeContext) throws SerializationException {
+        RpcRequestCommand command = (RpcRequestCommand) request;
+        command.setContent(encode(command.getRequestObject()));
+        return true;
+    }
+
+    @Override
+    public <T extends ResponseCommand> boolean serializeContent(T response) throws SerializationException {
+        RpcResponseCommand command = (RpcResponseCommand) response;
+        command.setContent(encode(command.getResponseObject()));
+        return true;
+    }
+
+    @Override
+    public <T extends RequestCommand> boolean deserializeContent(T request) throws DeserializationException {
+        RpcRequestCommand command = (RpcRequestCommand) request;
+        command.setRequestObject(decode(command.getContent()));
+        return true;
+    }
+
+    @Override
+    public <T extends ResponseCommand> boolean deserializeContent(T response, InvokeContext invokeContext) throws DeserializationException {
+        RpcResponseCommand command = (RpcResponseCommand) response;
+        command.setResponseObject(decode(command.getContent()));
+        return true;
+    }
+
+    private byte[] encode(Object msg) throws SerializationException {
+        try {
+            T typed = type.cast(msg);
+            ByteBuffer bb = ByteBuffer.allocate(1 + codec.sizeOf(typed));
+            bb.put(PROTOCOL_VERSION);
+            codec.encode(typed, bb);
+            return bb.array();
+        } catch (RuntimeException e) {
+            throw new SerializationException("encode " + msg.getClass().getName() + " fail", e);
+        }
+    }
+
+    private T decode(byte[] content) throws DeserializationException {
+        if (null == content || content.length == 0) {
+            throw new DeserializationException("empty content");
+        }
+        ByteBuffer bb = ByteBuffer.wrap(content);
+        byte version = bb.get();
+        if (version != PROTOCOL_VERSION) {
+            throw new DeserializationException("unsupported protocol version " + version);
+        }
+        try {
+            return codec.decode(bb);
+        } catch (RuntimeException e) {
+            throw new DeserializationException("decode fail", e);
+        }
+    }
+}
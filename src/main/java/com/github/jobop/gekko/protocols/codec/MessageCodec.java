@@ -0,0 +1,32 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jobop.gekko.protocols.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * a fixed layout binary form of one message type,the encoded size is known before encoding so the buffer is allocated once
+ */
+public interface MessageCodec<T> {
+    int sizeOf(T msg);
+
+    void encode(T msg, ByteBuffer bb);
+
+    T decode(ByteBuffer bb);
+}
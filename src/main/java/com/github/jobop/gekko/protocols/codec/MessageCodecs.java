@@ -0,0 +1,533 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jobop.gekko.protocols.codec;
+
+import com.github.jobop.gekko.enums.PushResultEnums;
+import com.github.jobop.gekko.enums.ResultEnums;
+import com.github.jobop.gekko.enums.VoteResultEnums;
+import com.github.jobop.gekko.protocols.message.GekkoEntry;
+import com.github.jobop.gekko.protocols.message.api.*;
+import com.github.jobop.gekko.protocols.message.node.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * the codecs of the messages sent on the hot paths,every field is written in declaration order with a fixed width,
+ * strings and byte arrays are prefixed by their length (-1 for null),enums are written as their ordinal (-1 for null).
+ * a change of any layout must bump GekkoCustomSerializer.PROTOCOL_VERSION
+ */
+public final class MessageCodecs {
+    private static final Map<Class<?>, MessageCodec<?>> CODECS = new LinkedHashMap<Class<?>, MessageCodec<?>>();
+
+    static {
+        CODECS.put(PushEntryReq.class, new PushEntryReqCodec());
+        CODECS.put(PushEntryResp.class, new PushEntryRespCodec());
+        CODECS.put(HeartBeatReq.class, new HeartBeatReqCodec());
+        CODECS.put(ProbeReq.class, new ProbeReqCodec());
+        CODECS.put(ProbeResp.class, new ProbeRespCodec());
+        CODECS.put(PreVoteReq.class, new PreVoteReqCodec());
+        CODECS.put(PreVoteResp.class, new PreVoteRespCodec());
+        CODECS.put(VoteReq.class, new VoteReqCodec());
+        CODECS.put(VoteResp.class, new VoteRespCodec());
+        CODECS.put(InstallSnapshotReq.class, new InstallSnapshotReqCodec());
+        CODECS.put(InstallSnapshotResp.class, new InstallSnapshotRespCodec());
+        CODECS.put(AppendEntryReq.class, new AppendEntryReqCodec());
+        CODECS.put(AppendEntryResp.class, new AppendEntryRespCodec());
+        CODECS.put(AppendEntriesReq.class, new AppendEntriesReqCodec());
+        CODECS.put(AppendEntriesResp.class, new AppendEntriesRespCodec());
+        CODECS.put(PullEntryReq.class, new PullEntryReqCodec());
+        CODECS.put(PullEntryResp.class, new PullEntryRespCodec());
+    }
+
+    private MessageCodecs() {
+    }
+
+    public static Map<Class<?>, MessageCodec<?>> all() {
+        return Collections.unmodifiableMap(CODECS);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> MessageCodec<T> of(Class<T> clazz) {
+        return (MessageCodec<T>) CODECS.get(clazz);
+    }
+
+    static int sizeOf(String s) {
+        return 4 + (null == s ? 0 : s.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    static void putString(String s, ByteBuffer bb) {
+        putBytes(null == s ? null : s.getBytes(StandardCharsets.UTF_8), bb);
+    }
+
+    static String getString(ByteBuffer bb) {
+        byte[] bytes = getBytes(bb);
+        return null == bytes ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static int sizeOf(byte[] bytes) {
+        return 4 + (null == bytes ? 0 : bytes.length);
+    }
+
+    static void putBytes(byte[] bytes, ByteBuffer bb) {
+        if (null == bytes) {
+            bb.putInt(-1);
+            return;
+        }
+        bb.putInt(bytes.length);
+        bb.put(bytes);
+    }
+
+    static byte[] getBytes(ByteBuffer bb) {
+        int length = bb.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        bb.get(bytes);
+        return bytes;
+    }
+
+    static void putEnum(Enum<?> e, ByteBuffer bb) {
+        bb.put(null == e ? -1 : (byte) e.ordinal());
+    }
+
+    static <E extends Enum<E>> E getEnum(E[] values, ByteBuffer bb) {
+        byte ordinal = bb.get();
+        return ordinal < 0 ? null : values[ordinal];
+    }
+
+    //the header of the log format plus the length of the data,so an entry whose totalSize is not computed yet is kept as it is
+    static int sizeOf(GekkoEntry entry) {
+        return 1 + GekkoEntry.HEADER_SIZE + sizeOf(entry.getData());
+    }
+
+    static void putEntry(GekkoEntry entry, ByteBuffer bb) {
+        if (null == entry) {
+            bb.put((byte) 0);
+            return;
+        }
+        bb.put((byte) 1);
+        bb.putInt(entry.getMagic());
+        bb.putInt(entry.getTotalSize());
+        bb.putLong(entry.getTerm());
+        bb.putLong(entry.getEntryIndex());
+        bb.putLong(entry.getPos());
+        bb.putLong(entry.getChecksum());
+        putBytes(entry.getData(), bb);
+    }
+
+    static GekkoEntry getEntry(ByteBuffer bb) {
+        if (bb.get() == 0) {
+            return null;
+        }
+        return GekkoEntry.builder().magic(bb.getInt()).totalSize(bb.getInt()).term(bb.getLong()).entryIndex(bb.getLong())
+                .pos(bb.getLong()).checksum(bb.getLong()).data(getBytes(bb)).build();
+    }
+
+    static int sizeOf(List<GekkoEntry> entries) {
+        int size = 4;
+        if (null != entries) {
+            for (GekkoEntry entry : entries) {
+                size += null == entry ? 1 : sizeOf(entry);
+            }
+        }
+        return size;
+    }
+
+    static void putEntries(List<GekkoEntry> entries, ByteBuffer bb) {
+        if (null == entries) {
+            bb.putInt(-1);
+            return;
+        }
+        bb.putInt(entries.size());
+        for (GekkoEntry entry : entries) {
+            putEntry(entry, bb);
+        }
+    }
+
+    static List<GekkoEntry> getEntries(ByteBuffer bb) {
+        int count = bb.getInt();
+        if (count < 0) {
+            return null;
+        }
+        List<GekkoEntry> entries = new ArrayList<GekkoEntry>(count);
+        for (int i = 0; i < count; i++) {
+            entries.add(getEntry(bb));
+        }
+        return entries;
+    }
+
+    static class PushEntryReqCodec implements MessageCodec<PushEntryReq> {
+        @Override
+        public int sizeOf(PushEntryReq msg) {
+            return MessageCodecs.sizeOf(msg.getGroup()) + MessageCodecs.sizeOf(msg.getRemoteNodeId()) + 8 * 6
+                    + MessageCodecs.sizeOf(msg.getEntries()) + MessageCodecs.sizeOf(msg.getRawEntries()) + 8;
+        }
+
+        @Override
+        public void encode(PushEntryReq msg, ByteBuffer bb) {
+            putString(msg.getGroup(), bb);
+            putString(msg.getRemoteNodeId(), bb);
+            bb.putLong(msg.getLastCommitIndex());
+            bb.putLong(msg.getTerm());
+            bb.putLong(msg.getPreCheckSum());
+            bb.putLong(msg.getStartIndex());
+            bb.putLong(msg.getEndIndex());
+            bb.putLong(msg.getCount());
+            putEntries(msg.getEntries(), bb);
+            putBytes(msg.getRawEntries(), bb);
+            bb.putLong(msg.getLastCheckSum());
+        }
+
+        @Override
+        public PushEntryReq decode(ByteBuffer bb) {
+            PushEntryReq msg = PushEntryReq.builder().group(getString(bb)).remoteNodeId(getString(bb)).lastCommitIndex(bb.getLong())
+                    .term(bb.getLong()).preCheckSum(bb.getLong()).startIndex(bb.getLong()).endIndex(bb.getLong()).count(bb.getLong()).build();
+            msg.setEntries(getEntries(bb));
+            msg.setRawEntries(getBytes(bb));
+            msg.setLastCheckSum(bb.getLong());
+            return msg;
+        }
+    }
+
+    static class PushEntryRespCodec implements MessageCodec<PushEntryResp> {
+        @Override
+        public int sizeOf(PushEntryResp msg) {
+            return MessageCodecs.sizeOf(msg.getGroup()) + 8 + 8 + MessageCodecs.sizeOf(msg.getAcceptNodeId()) + 1;
+        }
+
+        @Override
+        public void encode(PushEntryResp msg, ByteBuffer bb) {
+            putString(msg.getGroup(), bb);
+            bb.putLong(msg.getTerm());
+            bb.putLong(msg.getIndex());
+            putString(msg.getAcceptNodeId(), bb);
+            putEnum(msg.getResult(), bb);
+        }
+
+        @Override
+        public PushEntryResp decode(ByteBuffer bb) {
+            return PushEntryResp.builder().group(getString(bb)).term(bb.getLong()).index(bb.getLong()).acceptNodeId(getString(bb))
+                    .result(getEnum(PushResultEnums.values(), bb)).build();
+        }
+    }
+
+    static class HeartBeatReqCodec implements MessageCodec<HeartBeatReq> {
+        @Override
+        public int sizeOf(HeartBeatReq msg) {
+            return MessageCodecs.sizeOf(msg.getGroup()) + MessageCodecs.sizeOf(msg.getRemoteNodeId()) + 8;
+        }
+
+        @Override
+        public void encode(HeartBeatReq msg, ByteBuffer bb) {
+            putString(msg.getGroup(), bb);
+            putString(msg.getRemoteNodeId(), bb);
+            bb.putLong(msg.getTerm());
+        }
+
+        @Override
+        public HeartBeatReq decode(ByteBuffer bb) {
+            return HeartBeatReq.builder().group(getString(bb)).remoteNodeId(getString(bb)).term(bb.getLong()).build();
+        }
+    }
+
+    static class ProbeReqCodec implements MessageCodec<ProbeReq> {
+        @Override
+        public int sizeOf(ProbeReq msg) {
+            return MessageCodecs.sizeOf(msg.getGroup()) + MessageCodecs.sizeOf(msg.getRemoteNodeId()) + 8;
+        }
+
+        @Override
+        public void encode(ProbeReq msg, ByteBuffer bb) {
+            putString(msg.getGroup(), bb);
+            putString(msg.getRemoteNodeId(), bb);
+            bb.putLong(msg.getTerm());
+        }
+
+        @Override
+        public ProbeReq decode(ByteBuffer bb) {
+            return ProbeReq.builder().group(getString(bb)).remoteNodeId(getString(bb)).term(bb.getLong()).build();
+        }
+    }
+
+    static class ProbeRespCodec implements MessageCodec<ProbeResp> {
+        @Override
+        public int sizeOf(ProbeResp msg) {
+            return 8 + 8 + 1 + 8;
+        }
+
+        @Override
+        public void encode(ProbeResp msg, ByteBuffer bb) {
+            bb.putLong(msg.getCommitIndex());
+            bb.putLong(msg.getNextIndex());
+            putEnum(msg.getResult(), bb);
+            bb.putLong(msg.getTerm());
+        }
+
+        @Override
+        public ProbeResp decode(ByteBuffer bb) {
+            return ProbeResp.builder().commitIndex(bb.getLong()).nextIndex(bb.getLong()).result(getEnum(ResultEnums.values(), bb))
+                    .term(bb.getLong()).build();
+        }
+    }
+
+    static class PreVoteReqCodec implements MessageCodec<PreVoteReq> {
+        @Override
+        public int sizeOf(PreVoteReq msg) {
+            return MessageCodecs.sizeOf(msg.getGroup()) + 8 + MessageCodecs.sizeOf(msg.getCandidateId()) + 8;
+        }
+
+        @Override
+        public void encode(PreVoteReq msg, ByteBuffer bb) {
+            putString(msg.getGroup(), bb);
+            bb.putLong(msg.getTerm());
+            putString(msg.getCandidateId(), bb);
+            bb.putLong(msg.getLastIndex());
+        }
+
+        @Override
+        public PreVoteReq decode(ByteBuffer bb) {
+            return PreVoteReq.builder().group(getString(bb)).term(bb.getLong()).candidateId(getString(bb)).lastIndex(bb.getLong()).build();
+        }
+    }
+
+    static class PreVoteRespCodec implements MessageCodec<PreVoteResp> {
+        @Override
+        public int sizeOf(PreVoteResp msg) {
+            return MessageCodecs.sizeOf(msg.getGroup()) + 8 + MessageCodecs.sizeOf(msg.getVoteMemberId()) + 1;
+        }
+
+        @Override
+        public void encode(PreVoteResp msg, ByteBuffer bb) {
+            putString(msg.getGroup(), bb);
+            bb.putLong(msg.getTerm());
+            putString(msg.getVoteMemberId(), bb);
+            putEnum(msg.getResult(), bb);
+        }
+
+        @Override
+        public PreVoteResp decode(ByteBuffer bb) {
+            return PreVoteResp.builder().group(getString(bb)).term(bb.getLong()).voteMemberId(getString(bb))
+                    .result(getEnum(VoteResultEnums.values(), bb)).build();
+        }
+    }
+
+    static class VoteReqCodec implements MessageCodec<VoteReq> {
+        @Override
+        public int sizeOf(VoteReq msg) {
+            return MessageCodecs.sizeOf(msg.getGroup()) + 8 + MessageCodecs.sizeOf(msg.getCandidateId()) + 8;
+        }
+
+        @Override
+        public void encode(VoteReq msg, ByteBuffer bb) {
+            putString(msg.getGroup(), bb);
+            bb.putLong(msg.getTerm());
+            putString(msg.getCandidateId(), bb);
+            bb.putLong(msg.getLastIndex());
+        }
+
+        @Override
+        public VoteReq decode(ByteBuffer bb) {
+            return VoteReq.builder().group(getString(bb)).term(bb.getLong()).candidateId(getString(bb)).lastIndex(bb.getLong()).build();
+        }
+    }
+
+    static class VoteRespCodec implements MessageCodec<VoteResp> {
+        @Override
+        public int sizeOf(VoteResp msg) {
+            return MessageCodecs.sizeOf(msg.getGroup()) + 8 + MessageCodecs.sizeOf(msg.getVoteMemberId()) + 1;
+        }
+
+        @Override
+        public void encode(VoteResp msg, ByteBuffer bb) {
+            putString(msg.getGroup(), bb);
+            bb.putLong(msg.getTerm());
+            putString(msg.getVoteMemberId(), bb);
+            putEnum(msg.getResult(), bb);
+        }
+
+        @Override
+        public VoteResp decode(ByteBuffer bb) {
+            return VoteResp.builder().group(getString(bb)).term(bb.getLong()).voteMemberId(getString(bb))
+                    .result(getEnum(VoteResultEnums.values(), bb)).build();
+        }
+    }
+
+    static class InstallSnapshotReqCodec implements MessageCodec<InstallSnapshotReq> {
+        @Override
+        public int sizeOf(InstallSnapshotReq msg) {
+            return MessageCodecs.sizeOf(msg.getGroup()) + MessageCodecs.sizeOf(msg.getRemoteNodeId()) + 8 + 8
+                    + MessageCodecs.sizeOf(msg.getFileName()) + 8 + 8 + MessageCodecs.sizeOf(msg.getData()) + 1;
+        }
+
+        @Override
+        public void encode(InstallSnapshotReq msg, ByteBuffer bb) {
+            putString(msg.getGroup(), bb);
+            putString(msg.getRemoteNodeId(), bb);
+            bb.putLong(msg.getTerm());
+            bb.putLong(msg.getLastIncludedIndex());
+            putString(msg.getFileName(), bb);
+            bb.putLong(msg.getFileSize());
+            bb.putLong(msg.getOffset());
+            putBytes(msg.getData(), bb);
+            bb.put((byte) (msg.isDone() ? 1 : 0));
+        }
+
+        @Override
+        public InstallSnapshotReq decode(ByteBuffer bb) {
+            return InstallSnapshotReq.builder().group(getString(bb)).remoteNodeId(getString(bb)).term(bb.getLong())
+                    .lastIncludedIndex(bb.getLong()).fileName(getString(bb)).fileSize(bb.getLong()).offset(bb.getLong())
+                    .data(getBytes(bb)).done(bb.get() == 1).build();
+        }
+    }
+
+    static class InstallSnapshotRespCodec implements MessageCodec<InstallSnapshotResp> {
+        @Override
+        public int sizeOf(InstallSnapshotResp msg) {
+            return MessageCodecs.sizeOf(msg.getGroup()) + 8 + MessageCodecs.sizeOf(msg.getAcceptNodeId()) + 1 + 8;
+        }
+
+        @Override
+        public void encode(InstallSnapshotResp msg, ByteBuffer bb) {
+            putString(msg.getGroup(), bb);
+            bb.putLong(msg.getTerm());
+            putString(msg.getAcceptNodeId(), bb);
+            putEnum(msg.getResult(), bb);
+            bb.putLong(msg.getNextOffset());
+        }
+
+        @Override
+        public InstallSnapshotResp decode(ByteBuffer bb) {
+            return InstallSnapshotResp.builder().group(getString(bb)).term(bb.getLong()).acceptNodeId(getString(bb))
+                    .result(getEnum(PushResultEnums.values(), bb)).nextOffset(bb.getLong()).build();
+        }
+    }
+
+    static class AppendEntryReqCodec implements MessageCodec<AppendEntryReq> {
+        @Override
+        public int sizeOf(AppendEntryReq msg) {
+            return null == msg.getGekkoEntry() ? 1 : MessageCodecs.sizeOf(msg.getGekkoEntry());
+        }
+
+        @Override
+        public void encode(AppendEntryReq msg, ByteBuffer bb) {
+            putEntry(msg.getGekkoEntry(), bb);
+        }
+
+        @Override
+        public AppendEntryReq decode(ByteBuffer bb) {
+            return AppendEntryReq.builder().gekkoEntry(getEntry(bb)).build();
+        }
+    }
+
+    static class AppendEntryRespCodec implements MessageCodec<AppendEntryResp> {
+        @Override
+        public int sizeOf(AppendEntryResp msg) {
+            return 8 + 1;
+        }
+
+        @Override
+        public void encode(AppendEntryResp msg, ByteBuffer bb) {
+            bb.putLong(msg.getIndex());
+            putEnum(msg.getResultCode(), bb);
+        }
+
+        @Override
+        public AppendEntryResp decode(ByteBuffer bb) {
+            return AppendEntryResp.builder().index(bb.getLong()).resultCode(getEnum(ResultEnums.values(), bb)).build();
+        }
+    }
+
+    static class AppendEntriesReqCodec implements MessageCodec<AppendEntriesReq> {
+        @Override
+        public int sizeOf(AppendEntriesReq msg) {
+            return MessageCodecs.sizeOf(msg.getEntries());
+        }
+
+        @Override
+        public void encode(AppendEntriesReq msg, ByteBuffer bb) {
+            putEntries(msg.getEntries(), bb);
+        }
+
+        @Override
+        public AppendEntriesReq decode(ByteBuffer bb) {
+            return AppendEntriesReq.builder().entries(getEntries(bb)).build();
+        }
+    }
+
+    static class AppendEntriesRespCodec implements MessageCodec<AppendEntriesResp> {
+        @Override
+        public int sizeOf(AppendEntriesResp msg) {
+            return 8 + 4 + 1;
+        }
+
+        @Override
+        public void encode(AppendEntriesResp msg, ByteBuffer bb) {
+            bb.putLong(msg.getFirstIndex());
+            bb.putInt(msg.getCount());
+            putEnum(msg.getResultCode(), bb);
+        }
+
+        @Override
+        public AppendEntriesResp decode(ByteBuffer bb) {
+            return AppendEntriesResp.builder().firstIndex(bb.getLong()).count(bb.getInt()).resultCode(getEnum(ResultEnums.values(), bb)).build();
+        }
+    }
+
+    static class PullEntryReqCodec implements MessageCodec<PullEntryReq> {
+        @Override
+        public int sizeOf(PullEntryReq msg) {
+            return 8 + 8;
+        }
+
+        @Override
+        public void encode(PullEntryReq msg, ByteBuffer bb) {
+            bb.putLong(msg.getFromIndex());
+            bb.putLong(msg.getToIndex());
+        }
+
+        @Override
+        public PullEntryReq decode(ByteBuffer bb) {
+            return PullEntryReq.builder().fromIndex(bb.getLong()).toIndex(bb.getLong()).build();
+        }
+    }
+
+    static class PullEntryRespCodec implements MessageCodec<PullEntryResp> {
+        @Override
+        public int sizeOf(PullEntryResp msg) {
+            return MessageCodecs.sizeOf(msg.getEnries());
+        }
+
+        @Override
+        public void encode(PullEntryResp msg, ByteBuffer bb) {
+            putEntries(msg.getEnries(), bb);
+        }
+
+        @Override
+        public PullEntryResp decode(ByteBuffer bb) {
+            return PullEntryResp.builder().enries(getEntries(bb)).build();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jobop.gekko.protocols.message;
+
+import com.github.jobop.gekko.core.lifecycle.GekkoReferenceCounted;
+import com.github.jobop.gekko.utils.CrcUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * a flyweight over an encoded entry,the header fields are read lazily from the buffer and the data is exposed
+ * without copy.a view handed to an EntryVisitor is reused for the next entry and is only valid in the callback,
+ * call retain to keep the entry and the segment it belongs to after that,and release it when done
+ */
+public class GekkoEntryView implements Checksum {
+    private ByteBuffer buffer;
+    private int offset;
+    //the segment which holds the buffer,null if the buffer is on heap
+    private GekkoReferenceCounted owner;
+
+    public GekkoEntryView wrap(ByteBuffer buffer, int offset, GekkoReferenceCounted owner) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.owner = owner;
+        return this;
+    }
+
+    public int getMagic() {
+        return buffer.getInt(offset);
+    }
+
+    public int getTotalSize() {
+        return buffer.getInt(offset + 4);
+    }
+
+    public long getTerm() {
+        return buffer.getLong(offset + 4 + 4);
+    }
+
+    public long getEntryIndex() {
+        return buffer.getLong(offset + 4 + 4 + 8);
+    }
+
+    public long getPos() {
+        return buffer.getLong(offset + GekkoEntry.POS_OFFSET);
+    }
+
+    public long getChecksum() {
+        return buffer.getLong(offset + GekkoEntry.POS_OFFSET + 8);
+    }
+
+    public int getDataSize() {
+        return getTotalSize() - GekkoEntry.BODY_OFFSET;
+    }
+
+    /**
+     * @return a read only buffer over the data
+     */
+    public ByteBuffer data() {
+        ByteBuffer bb = buffer.duplicate();
+        bb.limit(offset + getTotalSize());
+        bb.position(offset + GekkoEntry.BODY_OFFSET);
+        return bb.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a read only buffer over the whole encoded entry,the same bytes as CodecUtils.encodeData writes
+     */
+    public ByteBuffer raw() {
+        ByteBuffer bb = buffer.duplicate();
+        bb.limit(offset + getTotalSize());
+        bb.position(offset);
+        return bb.slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public long checksum() {
+        long c = 0;
+        c = checksum(this.getTotalSize(), c);
+        c = checksum(this.getMagic(), c);
+        c = checksum(this.getTerm(), c);
+        c = checksum(this.getEntryIndex(), c);
+        c = checksum(this.getPos(), c);
+        c = checksum(CrcUtil.crc64(this.data()), c);
+        return c;
+    }
+
+    public boolean isIntact() {
+        return this.getChecksum() == this.checksum();
+    }
+
+    /**
+     * copy out an entry which doesn't depend on the buffer
+     */
+    public GekkoEntry toEntry() {
+        byte[] data = new byte[this.getDataSize()];
+        this.data().get(data);
+        return GekkoEntry.builder().magic(getMagic()).totalSize(getTotalSize()).term(getTerm()).entryIndex(getEntryIndex())
+                .pos(getPos()).checksum(getChecksum()).data(data).build();
+    }
+
+    /**
+     * pin the current entry,the returned view is not reused and keeps the segment mapped until release
+     */
+    public GekkoEntryView retain() {
+        if (null != owner) {
+            owner.retain();
+        }
+        return new GekkoEntryView().wrap(buffer, offset, owner);
+    }
+
+    //no callbacks,the empty generic varargs are safe
+    @SuppressWarnings("unchecked")
+    public void release() {
+        if (null != owner) {
+            owner.release();
+        }
+    }
+}
@@ -21,8 +21,10 @@ package com.github.jobop.gekko.protocols.message.api;
 
 import com.github.jobop.gekko.enums.ResultEnums;
 import lombok.Builder;
+import lombok.Data;
 
 import java.io.Serializable;
+@Data
 @Builder
 public class AppendEntryResp implements Serializable {
     private long index;
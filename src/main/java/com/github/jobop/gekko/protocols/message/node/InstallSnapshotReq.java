@@ -0,0 +1,48 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jobop.gekko.protocols.message.node;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * one chunk of a snapshot file,the files are sent one by one and the snapshot.meta is the last one
+ */
+@Data
+@Builder
+public class InstallSnapshotReq implements Serializable {
+    /**
+     * for serialization
+     */
+    private static final long serialVersionUID = 6530231741625186734L;
+    private String group;
+    private String remoteNodeId;
+    private long term;
+    private long lastIncludedIndex;
+
+    //the path relative to the snapshot dir
+    private String fileName;
+    private long fileSize;
+    private long offset;
+    private byte[] data;
+    //the last chunk of the snapshot,the follower installs it after this one is written
+    private boolean done;
+}
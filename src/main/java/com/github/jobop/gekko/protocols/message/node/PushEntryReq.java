@@ -46,4 +46,8 @@ public class PushEntryReq implements Serializable {
     private long count;
     @Singular
     List<GekkoEntry> entries = new ArrayList<>();
+    //[startIndex,endIndex] as they are in the log of the leader,the entries are empty when it is set
+    private byte[] rawEntries;
+    //the checksum of the entry at endIndex
+    private long lastCheckSum;
 }
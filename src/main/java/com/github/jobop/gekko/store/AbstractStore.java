@@ -22,8 +22,12 @@ import com.github.jobop.gekko.core.config.GekkoConfig;
 import com.github.jobop.gekko.core.lifecycle.LifeCycleAdpter;
 import com.github.jobop.gekko.core.metadata.NodeState;
 import com.github.jobop.gekko.protocols.message.GekkoEntry;
+import com.github.jobop.gekko.protocols.message.GekkoEntryView;
 import com.github.jobop.gekko.protocols.message.GekkoIndex;
+import com.github.jobop.gekko.utils.CodecUtils;
 
+import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.List;
 
 
@@ -51,10 +55,45 @@ public  class AbstractStore extends LifeCycleAdpter implements com.github.jobop.
         super.shutdown();
     }
 
+    /**
+     * the leader decides where the entry is,the followers keep what the leader decided
+     */
+    protected boolean isLeader() {
+        return nodeState.getSelfId() == nodeState.getLeaderId();
+    }
+
+    protected void fillEntry(GekkoEntry entry, long pos, long dataIndex) {
+        //set pos
+        entry.setPos(pos);
+
+        //set index
+        entry.setEntryIndex(dataIndex);
+        //set term
+        entry.setTerm(this.nodeState.getTerm());
+        entry.computSizeInBytes();
+        entry.setChecksum(entry.checksum());
+    }
+
     public void append(GekkoEntry entry) {
 
     }
 
+    @Override
+    public void appendBatch(List<GekkoEntry> entries) {
+        for (GekkoEntry entry : entries) {
+            this.append(entry);
+        }
+    }
+
+    @Override
+    public void appendBatchNoFlushWait(List<GekkoEntry> entries) {
+        this.appendBatch(entries);
+    }
+
+    @Override
+    public void waitForFlush(List<GekkoEntry> entries) {
+    }
+
     public List<GekkoEntry> batchGet(long offset, long length) {
         return null;
     }
@@ -74,11 +113,90 @@ public  class AbstractStore extends LifeCycleAdpter implements com.github.jobop.
         return null;
     }
 
+    /**
+     * the stores which can not expose their bytes encode every entry into a heap buffer
+     */
+    @Override
+    public void scanByIndex(long fromIndex, long toIndex, EntryVisitor visitor) {
+        List<GekkoEntry> entries = this.batchGetByIndex(fromIndex, toIndex == -1 ? this.getMaxIndex() + 1 : toIndex);
+        if (null == entries) {
+            return;
+        }
+        GekkoEntryView view = new GekkoEntryView();
+        for (GekkoEntry entry : entries) {
+            ByteBuffer bb = ByteBuffer.allocate(entry.getTotalSize());
+            CodecUtils.encodeData(entry, bb);
+            if (!visitor.visit(view.wrap(bb, 0, null))) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public LogCursor openCursor(long fromIndex) {
+        return new BatchLogCursor(this, fromIndex, conf.getCursorReadAheadCount());
+    }
+
+    @Override
+    public ByteBuffer readRawByIndex(long fromIndex, long toIndex) {
+        List<GekkoEntry> entries = this.batchGetByIndex(fromIndex, toIndex);
+        if (null == entries) {
+            return ByteBuffer.allocate(0);
+        }
+        int size = 0;
+        for (GekkoEntry entry : entries) {
+            size += entry.getTotalSize();
+        }
+        ByteBuffer bb = ByteBuffer.allocate(size);
+        for (GekkoEntry entry : entries) {
+            CodecUtils.putData(entry, bb);
+        }
+        bb.flip();
+        return bb;
+    }
+
+    /**
+     * the stores which keep the entries as objects decode the bytes back and append them in one batch
+     */
+    @Override
+    public int appendRaw(ByteBuffer encodedEntries) {
+        List<GekkoEntry> entries = CodecUtils.decodeToDataList(Collections.singletonList(encodedEntries.duplicate()));
+        this.appendBatch(entries);
+        int appended = 0;
+        while (appended < entries.size() && entries.get(appended).getPos() != -1) {
+            appended++;
+        }
+        return appended;
+    }
+
     @Override
     public long getMaxIndex() {
         return -1;
     }
 
+    @Override
+    public int getMaxEntrySize() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * the entries before the first one larger than getMaxEntrySize,it and the ones after it are marked not stored
+     */
+    protected int storablePrefix(List<GekkoEntry> entries) {
+        boolean isLeader = isLeader();
+        for (int i = 0; i < entries.size(); i++) {
+            GekkoEntry entry = entries.get(i);
+            int size = isLeader ? entry.computSizeInBytes() : entry.getTotalSize();
+            if (size > getMaxEntrySize()) {
+                for (int j = i; j < entries.size(); j++) {
+                    entries.get(j).setPos(-1);
+                }
+                return i;
+            }
+        }
+        return entries.size();
+    }
+
     @Override
     public void trimAfter(long fromIndex) {
 
@@ -88,4 +206,9 @@ public  class AbstractStore extends LifeCycleAdpter implements com.github.jobop.
     public void trimBefore(long toIndex) {
 
     }
+
+    @Override
+    public void resetTo(long lastIncludedIndex) {
+
+    }
 }
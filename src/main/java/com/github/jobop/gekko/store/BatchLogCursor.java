@@ -0,0 +1,73 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jobop.gekko.store;
+
+import com.github.jobop.gekko.protocols.message.GekkoEntry;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * the cursor of the stores which can only read by ranges,it reads ahead at most readAheadCount entries at a time
+ */
+class BatchLogCursor implements LogCursor {
+    private final Store store;
+    private final int readAheadCount;
+    private long nextIndex;
+    private List<GekkoEntry> readAhead = Collections.emptyList();
+    private int readAheadPos = 0;
+
+    BatchLogCursor(Store store, long fromIndex, int readAheadCount) {
+        this.store = store;
+        this.readAheadCount = Math.max(1, readAheadCount);
+        this.nextIndex = fromIndex;
+    }
+
+    @Override
+    public GekkoEntry next() {
+        if (readAheadPos >= readAhead.size()) {
+            List<GekkoEntry> entries = store.batchGetByIndex(nextIndex, nextIndex + readAheadCount);
+            readAhead = null == entries ? Collections.emptyList() : entries;
+            readAheadPos = 0;
+            if (readAhead.isEmpty()) {
+                return null;
+            }
+        }
+        GekkoEntry entry = readAhead.get(readAheadPos++);
+        nextIndex = entry.getEntryIndex() + 1;
+        return entry;
+    }
+
+    @Override
+    public void seek(long index) {
+        this.nextIndex = index;
+        this.readAhead = Collections.emptyList();
+        this.readAheadPos = 0;
+    }
+
+    @Override
+    public long getNextIndex() {
+        return nextIndex;
+    }
+
+    @Override
+    public void close() {
+        this.readAhead = Collections.emptyList();
+    }
+}
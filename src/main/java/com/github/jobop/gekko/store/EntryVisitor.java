@@ -0,0 +1,33 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jobop.gekko.store;
+
+import com.github.jobop.gekko.protocols.message.GekkoEntryView;
+
+/**
+ * visit the entries in order without materializing them
+ */
+@FunctionalInterface
+public interface EntryVisitor {
+    /**
+     * @param view only valid in this call,retain it to keep it longer
+     * @return false to stop the scan
+     */
+    boolean visit(GekkoEntryView view);
+}
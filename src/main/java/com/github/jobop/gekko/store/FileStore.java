@@ -19,9 +19,14 @@
 package com.github.jobop.gekko.store;
 
 import com.github.jobop.gekko.core.config.GekkoConfig;
+import com.github.jobop.gekko.core.exception.GekkoException;
 import com.github.jobop.gekko.core.metadata.NodeState;
+import com.github.jobop.gekko.enums.FlushModeEnum;
+import com.github.jobop.gekko.enums.ResultEnums;
 import com.github.jobop.gekko.protocols.message.GekkoEntry;
+import com.github.jobop.gekko.protocols.message.GekkoEntryView;
 import com.github.jobop.gekko.protocols.message.GekkoIndex;
+import com.github.jobop.gekko.store.file.MmapFile;
 import com.github.jobop.gekko.store.file.mmap.AutoRollMMapFile;
 import com.github.jobop.gekko.store.file.mmap.SlicedByteBuffer;
 import com.github.jobop.gekko.utils.CodecUtils;
@@ -34,7 +39,11 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -50,13 +59,15 @@ public class FileStore extends AbstractStore {
 
     volatile long maxIndex = 0;
 
+    private IndexCache indexCache;
 
-    private ThreadLocal<ByteBuffer> localDataBuffer = ThreadLocal.withInitial(() -> {
-        return ByteBuffer.allocate(1024 * 1024);
-    });
-    private ThreadLocal<ByteBuffer> localIndexBuffer = ThreadLocal.withInitial(() -> {
-        return ByteBuffer.allocate(GekkoIndex.INDEX_SIZE * 1024);
-    });
+
+    //the appends waiting to be written by whoever holds the nodeState monitor
+    private final ConcurrentLinkedQueue<PendingAppend> pendingAppends = new ConcurrentLinkedQueue<PendingAppend>();
+    //the appends waiting for the GROUP flusher
+    private final ConcurrentLinkedQueue<FlushWaiter> flushWaiters = new ConcurrentLinkedQueue<FlushWaiter>();
+    //the data before it has been forced
+    private volatile long flushedDataOffset = 0;
 
     public FileStore(GekkoConfig conf, NodeState nodeState) {
         super(conf, nodeState);
@@ -71,20 +82,56 @@ public class FileStore extends AbstractStore {
         } catch (IOException e) {
             log.error("", e);
         }
-        dataFile = new AutoRollMMapFile(BASE_FILE_PATH + File.separator + "data", conf.getStoreFileSize(), conf.getOsPageSize());
-        indexFile = new AutoRollMMapFile(BASE_FILE_PATH + File.separator + "index", GekkoIndex.INDEX_SIZE * conf.getIndexCountPerFile(), conf.getOsPageSize());
+        long mappedFileIdleMillis = TimeUnit.SECONDS.toMillis(conf.getMappedFileIdleTime());
+        dataFile = new AutoRollMMapFile(BASE_FILE_PATH + File.separator + "data", conf.getStoreFileSize(), conf.getOsPageSize(), conf.getPreAllocateFileCount(), conf.isWarmMappedFile(), conf.getMaxMappedBytes(), mappedFileIdleMillis);
+        indexFile = new AutoRollMMapFile(BASE_FILE_PATH + File.separator + "index", GekkoIndex.INDEX_SIZE * conf.getIndexCountPerFile(), conf.getOsPageSize(), conf.getPreAllocateFileCount(), conf.isWarmMappedFile(), conf.getMaxMappedBytes(), mappedFileIdleMillis);
         dataFile.load();
         indexFile.load();
         this.maxIndex = indexFile.getMaxOffset() == 0 ? 0 : (indexFile.getMaxOffset() / GekkoIndex.INDEX_SIZE);
+        this.indexCache = new IndexCache(conf.getIndexCacheSegmentCount());
+        loadIndexCache();
+
+        this.flushedDataOffset = dataFile.getMaxOffset();
+        if (conf.getFlushMode() == FlushModeEnum.GROUP) {
+            this.fileFlushThread = new NotifyableThread(this.conf.getGroupFlushInterval(), TimeUnit.MILLISECONDS, "group-flush-thread") {
+                @Override
+                public void doWork() {
+                    groupFlush();
+                }
+            };
+        } else {
+            this.fileFlushThread = new NotifyableThread(this.conf.getFlushInterval(), TimeUnit.SECONDS, "flush-thread") {
+                @Override
+                public void doWork() {
+                    dataFile.flush(1);
+                    indexFile.flush(1);
+                }
+            };
+        }
 
-        this.fileFlushThread = new NotifyableThread(this.conf.getFlushInterval(), TimeUnit.SECONDS, "flush-thread") {
-            @Override
-            public void doWork() {
-                dataFile.flush(1);
-                indexFile.flush(1);
-            }
-        };
+    }
 
+    //load the indexes of the tail into the cache,the older ones are read from the index file when needed
+    private void loadIndexCache() {
+        //the head may have been compacted
+        long firstIndex = indexFile.getMinOffset() / GekkoIndex.INDEX_SIZE + 1;
+        long fromIndex = Math.max(firstIndex, this.maxIndex - IndexCache.SEGMENT_ENTRIES + 1);
+        for (long i = fromIndex; i <= this.maxIndex; i++) {
+            GekkoIndex index = getGekkoIndex(i);
+            if (null == index) {
+                continue;
+            }
+            SlicedByteBuffer slicedByteBuffer = null;
+            try {
+                slicedByteBuffer = dataFile.selectMappedBuffer(index.getDataPos(), index.getDataSize());
+                if (null == slicedByteBuffer) {
+                    continue;
+                }
+                indexCache.put(i, index.getDataPos(), index.getDataSize(), CodecUtils.decodeTerm(slicedByteBuffer.getByteBuffer()));
+            } finally {
+                SlicedByteBufferUtils.safeRelease(slicedByteBuffer);
+            }
+        }
     }
 
     @Override
@@ -95,53 +142,369 @@ public class FileStore extends AbstractStore {
     @Override
     public void shutdown() {
         this.fileFlushThread.shutdown();
+        if (conf.getFlushMode() == FlushModeEnum.GROUP) {
+            groupFlush();
+        }
+        this.dataFile.shutdown();
+        this.indexFile.shutdown();
     }
 
     @Override
     public void append(GekkoEntry entry) {
+        this.appendBatch(Collections.singletonList(entry));
+    }
+
+    /**
+     * group commit:every caller queues its entries and then competes for the monitor,
+     * the winner drains the whole queue and writes it in one critical section,
+     * so a caller which was blocked usually finds its entries already written when it gets the monitor
+     */
+    @Override
+    public void appendBatch(List<GekkoEntry> entries) {
+        appendBatchNoFlushWait(entries);
+        if (conf.getFlushMode() == FlushModeEnum.GROUP) {
+            waitForFlush(entries);
+        }
+    }
+
+    @Override
+    public void appendBatchNoFlushWait(List<GekkoEntry> entries) {
+        if (null == entries || entries.isEmpty()) {
+            return;
+        }
+        //an entry no file can hold would stop the whole group,so it only fails its own caller
+        int storable = storablePrefix(entries);
+        if (storable < entries.size()) {
+            log.warn("the entry is larger than a file,size=" + entries.get(storable).getTotalSize() + " fileSize=" + conf.getStoreFileSize());
+            if (storable == 0) {
+                return;
+            }
+            entries = entries.subList(0, storable);
+        }
+        PendingAppend pending = new PendingAppend(entries);
+        pendingAppends.offer(pending);
         synchronized (nodeState) {
-            long pos = dataFile.allocPos(entry.getTotalSize());
-            if (nodeState.getSelfId() == nodeState.getLeaderId()) {
-                fillEntry(entry, pos);
+            if (!pending.done) {
+                List<PendingAppend> drained = new ArrayList<PendingAppend>();
+                List<GekkoEntry> group = new ArrayList<GekkoEntry>();
+                PendingAppend p;
+                while ((p = pendingAppends.poll()) != null) {
+                    drained.add(p);
+                    group.addAll(p.entries);
+                }
+                Throwable cause = null;
+                try {
+                    writeGroup(group);
+                } catch (Throwable t) {
+                    log.error("append group fail! size=" + group.size(), t);
+                    cause = t;
+                }
+                if (null == cause && conf.getFlushMode() == FlushModeEnum.SYNC) {
+                    //one force for the whole group
+                    indexFile.flush(0);
+                    dataFile.flush(0);
+                    flushedDataOffset = dataFile.getMaxOffset();
+                }
+                for (PendingAppend d : drained) {
+                    d.cause = cause;
+                    d.done = true;
+                }
+            }
+            if (null != pending.cause) {
+                throw new GekkoException(pending.cause);
             }
-            //save data
-            saveData(entry);
-            //save index
-            GekkoIndex index = GekkoIndex.builder().magic(0xCAFEDADE).totalSize(GekkoIndex.INDEX_SIZE).dataPos(entry.getPos()).dataIndex(entry.getEntryIndex()).dataSize(entry.getTotalSize()).build();
-            saveIndex(index);
+        }
+    }
 
+    //block until the GROUP flusher has forced the data of the entries
+    @Override
+    public void waitForFlush(List<GekkoEntry> entries) {
+        if (conf.getFlushMode() != FlushModeEnum.GROUP) {
+            return;
+        }
+        long target = 0;
+        for (GekkoEntry entry : entries) {
             if (entry.getPos() != -1) {
-                if (nodeState.getWriteId() < entry.getEntryIndex()) {
-                    nodeState.setWriteId(entry.getEntryIndex());
-                    nodeState.setPreChecksum(nodeState.getLastChecksum());
-                    nodeState.setLastChecksum(entry.getChecksum());
-                    maxIndex++;
+                target = Math.max(target, entry.getPos() + entry.getTotalSize());
+            }
+        }
+        waitForFlush(target);
+    }
+
+    //block until the GROUP flusher has forced the data before target
+    private void waitForFlush(long target) {
+        if (target <= flushedDataOffset) {
+            return;
+        }
+        FlushWaiter waiter = new FlushWaiter(target);
+        flushWaiters.offer(waiter);
+        //the flusher may have passed the target before the waiter was queued
+        if (target <= flushedDataOffset) {
+            completeFlushWaiters(flushedDataOffset);
+        }
+        this.fileFlushThread.trigger();
+        try {
+            if (!waiter.latch.await(conf.getGroupFlushTimeout(), TimeUnit.MILLISECONDS)) {
+                log.warn("wait for flush timeout target=" + target + " flushed=" + flushedDataOffset);
+                throw new GekkoException(ResultEnums.FLUSH_TIMEOUT);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GekkoException(e);
+        }
+    }
+
+    /**
+     * force everything written so far and complete the waiters up to there,
+     * the offset is taken under the monitor so the index of every entry before it has been written as well
+     */
+    private void groupFlush() {
+        long target;
+        synchronized (nodeState) {
+            target = dataFile.getMaxOffset();
+        }
+        if (target > flushedDataOffset) {
+            indexFile.flush(0);
+            dataFile.flush(0);
+            flushedDataOffset = target;
+        }
+        completeFlushWaiters(flushedDataOffset);
+    }
+
+    private void completeFlushWaiters(long flushedOffset) {
+        Iterator<FlushWaiter> it = flushWaiters.iterator();
+        while (it.hasNext()) {
+            FlushWaiter waiter = it.next();
+            if (waiter.target <= flushedOffset) {
+                it.remove();
+                waiter.latch.countDown();
+            }
+        }
+    }
+
+    /**
+     * encode the entries straight into the reserved slices of the data file and the index file,
+     * both runs break together when either file is full,and update the nodeState once for the whole group.
+     * the entries stored are always a prefix,the ones after it get pos -1 even if this throws
+     */
+    private void writeGroup(List<GekkoEntry> entries) {
+        boolean isLeader = isLeader();
+        long nextIndex = indexFile.getMaxOffset() / GekkoIndex.INDEX_SIZE + 1;
+
+        int written = 0;
+        //the entries before it are in the committed runs of both files
+        int committed = 0;
+        SlicedByteBuffer dataRun = null;
+        SlicedByteBuffer indexRun = null;
+        long[] localPositions = new long[entries.size()];
+        try {
+            for (; written < entries.size(); written++) {
+                GekkoEntry entry = entries.get(written);
+                if (isLeader) {
+                    entry.computSizeInBytes();
+                }
+                int size = entry.getTotalSize();
+                //so the index of an entry is never committed without its data
+                if ((null != dataRun && dataRun.remaining() < size) || (null != indexRun && indexRun.remaining() < GekkoIndex.INDEX_SIZE)) {
+                    commitRun(dataFile, dataRun);
+                    dataRun = null;
+                    commitRun(indexFile, indexRun);
+                    indexRun = null;
+                    committed = written;
+                }
+                if (null == dataRun) {
+                    dataRun = dataFile.reserve(size);
+                }
+                //the index file is not rolled for an entry which has no space
+                if (null != dataRun && null == indexRun) {
+                    indexRun = indexFile.reserve(GekkoIndex.INDEX_SIZE);
                 }
+                if (null == dataRun || null == indexRun) {
+                    log.warn("no space to append the entry size=" + size);
+                    break;
+                }
+                //the pos of a follower may differ from the one the leader decided,such as after a snapshot is installed
+                long localPos = dataRun.getGobalPos() + dataRun.position();
+                if (isLeader) {
+                    fillEntry(entry, localPos, nextIndex);
+                }
+                nextIndex++;
+                CodecUtils.putData(entry, dataRun.getByteBuffer());
+                localPositions[written] = localPos;
+                CodecUtils.putIndex(localPos, entry.getEntryIndex(), entry.getTotalSize(), indexRun.getByteBuffer());
+            }
+            if (null != dataRun) {
+                commitRun(dataFile, dataRun);
+                dataRun = null;
+            }
+            if (null != indexRun) {
+                commitRun(indexFile, indexRun);
+                indexRun = null;
+            }
+            committed = written;
+        } finally {
+            //only left when fail,the bytes written into them are dropped
+            SlicedByteBufferUtils.safeRelease(dataRun);
+            SlicedByteBufferUtils.safeRelease(indexRun);
+            publishCommitted(entries, committed, localPositions);
+        }
+    }
+
+    //the committed entries are readable,publish them to the cache and the nodeState,the rest are not stored
+    private void publishCommitted(List<GekkoEntry> entries, int committed, long[] localPositions) {
+        long writeId = nodeState.getWriteId();
+        long preChecksum = nodeState.getPreChecksum();
+        long lastChecksum = nodeState.getLastChecksum();
+        int accepted = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            GekkoEntry entry = entries.get(i);
+            if (i >= committed) {
+                entry.setPos(-1);
+                continue;
+            }
+            if (entry.getPos() == -1) {
+                continue;
+            }
+            indexCache.put(entry.getEntryIndex(), localPositions[i], entry.getTotalSize(), entry.getTerm());
+            if (writeId < entry.getEntryIndex()) {
+                writeId = entry.getEntryIndex();
+                preChecksum = lastChecksum;
+                lastChecksum = entry.getChecksum();
+                accepted++;
             }
         }
+        if (accepted > 0) {
+            nodeState.setWriteId(writeId);
+            nodeState.setPreChecksum(preChecksum);
+            nodeState.setLastChecksum(lastChecksum);
+            maxIndex += accepted;
+        }
+    }
 
+    /**
+     * the follower side of a raw replication frame,the bytes the leader read out of its log are copied into
+     * the data file as they are,nothing is decoded,only the headers are read to index them.
+     * the entries must follow the last one,the caller has checked them
+     */
+    @Override
+    public int appendRaw(ByteBuffer encodedEntries) {
+        int appended;
+        long dataEnd;
+        synchronized (nodeState) {
+            dataEnd = dataFile.getMaxOffset();
+            appended = writeRaw(encodedEntries);
+            if (appended > 0) {
+                dataEnd = dataFile.getMaxOffset();
+                if (conf.getFlushMode() == FlushModeEnum.SYNC) {
+                    indexFile.flush(0);
+                    dataFile.flush(0);
+                    flushedDataOffset = dataEnd;
+                }
+            }
+        }
+        if (appended > 0 && conf.getFlushMode() == FlushModeEnum.GROUP) {
+            waitForFlush(dataEnd);
+        }
+        return appended;
     }
 
-    private void fillEntry(GekkoEntry entry, long pos) {
-        //set pos
-        entry.setPos(pos);
+    private int writeRaw(ByteBuffer encodedEntries) {
+        GekkoEntryView view = new GekkoEntryView();
+        int count = 0;
+        for (int offset = encodedEntries.position(); offset < encodedEntries.limit(); offset += view.getTotalSize()) {
+            view.wrap(encodedEntries, offset, null);
+            if (view.getTotalSize() < GekkoEntry.BODY_OFFSET || offset + view.getTotalSize() > encodedEntries.limit()) {
+                break;
+            }
+            count++;
+        }
+        long[] localPositions = new long[count];
+        int written = 0;
+        //the entries before it are in the committed runs of both files
+        int appended = 0;
+        SlicedByteBuffer dataRun = null;
+        SlicedByteBuffer indexRun = null;
+        try {
+            for (int offset = encodedEntries.position(); written < count; offset += view.getTotalSize()) {
+                view.wrap(encodedEntries, offset, null);
+                int size = view.getTotalSize();
+                //so the index of an entry is never committed without its data
+                if ((null != dataRun && dataRun.remaining() < size) || (null != indexRun && indexRun.remaining() < GekkoIndex.INDEX_SIZE)) {
+                    commitRun(dataFile, dataRun);
+                    dataRun = null;
+                    commitRun(indexFile, indexRun);
+                    indexRun = null;
+                    appended = written;
+                }
+                if (null == dataRun) {
+                    dataRun = dataFile.reserve(size);
+                }
+                //the index file is not rolled for an entry which has no space
+                if (null != dataRun && null == indexRun) {
+                    indexRun = indexFile.reserve(GekkoIndex.INDEX_SIZE);
+                }
+                if (null == dataRun || null == indexRun) {
+                    log.warn("no space to append the raw entry size=" + size);
+                    break;
+                }
+                long localPos = dataRun.getGobalPos() + dataRun.position();
+                dataRun.getByteBuffer().put(view.raw());
+                CodecUtils.putIndex(localPos, view.getEntryIndex(), size, indexRun.getByteBuffer());
+                localPositions[written++] = localPos;
+            }
+            if (null != dataRun) {
+                commitRun(dataFile, dataRun);
+                dataRun = null;
+            }
+            if (null != indexRun) {
+                commitRun(indexFile, indexRun);
+                indexRun = null;
+            }
+            appended = written;
+        } finally {
+            SlicedByteBufferUtils.safeRelease(dataRun);
+            SlicedByteBufferUtils.safeRelease(indexRun);
+            publishCommittedRaw(encodedEntries, appended, localPositions);
+        }
+        return appended;
+    }
 
-        //set index
-        long dataIndex = indexFile.getMaxOffset() / GekkoIndex.INDEX_SIZE + 1;
-        entry.setEntryIndex(dataIndex);
-        //set term
-        entry.setTerm(this.nodeState.getTerm());
-        entry.computSizeInBytes();
-        entry.setChecksum(entry.checksum());
+    //the committed entries are readable,publish them to the cache and the nodeState
+    private void publishCommittedRaw(ByteBuffer encodedEntries, int appended, long[] localPositions) {
+        if (appended == 0) {
+            return;
+        }
+        GekkoEntryView view = new GekkoEntryView();
+        long preChecksum = nodeState.getLastChecksum();
+        long lastChecksum = preChecksum;
+        int offset = encodedEntries.position();
+        for (int i = 0; i < appended; i++) {
+            view.wrap(encodedEntries, offset, null);
+            indexCache.put(view.getEntryIndex(), localPositions[i], view.getTotalSize(), view.getTerm());
+            preChecksum = lastChecksum;
+            lastChecksum = view.getChecksum();
+            offset += view.getTotalSize();
+        }
+        nodeState.setWriteId(view.getEntryIndex());
+        nodeState.setPreChecksum(preChecksum);
+        nodeState.setLastChecksum(lastChecksum);
+        maxIndex += appended;
     }
 
+    private void commitRun(AutoRollMMapFile file, SlicedByteBuffer run) {
+        if (run.position() > 0) {
+            file.commit(run, run.position());
+        } else {
+            run.release();
+        }
+    }
 
     @Override
     public List<GekkoEntry> batchGet(long fromPos, long toPos) {
         List<GekkoEntry> entries = null;
         List<SlicedByteBuffer> slicedByteBuffers = null;
         try {
-            slicedByteBuffers = dataFile.selectMutilBufferToRead(fromPos, (int) toPos);
+            slicedByteBuffers = dataFile.selectMutilBufferToRead(fromPos, toPos);
             if (null == slicedByteBuffers || slicedByteBuffers.isEmpty()) {
                 return null;
             }
@@ -171,12 +534,48 @@ public class FileStore extends AbstractStore {
 
     @Override
     public GekkoEntry getByIndex(long dataIndex) {
+        IndexCache.Slot slot = new IndexCache.Slot();
+        if (indexCache.read(dataIndex, slot)) {
+            return this.get(slot.pos, slot.size);
+        }
         GekkoIndex index = getGekkoIndex(dataIndex);
         if (index == null) return null;
         return this.get(index.getDataPos(), index.getDataSize());
 
     }
 
+    /**
+     * @return the term of the entry,or -1 if not found
+     */
+    public long getTermByIndex(long dataIndex) {
+        IndexCache.Slot slot = new IndexCache.Slot();
+        if (indexCache.read(dataIndex, slot)) {
+            return slot.term;
+        }
+        GekkoEntry entry = this.getByIndex(dataIndex);
+        return null == entry ? -1 : entry.getTerm();
+    }
+
+    //return -1 if not found
+    private long dataPosOf(long dataIndex) {
+        IndexCache.Slot slot = new IndexCache.Slot();
+        if (indexCache.read(dataIndex, slot)) {
+            return slot.pos;
+        }
+        GekkoIndex index = getGekkoIndex(dataIndex);
+        return null == index ? -1 : index.getDataPos();
+    }
+
+    //the pos after the end of the entry,return -1 if not found
+    private long dataEndOf(long dataIndex) {
+        IndexCache.Slot slot = new IndexCache.Slot();
+        if (indexCache.read(dataIndex, slot)) {
+            return slot.pos + slot.size;
+        }
+        GekkoIndex index = getGekkoIndex(dataIndex);
+        return null == index ? -1 : index.getDataPos() + index.getDataSize();
+    }
+
     private GekkoIndex getGekkoIndex(long dataIndex) {
         if (dataIndex < 1) {
             return null;
@@ -202,31 +601,85 @@ public class FileStore extends AbstractStore {
 
     @Override
     public List<GekkoEntry> batchGetByIndex(long fromIndex, long toIndex) {
-        GekkoIndex fromGekkoIndex = getGekkoIndex(fromIndex);
-        GekkoIndex toGekkoIndex = getGekkoIndex(toIndex - 1);
-        if (null == fromGekkoIndex) {
+        long fromPos = dataPosOf(fromIndex);
+        if (-1 == fromPos) {
             return new ArrayList<>();
         }
-        if (null == toGekkoIndex) {
-            return this.batchGet(fromGekkoIndex.getDataPos(), -1);
-        } else {
-            return this.batchGet(fromGekkoIndex.getDataPos(), toGekkoIndex.getDataPos() + toGekkoIndex.getDataSize());
-        }
+        long toPos = dataEndOf(toIndex - 1);
+        return this.batchGet(fromPos, toPos);
 
     }
 
-    private long saveIndex(GekkoIndex index) {
-        CodecUtils.encodeIndex(index, localIndexBuffer.get());
-        byte[] indexbytes = new byte[localIndexBuffer.get().remaining()];
-        localIndexBuffer.get().get(indexbytes);
-        return indexFile.appendMessage(indexbytes);
+    /**
+     * one bulk copy per file out of the mapped slices,nothing is decoded
+     */
+    @Override
+    public ByteBuffer readRawByIndex(long fromIndex, long toIndex) {
+        long fromPos = dataPosOf(fromIndex);
+        if (-1 == fromPos) {
+            return ByteBuffer.allocate(0);
+        }
+        List<SlicedByteBuffer> slicedByteBuffers = null;
+        try {
+            slicedByteBuffers = dataFile.selectMutilBufferToRead(fromPos, dataEndOf(toIndex - 1));
+            if (null == slicedByteBuffers) {
+                return ByteBuffer.allocate(0);
+            }
+            int size = 0;
+            for (SlicedByteBuffer slicedByteBuffer : slicedByteBuffers) {
+                size += slicedByteBuffer.getByteBuffer().remaining();
+            }
+            ByteBuffer bb = ByteBuffer.allocate(size);
+            for (SlicedByteBuffer slicedByteBuffer : slicedByteBuffers) {
+                bb.put(slicedByteBuffer.getByteBuffer());
+            }
+            bb.flip();
+            return bb;
+        } finally {
+            SlicedByteBufferUtils.safeRelease(slicedByteBuffers);
+        }
+    }
+
+    /**
+     * one view walks over the mapped slices,so nothing is decoded or copied,the slices are released after the scan
+     */
+    @Override
+    public void scanByIndex(long fromIndex, long toIndex, EntryVisitor visitor) {
+        long fromPos = dataPosOf(fromIndex);
+        if (-1 == fromPos) {
+            return;
+        }
+        long toPos = toIndex == -1 ? -1 : dataEndOf(toIndex - 1);
+        List<SlicedByteBuffer> slicedByteBuffers = null;
+        try {
+            slicedByteBuffers = dataFile.selectMutilBufferToRead(fromPos, toPos);
+            if (null == slicedByteBuffers) {
+                return;
+            }
+            GekkoEntryView view = new GekkoEntryView();
+            for (SlicedByteBuffer slicedByteBuffer : slicedByteBuffers) {
+                ByteBuffer bb = slicedByteBuffer.getByteBuffer();
+                int offset = bb.position();
+                while (offset + GekkoEntry.HEADER_SIZE <= bb.limit()) {
+                    view.wrap(bb, offset, slicedByteBuffer.getBelongFile());
+                    int totalSize = view.getTotalSize();
+                    if (totalSize < GekkoEntry.HEADER_SIZE) {
+                        break;
+                    }
+                    if (!visitor.visit(view)) {
+                        return;
+                    }
+                    offset += totalSize;
+                }
+            }
+        } finally {
+            SlicedByteBufferUtils.safeRelease(slicedByteBuffers);
+        }
     }
 
-    private void saveData(GekkoEntry entry) {
-        CodecUtils.encodeData(entry, localDataBuffer.get());
-        byte[] bytes = new byte[localDataBuffer.get().remaining()];
-        localDataBuffer.get().get(bytes);
-        dataFile.appendMessage(bytes);
+    @Override
+    public LogCursor openCursor(long fromIndex) {
+        return new FileLogCursor(fromIndex);
     }
 
     public void trimAfter(long fromIndex) {
@@ -235,9 +688,13 @@ public class FileStore extends AbstractStore {
             log.info("no need to trim fromIndex=-1");
             return;
         }
-        GekkoIndex index = getGekkoIndex(fromIndex + 1);
-        if (null != index) {
-            this.dataFile.trimAfter(index.getDataPos());
+        long dataPos = dataPosOf(fromIndex + 1);
+        if (-1 != dataPos) {
+            this.indexCache.trimAfter(fromIndex);
+            this.dataFile.trimAfter(dataPos);
+            if (this.flushedDataOffset > dataPos) {
+                this.flushedDataOffset = dataPos;
+            }
             this.indexFile.trimAfter(fromIndex * GekkoIndex.INDEX_SIZE);
             this.nodeState.setWriteId(fromIndex);
             if (fromIndex <= this.nodeState.getCommitId()) {
@@ -256,11 +713,167 @@ public class FileStore extends AbstractStore {
 
     }
 
+    /**
+     * drop [,toIndex),only the whole files before it are deleted,the rest keeps readable until the file is deleted
+     */
     public void trimBefore(long toIndex) {
+        if (toIndex <= 1) {
+            return;
+        }
+        long dataPos = dataPosOf(toIndex);
+        if (-1 == dataPos) {
+            log.warn("can not find the entry to trim before,toIndex=" + toIndex);
+            return;
+        }
+        this.indexCache.trimBefore(toIndex);
+        this.dataFile.trimBefore(dataPos);
+        this.indexFile.trimBefore((toIndex - 1) * GekkoIndex.INDEX_SIZE);
+    }
+
+    /**
+     * drop both files,the index file continues from the slot of lastIncludedIndex+1 and the data file from 0
+     */
+    @Override
+    public void resetTo(long lastIncludedIndex) {
+        synchronized (nodeState) {
+            this.indexCache.trimAfter(0);
+            this.dataFile.resetTo(0);
+            this.indexFile.resetTo(lastIncludedIndex * GekkoIndex.INDEX_SIZE);
+            this.flushedDataOffset = 0;
+            this.maxIndex = lastIncludedIndex;
+        }
+    }
+
+    /**
+     * @return the data before this offset has been forced
+     */
+    public long getFlushedDataOffset() {
+        return this.flushedDataOffset;
     }
 
     @Override
     public long getMaxIndex() {
         return this.maxIndex;
     }
+
+    @Override
+    public int getMaxEntrySize() {
+        return conf.getStoreFileSize();
+    }
+
+    /**
+     * walk the data file from the pos of an index,holding the slice of one file at a time,
+     * the entries are decoded one by one and the pages ahead of them are touched in bounded steps
+     */
+    private class FileLogCursor implements LogCursor {
+        private long nextIndex;
+        //the pos of the next entry in the data file,-1 until the index can be found
+        private long nextPos;
+        private SlicedByteBuffer segment;
+        //the pages of the segment before it have been touched
+        private int readAheadPos;
+        private byte touched;
+
+        FileLogCursor(long fromIndex) {
+            seek(fromIndex);
+        }
+
+        @Override
+        public GekkoEntry next() {
+            if (-1 == nextPos) {
+                nextPos = dataPosOf(nextIndex);
+                if (-1 == nextPos) {
+                    return null;
+                }
+            }
+            ByteBuffer bb = currentSegment();
+            if (null == bb) {
+                return null;
+            }
+            GekkoEntry entry = CodecUtils.decodeData(bb);
+            nextPos += entry.getTotalSize();
+            nextIndex = entry.getEntryIndex() + 1;
+            readAhead(bb);
+            return entry;
+        }
+
+        //the slice with an entry at its position,null if there is none yet
+        private ByteBuffer currentSegment() {
+            while (true) {
+                if (null == segment) {
+                    segment = dataFile.selectMappedBuffer(nextPos);
+                    if (null == segment) {
+                        return null;
+                    }
+                    readAheadPos = 0;
+                }
+                ByteBuffer bb = segment.getByteBuffer();
+                if (bb.remaining() >= GekkoEntry.HEADER_SIZE) {
+                    return bb;
+                }
+                MmapFile file = segment.getBelongFile();
+                releaseSegment();
+                if (!file.isFull()) {
+                    //the tail of the file being written,select it again next time to see the entries appended since
+                    return null;
+                }
+                nextPos = file.getFileFromOffset() + file.getFileSize();
+            }
+        }
+
+        private void readAhead(ByteBuffer bb) {
+            int readAheadBytes = conf.getCursorReadAheadBytes();
+            if (readAheadBytes <= 0 || readAheadPos - bb.position() > readAheadBytes / 2) {
+                return;
+            }
+            int from = Math.max(readAheadPos, bb.position());
+            int to = (int) Math.min(bb.limit(), (long) bb.position() + readAheadBytes);
+            for (int i = from; i < to; i += conf.getOsPageSize()) {
+                touched ^= bb.get(i);
+            }
+            readAheadPos = to;
+        }
+
+        @Override
+        public void seek(long index) {
+            releaseSegment();
+            this.nextIndex = index;
+            this.nextPos = dataPosOf(index);
+        }
+
+        @Override
+        public long getNextIndex() {
+            return nextIndex;
+        }
+
+        @Override
+        public void close() {
+            releaseSegment();
+        }
+
+        private void releaseSegment() {
+            SlicedByteBufferUtils.safeRelease(segment);
+            segment = null;
+        }
+    }
+
+    private static class FlushWaiter {
+        final long target;
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        FlushWaiter(long target) {
+            this.target = target;
+        }
+    }
+
+    private static class PendingAppend {
+        final List<GekkoEntry> entries;
+        //guarded by the nodeState monitor
+        boolean done;
+        Throwable cause;
+
+        PendingAppend(List<GekkoEntry> entries) {
+            this.entries = entries;
+        }
+    }
 }
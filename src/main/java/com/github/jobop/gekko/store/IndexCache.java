@@ -0,0 +1,177 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jobop.gekko.store;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * keep the pos,size and term of the tail entries in primitive arrays,so the lookups by index
+ * need not touch the index file.the cache is split into fixed size segments which are reused in a ring,
+ * only the latest segmentCount segments are resident and the older indexes fall back to the index file.
+ * <p>
+ * there must be only one writer at a time,the readers see a slot once maxIndex has been published.
+ * reusing a segment or moving the bounds takes the write lock,so a read that overlaps it is dropped as a miss
+ */
+class IndexCache {
+    static final int SEGMENT_SHIFT = 16;
+    static final int SEGMENT_ENTRIES = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_ENTRIES - 1;
+
+    private final Segment[] segments;
+    //only taken for writing,the readers validate against it
+    private final StampedLock lock = new StampedLock();
+    //[minIndex,maxIndex] are resident
+    private volatile long minIndex = 1;
+    private volatile long maxIndex = 0;
+
+    IndexCache(int segmentCount) {
+        this.segments = new Segment[Math.max(1, segmentCount)];
+    }
+
+    /**
+     * the indexes must be put in order,a gap drops all the cached ones
+     */
+    void put(long index, long pos, int size, long term) {
+        if (index < 1) {
+            return;
+        }
+        if (index != maxIndex + 1) {
+            long stamp = lock.writeLock();
+            try {
+                this.reset(index - 1);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+        long segmentNo = index >>> SEGMENT_SHIFT;
+        int slot = (int) (segmentNo % segments.length);
+        Segment segment = segments[slot];
+        if (null == segment) {
+            segment = new Segment();
+            segments[slot] = segment;
+        }
+        if (segment.segmentNo != segmentNo) {
+            //reuse the arrays of the oldest segment,the indexes in it are not resident any more
+            long oldestIndex = (segmentNo - segments.length + 1) << SEGMENT_SHIFT;
+            long stamp = lock.writeLock();
+            try {
+                minIndex = Math.max(minIndex, oldestIndex);
+                segment.segmentNo = segmentNo;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+        int i = (int) (index & SEGMENT_MASK);
+        segment.pos[i] = pos;
+        segment.size[i] = size;
+        segment.term[i] = term;
+        maxIndex = index;
+    }
+
+    boolean contains(long index) {
+        return index >= minIndex && index <= maxIndex;
+    }
+
+    /**
+     * read the pos,size and term of the index together,the segment is checked before and after the read,
+     * so a slot which the writer reuses meanwhile is a miss instead of a mix of two entries
+     *
+     * @return false if not resident
+     */
+    boolean read(long index, Slot slot) {
+        long stamp = lock.tryOptimisticRead();
+        Segment segment = segmentOf(index);
+        if (null == segment) {
+            return false;
+        }
+        int i = (int) (index & SEGMENT_MASK);
+        slot.pos = segment.pos[i];
+        slot.size = segment.size[i];
+        slot.term = segment.term[i];
+        return lock.validate(stamp) && segment.segmentNo == index >>> SEGMENT_SHIFT;
+    }
+
+    long getMinIndex() {
+        return minIndex;
+    }
+
+    long getMaxIndex() {
+        return maxIndex;
+    }
+
+    /**
+     * drop the indexes after the given one
+     */
+    void trimAfter(long index) {
+        long stamp = lock.writeLock();
+        try {
+            if (index < minIndex) {
+                this.reset(index);
+            } else if (index < maxIndex) {
+                maxIndex = index;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * drop the indexes before the given one,it's called out of the writer,so it only ever raises minIndex
+     * and leaves maxIndex to the writer
+     */
+    void trimBefore(long index) {
+        long stamp = lock.writeLock();
+        try {
+            minIndex = Math.max(minIndex, index);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    //nothing is resident,the next put should be afterIndex+1,the caller holds the write lock
+    private void reset(long afterIndex) {
+        maxIndex = afterIndex;
+        minIndex = afterIndex + 1;
+    }
+
+    private Segment segmentOf(long index) {
+        long max = this.maxIndex;
+        if (index < minIndex || index > max) {
+            return null;
+        }
+        Segment segment = segments[(int) ((index >>> SEGMENT_SHIFT) % segments.length)];
+        if (null == segment || segment.segmentNo != index >>> SEGMENT_SHIFT) {
+            return null;
+        }
+        return segment;
+    }
+
+    static class Slot {
+        long pos;
+        int size;
+        long term;
+    }
+
+    private static class Segment {
+        volatile long segmentNo = -1;
+        final long[] pos = new long[SEGMENT_ENTRIES];
+        final int[] size = new int[SEGMENT_ENTRIES];
+        final long[] term = new long[SEGMENT_ENTRIES];
+    }
+}
@@ -0,0 +1,39 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jobop.gekko.store;
+
+import com.github.jobop.gekko.protocols.message.GekkoEntry;
+
+/**
+ * read the log in index order without materializing the range,it's not thread safe and must be closed after use
+ */
+public interface LogCursor extends AutoCloseable {
+    /**
+     * @return the next entry,or null if there is none now,call it again later to read the entries appended since
+     */
+    GekkoEntry next();
+
+    //the next call of next() starts from this index
+    void seek(long index);
+
+    long getNextIndex();
+
+    @Override
+    void close();
+}
@@ -21,11 +21,375 @@ package com.github.jobop.gekko.store;
 
 import com.github.jobop.gekko.core.config.GekkoConfig;
 import com.github.jobop.gekko.core.metadata.NodeState;
+import com.github.jobop.gekko.enums.ResultEnums;
+import com.github.jobop.gekko.protocols.message.GekkoEntry;
+import com.github.jobop.gekko.utils.CodecUtils;
+import com.github.jobop.gekko.utils.MmapUtils;
+import com.github.jobop.gekko.utils.PreConditions;
+import lombok.extern.slf4j.Slf4j;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-public class MemoryStore extends AbstractStore{
+/**
+ * keep the log in direct memory,nothing survives a restart.
+ * the entries are written one by one into a ring of off-heap slabs addressed by a logical offset which only grows,
+ * an entry never crosses two slabs,the tail of a slab which can not hold the next entry is skipped.
+ * the offset of each entry is kept in a primitive ring keyed by the entry index,
+ * when the ring is full the appends wait for trimBefore to free the head until memoryStoreAppendTimeout.
+ * only the snapshot compaction calls trimBefore,so it must be enabled with a state machine which saves its snapshots,and the log between two snapshots
+ * (snapshotThreshold entries) must fit in memoryStoreMaxBytes,otherwise the appends fail once the store is full.
+ */
+@Slf4j
+public class MemoryStore extends AbstractStore {
+    private static final int PADDING_MAGIC = 0xCAFEFFFF;
+
+    private int slabSize;
+    private long capacity;
+    private ByteBuffer[] slabs;
+
+    //offsets of the entries in [firstIndex,lastIndex],the slot of an index is index & (offsets.length - 1)
+    private long[] offsets = new long[1024];
+    private volatile long firstIndex = 1;
+    private volatile long lastIndex = 0;
+    //the logical offset of the first entry and the next entry
+    private long headOffset = 0;
+    private long writeOffset = 0;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Condition spaceFreed = lock.writeLock().newCondition();
 
     public MemoryStore(GekkoConfig conf, NodeState nodeState) {
-        super(conf,nodeState);
+        super(conf, nodeState);
+    }
+
+    @Override
+    public void init() {
+        //nothing else frees the memory,the store would be full for good
+        PreConditions.check(conf.getSnapshotThreshold() > 0, ResultEnums.MEMORY_STORE_NEEDS_SNAPSHOT, "the memory store needs snapshotThreshold > 0");
+        this.slabSize = conf.getMemorySlabSize();
+        int slabCount = (int) Math.max(1, conf.getMemoryStoreMaxBytes() / slabSize);
+        this.capacity = (long) slabCount * slabSize;
+        //allocate lazily,so a small log only costs the slabs it touched
+        this.slabs = new ByteBuffer[slabCount];
+    }
+
+    @Override
+    public void shutdown() {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < slabs.length; i++) {
+                MmapUtils.clean(slabs[i]);
+                slabs[i] = null;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void append(GekkoEntry entry) {
+        this.appendBatch(Collections.singletonList(entry));
+    }
+
+    @Override
+    public void appendBatch(List<GekkoEntry> entries) {
+        if (null == entries || entries.isEmpty()) {
+            return;
+        }
+        boolean isLeader = isLeader();
+        lock.writeLock().lock();
+        try {
+            long writeId = nodeState.getWriteId();
+            long preChecksum = nodeState.getPreChecksum();
+            long lastChecksum = nodeState.getLastChecksum();
+            int accepted = 0;
+            boolean full = false;
+            for (GekkoEntry entry : entries) {
+                if (isLeader) {
+                    entry.computSizeInBytes();
+                }
+                long pos = full ? -1 : allocPos(entry.getTotalSize());
+                if (-1 == pos) {
+                    //keep the log continuous,the entries after a failed one fail too
+                    entry.setPos(-1);
+                    full = true;
+                    continue;
+                }
+                long dataIndex = lastIndex + 1;
+                if (isLeader) {
+                    fillEntry(entry, pos, dataIndex);
+                }
+                ByteBuffer bb = slabOf(pos).duplicate();
+                bb.position(posInSlab(pos));
+                CodecUtils.putData(entry, bb);
+                writeOffset = pos + entry.getTotalSize();
+
+                ensureIndexCapacity(dataIndex);
+                offsets[slot(dataIndex)] = pos;
+                lastIndex = dataIndex;
+
+                if (writeId < entry.getEntryIndex()) {
+                    writeId = entry.getEntryIndex();
+                    preChecksum = lastChecksum;
+                    lastChecksum = entry.getChecksum();
+                    accepted++;
+                }
+            }
+            if (accepted > 0) {
+                nodeState.setWriteId(writeId);
+                nodeState.setPreChecksum(preChecksum);
+                nodeState.setLastChecksum(lastChecksum);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * find the logical offset for an entry of the size,skip the tail of the slab when it can not hold the entry,
+     * and wait for the head to be trimmed when the ring is full
+     *
+     * @return -1 if the entry is larger than a slab or no space is freed in time
+     */
+    private long allocPos(int size) {
+        if (size > slabSize) {
+            log.warn("the entry is larger than a slab,size=" + size + " slabSize=" + slabSize);
+            return -1;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(conf.getMemoryStoreAppendTimeout());
+        while (true) {
+            long pos = writeOffset;
+            int remainingInSlab = slabSize - posInSlab(pos);
+            if (remainingInSlab < size) {
+                pos += remainingInSlab;
+            }
+            if (pos + size - headOffset <= capacity) {
+                if (pos != writeOffset && remainingInSlab >= 4) {
+                    slabOf(writeOffset).putInt(posInSlab(writeOffset), PADDING_MAGIC);
+                }
+                return pos;
+            }
+            long waitNanos = deadline - System.nanoTime();
+            if (waitNanos <= 0) {
+                log.warn("the memory store is full,used=" + (writeOffset - headOffset) + " capacity=" + capacity);
+                return -1;
+            }
+            try {
+                spaceFreed.awaitNanos(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+        }
+    }
+
+    private ByteBuffer slabOf(long pos) {
+        int slabIndex = (int) ((pos % capacity) / slabSize);
+        ByteBuffer slab = slabs[slabIndex];
+        if (null == slab) {
+            slab = ByteBuffer.allocateDirect(slabSize);
+            slabs[slabIndex] = slab;
+        }
+        return slab;
+    }
+
+    private int posInSlab(long pos) {
+        return (int) (pos % slabSize);
+    }
+
+    private int slot(long dataIndex) {
+        return (int) (dataIndex & (offsets.length - 1));
+    }
+
+    private void ensureIndexCapacity(long dataIndex) {
+        if (dataIndex - firstIndex < offsets.length) {
+            return;
+        }
+        long[] newOffsets = new long[offsets.length << 1];
+        for (long i = firstIndex; i < dataIndex; i++) {
+            newOffsets[(int) (i & (newOffsets.length - 1))] = offsets[slot(i)];
+        }
+        offsets = newOffsets;
+    }
+
+    /**
+     * the entry must be between headOffset and writeOffset,call it under the read lock
+     */
+    private GekkoEntry decodeAt(long pos) {
+        ByteBuffer bb = slabOf(pos).duplicate();
+        int posInSlab = posInSlab(pos);
+        int totalSize = bb.getInt(posInSlab + 4);
+        bb.position(posInSlab);
+        bb.limit(posInSlab + totalSize);
+        return CodecUtils.decodeData(bb);
+    }
+
+    /**
+     * skip the padding at the tail of the slab
+     */
+    private long skipPadding(long pos) {
+        int remainingInSlab = slabSize - posInSlab(pos);
+        if (remainingInSlab < GekkoEntry.HEADER_SIZE || slabOf(pos).getInt(posInSlab(pos)) == PADDING_MAGIC) {
+            return pos + remainingInSlab;
+        }
+        return pos;
+    }
+
+    @Override
+    public List<GekkoEntry> batchGet(long fromPos, long toPos) {
+        lock.readLock().lock();
+        try {
+            long endPos = toPos == -1 ? writeOffset : Math.min(toPos, writeOffset);
+            if (fromPos < headOffset || fromPos >= endPos) {
+                return null;
+            }
+            List<GekkoEntry> entries = new ArrayList<GekkoEntry>();
+            long pos = fromPos;
+            while (pos < endPos) {
+                pos = skipPadding(pos);
+                if (pos >= endPos) {
+                    break;
+                }
+                GekkoEntry entry = decodeAt(pos);
+                entries.add(entry);
+                pos += entry.getTotalSize();
+            }
+            return entries;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public GekkoEntry get(long offset, long length) {
+        lock.readLock().lock();
+        try {
+            if (offset < headOffset || offset >= writeOffset) {
+                return null;
+            }
+            return decodeAt(offset);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public GekkoEntry getByIndex(long dataIndex) {
+        lock.readLock().lock();
+        try {
+            if (dataIndex < firstIndex || dataIndex > lastIndex) {
+                return null;
+            }
+            return decodeAt(offsets[slot(dataIndex)]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<GekkoEntry> batchGetByIndex(long fromIndex, long toIndex) {
+        lock.readLock().lock();
+        try {
+            List<GekkoEntry> entries = new ArrayList<GekkoEntry>();
+            long endIndex = Math.min(toIndex, lastIndex + 1);
+            for (long i = Math.max(fromIndex, firstIndex); i < endIndex; i++) {
+                entries.add(decodeAt(offsets[slot(i)]));
+            }
+            return entries;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long getMaxIndex() {
+        return this.lastIndex;
+    }
+
+    @Override
+    public int getMaxEntrySize() {
+        return this.slabSize;
+    }
+
+    /**
+     * keep [,fromIndex] and drop the others
+     */
+    @Override
+    public void trimAfter(long fromIndex) {
+        if (fromIndex < 0) {
+            log.info("no need to trim fromIndex=-1");
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (fromIndex >= lastIndex) {
+                return;
+            }
+            if (fromIndex < firstIndex) {
+                writeOffset = headOffset;
+                firstIndex = fromIndex + 1;
+            } else {
+                writeOffset = offsets[slot(fromIndex + 1)];
+            }
+            lastIndex = fromIndex;
+
+            this.nodeState.setWriteId(fromIndex);
+            if (fromIndex <= this.nodeState.getCommitId()) {
+                this.nodeState.setCommitId(fromIndex);
+            }
+            if (fromIndex >= firstIndex) {
+                this.nodeState.setLastChecksum(decodeAt(offsets[slot(fromIndex)]).getChecksum());
+            } else if (fromIndex == 0) {
+                this.nodeState.setLastChecksum(0);
+            }
+            spaceFreed.signalAll();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * drop [,toIndex) and free the memory they held
+     */
+    @Override
+    public void trimBefore(long toIndex) {
+        lock.writeLock().lock();
+        try {
+            if (toIndex <= firstIndex) {
+                return;
+            }
+            if (toIndex > lastIndex) {
+                headOffset = writeOffset;
+                firstIndex = lastIndex + 1;
+            } else {
+                headOffset = offsets[slot(toIndex)];
+                firstIndex = toIndex;
+            }
+            spaceFreed.signalAll();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * drop all the entries and free the memory they held
+     */
+    @Override
+    public void resetTo(long lastIncludedIndex) {
+        lock.writeLock().lock();
+        try {
+            headOffset = writeOffset;
+            firstIndex = lastIncludedIndex + 1;
+            lastIndex = lastIncludedIndex;
+            spaceFreed.signalAll();
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 }
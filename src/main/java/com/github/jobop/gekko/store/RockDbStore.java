@@ -20,11 +20,323 @@ package com.github.jobop.gekko.store;
 
 
 import com.github.jobop.gekko.core.config.GekkoConfig;
+import com.github.jobop.gekko.core.exception.GekkoException;
 import com.github.jobop.gekko.core.metadata.NodeState;
+import com.github.jobop.gekko.protocols.message.GekkoEntry;
+import com.github.jobop.gekko.utils.CodecUtils;
+import com.github.jobop.gekko.utils.FileUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.rocksdb.*;
 
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * keep the log in an embedded rocksdb,the key is the big-endian entry index so the entries are sorted by index,
+ * the value is the entry encoded as the file store does.
+ * there is no file position here,the pos of an entry is its index.
+ */
+@Slf4j
+public class RockDbStore extends AbstractStore {
+    private static final byte[] LOG_COLUMN_FAMILY = "log".getBytes();
+    //the first index of an empty log after a reset,so a reload knows where to continue
+    private static final byte[] FIRST_INDEX_KEY = "firstIndex".getBytes();
+
+    private DBOptions dbOptions;
+    private ColumnFamilyOptions logColumnFamilyOptions;
+    private Cache blockCache;
+    private WriteOptions writeOptions;
+    private ReadOptions scanOptions;
+    private RocksDB db;
+    private ColumnFamilyHandle defaultHandle;
+    private ColumnFamilyHandle logHandle;
+
+    private volatile long firstIndex = 1;
+    private volatile long maxIndex = 0;
+
+    private ThreadLocal<ByteBuffer> localDataBuffer = ThreadLocal.withInitial(() -> {
+        return ByteBuffer.allocate(1024 * 1024);
+    });
 
-public class RockDbStore extends AbstractStore{
     public RockDbStore(GekkoConfig conf, NodeState nodeState) {
-        super(conf,nodeState);
+        super(conf, nodeState);
+    }
+
+    @Override
+    public void init() {
+        RocksDB.loadLibrary();
+        String dbPath = conf.getBaseFilePath() + File.separator + "rocksdb";
+        FileUtils.forceMkdir(new File(dbPath));
+
+        this.dbOptions = new DBOptions()
+                .setCreateIfMissing(true)
+                .setCreateMissingColumnFamilies(true)
+                .setMaxBackgroundJobs(4)
+                .setBytesPerSync(1024 * 1024);
+        this.blockCache = new LRUCache(conf.getRocksDbBlockCacheSize());
+        this.logColumnFamilyOptions = newLogColumnFamilyOptions();
+        this.writeOptions = new WriteOptions();
+        this.scanOptions = new ReadOptions().setFillCache(false).setReadaheadSize(1024 * 1024);
+
+        List<ColumnFamilyDescriptor> descriptors = new ArrayList<ColumnFamilyDescriptor>();
+        descriptors.add(new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY));
+        descriptors.add(new ColumnFamilyDescriptor(LOG_COLUMN_FAMILY, logColumnFamilyOptions));
+        List<ColumnFamilyHandle> handles = new ArrayList<ColumnFamilyHandle>();
+        try {
+            this.db = RocksDB.open(dbOptions, dbPath, descriptors, handles);
+        } catch (RocksDBException e) {
+            log.error("open rocksdb fail! path=" + dbPath, e);
+            throw new GekkoException(e);
+        }
+        this.defaultHandle = handles.get(0);
+        this.logHandle = handles.get(1);
+
+        try (RocksIterator it = db.newIterator(logHandle)) {
+            it.seekToFirst();
+            if (it.isValid()) {
+                this.firstIndex = indexOf(it.key());
+                it.seekToLast();
+                this.maxIndex = indexOf(it.key());
+            } else {
+                this.firstIndex = loadFirstIndex();
+                this.maxIndex = this.firstIndex - 1;
+            }
+        }
+    }
+
+    private long loadFirstIndex() {
+        try {
+            byte[] value = db.get(defaultHandle, FIRST_INDEX_KEY);
+            return null == value ? 1 : indexOf(value);
+        } catch (RocksDBException e) {
+            log.error("load the first index from rocksdb fail!", e);
+            throw new GekkoException(e);
+        }
+    }
+
+    /**
+     * the log is appended in key order and read mostly by ranges:
+     * level compaction with dynamic level size,cheap compression on the upper levels and zstd on the bottom one,
+     * big blocks without bloom filters since there is no point lookup miss,and a bounded shared block cache
+     */
+    private ColumnFamilyOptions newLogColumnFamilyOptions() {
+        BlockBasedTableConfig tableConfig = new BlockBasedTableConfig()
+                .setBlockCache(blockCache)
+                .setBlockSize(64 * 1024)
+                .setCacheIndexAndFilterBlocks(true)
+                .setPinL0FilterAndIndexBlocksInCache(true);
+        return new ColumnFamilyOptions()
+                .setTableFormatConfig(tableConfig)
+                .setWriteBufferSize(conf.getRocksDbWriteBufferSize())
+                .setMaxWriteBufferNumber(4)
+                .setMinWriteBufferNumberToMerge(1)
+                .setCompactionStyle(CompactionStyle.LEVEL)
+                .setLevelCompactionDynamicLevelBytes(true)
+                .setTargetFileSizeBase(conf.getRocksDbWriteBufferSize())
+                .setMaxBytesForLevelBase(conf.getRocksDbWriteBufferSize() * 4)
+                .setCompressionType(CompressionType.LZ4_COMPRESSION)
+                .setBottommostCompressionType(CompressionType.ZSTD_COMPRESSION);
+    }
+
+    @Override
+    public void shutdown() {
+        if (null == db) {
+            return;
+        }
+        logHandle.close();
+        defaultHandle.close();
+        db.close();
+        db = null;
+        scanOptions.close();
+        writeOptions.close();
+        logColumnFamilyOptions.close();
+        blockCache.close();
+        dbOptions.close();
+    }
+
+    @Override
+    public void append(GekkoEntry entry) {
+        this.appendBatch(Collections.singletonList(entry));
+    }
+
+    /**
+     * all the entries go into one WriteBatch
+     */
+    @Override
+    public void appendBatch(List<GekkoEntry> entries) {
+        if (null == entries || entries.isEmpty()) {
+            return;
+        }
+        synchronized (nodeState) {
+            boolean isLeader = isLeader();
+            long nextIndex = maxIndex + 1;
+            ByteBuffer bb = localDataBuffer.get();
+            try (WriteBatch batch = new WriteBatch()) {
+                for (GekkoEntry entry : entries) {
+                    if (isLeader) {
+                        fillEntry(entry, nextIndex, nextIndex);
+                    }
+                    if (bb.capacity() < entry.getTotalSize()) {
+                        bb = ByteBuffer.allocate(entry.getTotalSize());
+                    }
+                    CodecUtils.encodeData(entry, bb);
+                    byte[] value = new byte[bb.remaining()];
+                    bb.get(value);
+                    batch.put(logHandle, keyOf(nextIndex), value);
+                    nextIndex++;
+                }
+                db.write(writeOptions, batch);
+            } catch (RocksDBException e) {
+                log.error("append to rocksdb fail! size=" + entries.size(), e);
+                for (GekkoEntry entry : entries) {
+                    entry.setPos(-1);
+                }
+                return;
+            }
+
+            long writeId = nodeState.getWriteId();
+            long preChecksum = nodeState.getPreChecksum();
+            long lastChecksum = nodeState.getLastChecksum();
+            for (GekkoEntry entry : entries) {
+                if (entry.getPos() != -1 && writeId < entry.getEntryIndex()) {
+                    writeId = entry.getEntryIndex();
+                    preChecksum = lastChecksum;
+                    lastChecksum = entry.getChecksum();
+                }
+            }
+            nodeState.setWriteId(writeId);
+            nodeState.setPreChecksum(preChecksum);
+            nodeState.setLastChecksum(lastChecksum);
+            this.maxIndex = nextIndex - 1;
+        }
+    }
+
+    /**
+     * the pos of an entry in this store is its index
+     */
+    @Override
+    public List<GekkoEntry> batchGet(long fromPos, long toPos) {
+        return this.batchGetByIndex(fromPos, toPos == -1 ? Long.MAX_VALUE : toPos);
+    }
+
+    @Override
+    public GekkoEntry get(long offset, long length) {
+        return this.getByIndex(offset);
+    }
+
+    @Override
+    public GekkoEntry getByIndex(long dataIndex) {
+        if (dataIndex < firstIndex || dataIndex > maxIndex) {
+            return null;
+        }
+        try {
+            byte[] value = db.get(logHandle, keyOf(dataIndex));
+            if (null == value) {
+                return null;
+            }
+            return CodecUtils.decodeData(ByteBuffer.wrap(value));
+        } catch (RocksDBException e) {
+            log.error("get from rocksdb fail! index=" + dataIndex, e);
+            throw new GekkoException(e);
+        }
+    }
+
+    @Override
+    public List<GekkoEntry> batchGetByIndex(long fromIndex, long toIndex) {
+        List<GekkoEntry> entries = new ArrayList<GekkoEntry>();
+        try (RocksIterator it = db.newIterator(logHandle, scanOptions)) {
+            for (it.seek(keyOf(Math.max(fromIndex, 0))); it.isValid(); it.next()) {
+                if (indexOf(it.key()) >= toIndex) {
+                    break;
+                }
+                entries.add(CodecUtils.decodeData(ByteBuffer.wrap(it.value())));
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public long getMaxIndex() {
+        return this.maxIndex;
+    }
+
+    @Override
+    public void trimAfter(long fromIndex) {
+        if (fromIndex < 0) {
+            log.info("no need to trim fromIndex=-1");
+            return;
+        }
+        synchronized (nodeState) {
+            if (fromIndex >= maxIndex) {
+                return;
+            }
+            deleteRange(fromIndex + 1, maxIndex + 1);
+            this.maxIndex = fromIndex;
+
+            this.nodeState.setWriteId(fromIndex);
+            if (fromIndex <= this.nodeState.getCommitId()) {
+                this.nodeState.setCommitId(fromIndex);
+            }
+            GekkoEntry preEntry = this.getByIndex(fromIndex);
+            if (null != preEntry) {
+                this.nodeState.setLastChecksum(preEntry.getChecksum());
+            } else if (fromIndex == 0) {
+                this.nodeState.setLastChecksum(0);
+            }
+        }
+    }
+
+    /**
+     * drop [,toIndex)
+     */
+    @Override
+    public void trimBefore(long toIndex) {
+        synchronized (nodeState) {
+            if (toIndex <= firstIndex) {
+                return;
+            }
+            deleteRange(firstIndex, toIndex);
+            this.firstIndex = toIndex;
+        }
+    }
+
+    /**
+     * drop all the entries,the next one is keyed by lastIncludedIndex+1
+     */
+    @Override
+    public void resetTo(long lastIncludedIndex) {
+        synchronized (nodeState) {
+            if (maxIndex >= firstIndex) {
+                deleteRange(firstIndex, maxIndex + 1);
+            }
+            try {
+                db.put(defaultHandle, FIRST_INDEX_KEY, keyOf(lastIncludedIndex + 1));
+            } catch (RocksDBException e) {
+                log.error("save the first index to rocksdb fail!", e);
+                throw new GekkoException(e);
+            }
+            this.firstIndex = lastIncludedIndex + 1;
+            this.maxIndex = lastIncludedIndex;
+        }
+    }
+
+    private void deleteRange(long fromIndex, long toIndex) {
+        try {
+            db.deleteRange(logHandle, keyOf(fromIndex), keyOf(toIndex));
+        } catch (RocksDBException e) {
+            log.error("delete range from rocksdb fail! [" + fromIndex + "," + toIndex + ")", e);
+            throw new GekkoException(e);
+        }
+    }
+
+    private static byte[] keyOf(long dataIndex) {
+        return ByteBuffer.allocate(8).putLong(dataIndex).array();
+    }
+
+    private static long indexOf(byte[] key) {
+        return ByteBuffer.wrap(key).getLong();
     }
 }
@@ -23,12 +23,22 @@ import com.github.jobop.gekko.core.lifecycle.LifeCycle;
 import com.github.jobop.gekko.protocols.message.GekkoEntry;
 import com.github.jobop.gekko.protocols.message.GekkoIndex;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 
 public interface Store extends LifeCycle {
     public void append(GekkoEntry entry);
 
+    //append all the entries in order,concurrent callers may be committed together in one write
+    public void appendBatch(List<GekkoEntry> entries);
+
+    //appendBatch without waiting for the GROUP flusher,the entries not stored get pos -1
+    public void appendBatchNoFlushWait(List<GekkoEntry> entries);
+
+    //block until the stored ones of the entries are forced under the flush mode,throw on timeout
+    public void waitForFlush(List<GekkoEntry> entries);
+
     public List<GekkoEntry> batchGet(long fromPos, long toPos);
 
     public GekkoEntry get(long offset, long length);
@@ -37,11 +47,28 @@ public interface Store extends LifeCycle {
     //[fromIndex,toIndex)
     public List<GekkoEntry> batchGetByIndex(long fromIndex, long toIndex);
 
+    //visit [fromIndex,toIndex) in order without copying the entries out,toIndex=-1 means to the end
+    public void scanByIndex(long fromIndex, long toIndex, EntryVisitor visitor);
+
+    //read from fromIndex one entry at a time,the cursor must be closed after use
+    public LogCursor openCursor(long fromIndex);
+
+    //the encoded bytes of [fromIndex,toIndex) back to back,as they are in the log,an empty buffer if fromIndex is not found
+    public ByteBuffer readRawByIndex(long fromIndex, long toIndex);
+
+    //append the encoded entries of readRawByIndex as they are,return how many of them have been appended
+    public int appendRaw(ByteBuffer encodedEntries);
+
 
     public long getMaxIndex();
+
+    //the largest encoded entry the store can ever hold
+    public int getMaxEntrySize();
     //[fromIndex,]
     public void trimAfter(long fromIndex);
     public void trimBefore(long toIndex);
+    //drop the whole log,the next entry will be lastIncludedIndex+1,used after a snapshot is installed
+    public void resetTo(long lastIncludedIndex);
 
 
 }
@@ -87,6 +87,27 @@ public interface MmapFile extends SequenceFile,SlicedAble {
      */
     MappedByteBuffer getMappedByteBuffer();
 
+    /**
+     * Unmaps the file while no one holds a reference to it, it's mapped again on the next access.
+     *
+     * @return true if the mapping has been dropped
+     */
+    boolean unmap();
+
+    /**
+     * Returns true if the file is mapped now.
+     *
+     * @return true or false
+     */
+    boolean isMapped();
+
+    /**
+     * Returns the last time the mapped byte buffer was accessed.
+     *
+     * @return the timestamp in millis
+     */
+    long getLastAccessTime();
+
     /**
      * Returns a slice of the mapped byte buffer behind the mapped file.
      *
@@ -171,4 +192,21 @@ public interface MmapFile extends SequenceFile,SlicedAble {
 
 
     long transferTo(long pos, int length, WritableByteChannel target);
+
+    /**
+     * Reserves a writable slice of the mapped region which starts at the wrote position.
+     *
+     * @param length the size of the slice
+     * @return the slice, or null if the file can not hold it
+     */
+    SlicedByteBuffer reserve(int length);
+
+    /**
+     * Moves the wrote position forward by the bytes which has been written into the reserved slice, and releases the slice.
+     *
+     * @param reserved the slice returned by {@link #reserve(int)}
+     * @param length   the bytes written into the slice
+     * @return the position in the file where the bytes start, or -1 if the slice has expired
+     */
+    long commit(SlicedByteBuffer reserved, int length);
 }
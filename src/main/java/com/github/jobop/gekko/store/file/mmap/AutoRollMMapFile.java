@@ -25,16 +25,29 @@ import com.github.jobop.gekko.store.file.MmapFile;
 import com.github.jobop.gekko.store.file.SequenceFile;
 import com.github.jobop.gekko.store.file.SlicedAble;
 import com.github.jobop.gekko.utils.FileUtils;
+import com.github.jobop.gekko.utils.IOUtils;
+import com.github.jobop.gekko.utils.LatencyHistogram;
+import com.github.jobop.gekko.utils.NotifyableThread;
 import com.github.jobop.gekko.utils.PreConditions;
+import com.github.jobop.gekko.utils.SlicedByteBufferUtils;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
@@ -54,10 +67,23 @@ public class AutoRollMMapFile implements ComposeMMapFile, SequenceFile, SlicedAb
 
     private CopyOnWriteArrayList<MmapFile> allMetaDataFiles = new CopyOnWriteArrayList<MmapFile>();
     private CopyOnWriteArrayList<MmapFile> allFiles = new CopyOnWriteArrayList<MmapFile>();
+    //fileFromOffset->file,the lookup by pos doesn't depend on the position in allFiles,which moves when the head is trimmed
+    private final Map<Long, MmapFile> segmentTable = new ConcurrentHashMap<Long, MmapFile>();
+    //the files written since their last flush
+    private final Set<MmapFile> dirtyFiles = ConcurrentHashMap.newKeySet();
+    //the meta files written since their last flush,forced before the checkpoint moves
+    private final Set<MmapFile> dirtyMetaDataFiles = ConcurrentHashMap.newKeySet();
+    private static final String CHECKPOINT_FILE_NAME = "recover.checkpoint";
+    private static final String VERIFIED_FROM_OFFSET_KEY = "VERIFIED_FROM_OFFSET";
+    //the sealed files up to this one have been flushed and verified,their metadata can be trusted on load
+    private volatile long verifiedFromOffset = -1;
     private final String storePath;
     private int singleFileSize = 1024 * 1024 * 40;
     private int osPageSize = 1024 * 4;
     private static final int EOF_MAGIC = 0xCAFEFFFF;
+    //magic+size of the record which skips the head of a file after a reset
+    private static final int BLANK_MAGIC = 0xCAFEBBBB;
+    private static final int BLANK_RECORD_SIZE = 4 + 4;
     private static int BLANK_THRESHOLD = 0;
     private AtomicInteger hasLoad = new AtomicInteger(0);
     private AtomicInteger hasLoadMetaDataFile = new AtomicInteger(0);
@@ -66,11 +92,50 @@ public class AutoRollMMapFile implements ComposeMMapFile, SequenceFile, SlicedAb
         return ByteBuffer.allocate(1024 * 1024);
     });
 
+    private MMapFileAllocator allocator;
+    //how long the writer is blocked when rolling to a new file
+    private final LatencyHistogram rollStallHistogram;
+
+    private static final int MAPPING_SWEEP_INTERVAL = 1000;
+    //0 means no cap
+    private long maxMappedBytes;
+    //0 means the idle files keep mapped
+    private long mappedFileIdleMillis;
+    private NotifyableThread mappingSweeper;
+
     public AutoRollMMapFile(String storePath, int singleFileSize, int osPageSize) {
+        this(storePath, singleFileSize, osPageSize, 0, false);
+    }
+
+    public AutoRollMMapFile(String storePath, int singleFileSize, int osPageSize, int preAllocateCount, boolean warmMappedFile) {
+        this(storePath, singleFileSize, osPageSize, preAllocateCount, warmMappedFile, 0, 0);
+    }
+
+    /**
+     * @param maxMappedBytes       unmap the least recently read sealed files when more bytes than this are mapped
+     * @param mappedFileIdleMillis unmap the sealed files which have not been read for this long
+     */
+    public AutoRollMMapFile(String storePath, int singleFileSize, int osPageSize, int preAllocateCount, boolean warmMappedFile, long maxMappedBytes, long mappedFileIdleMillis) {
+        this.maxMappedBytes = maxMappedBytes;
+        this.mappedFileIdleMillis = mappedFileIdleMillis;
+        if (maxMappedBytes > 0 || mappedFileIdleMillis > 0) {
+            this.mappingSweeper = new NotifyableThread(MAPPING_SWEEP_INTERVAL, TimeUnit.MILLISECONDS, "mapping-sweeper[" + storePath + "]") {
+                @Override
+                public void doWork() {
+                    sweepMappings();
+                }
+            };
+        }
         this.storePath = storePath;
         this.singleFileSize = singleFileSize;
         this.osPageSize = osPageSize;
-
+        this.rollStallHistogram = new LatencyHistogram("roll-stall[" + storePath + "]");
+        if (preAllocateCount > 0) {
+            this.allocator = new MMapFileAllocator(storePath, singleFileSize, osPageSize, preAllocateCount, warmMappedFile, () -> {
+                MmapFile current = this.currentMMapFile;
+                return null == current ? 0 : current.getFileFromOffset() + current.getFileSize();
+            });
+        }
     }
 
     @Override
@@ -87,7 +152,9 @@ public class AutoRollMMapFile implements ComposeMMapFile, SequenceFile, SlicedAb
         }
 
 
+        MMapFileAllocator.clearPreparedFiles(storeDir);
         loadDataFiles(storeDir);
+        this.verifiedFromOffset = loadCheckpoint();
         log.info("[1] load datafile pass!");
 
         PreConditions.check(this.checksum(), ResultEnums.LOAD_FILE_FAIL, "the checksum step can not pass!");
@@ -96,7 +163,30 @@ public class AutoRollMMapFile implements ComposeMMapFile, SequenceFile, SlicedAb
         PreConditions.check(this.recover(), ResultEnums.LOAD_FILE_FAIL, "the recover step can not pass!");
         log.info("[3] recover datafile pass!");
 
+        if (null != this.allocator) {
+            this.allocator.start();
+        }
+        if (null != this.mappingSweeper) {
+            this.mappingSweeper.start();
+        }
+    }
+
+    public void shutdown() {
+        if (null != this.allocator) {
+            this.allocator.shutdown();
+        }
+        if (null != this.mappingSweeper) {
+            this.mappingSweeper.shutdown();
+        }
+        log.info(this.rollStallHistogram.toString());
+    }
+
+    public long getVerifiedFromOffset() {
+        return verifiedFromOffset;
+    }
 
+    public LatencyHistogram getRollStallHistogram() {
+        return rollStallHistogram;
     }
 
 //    private void loadMetaDataFiles(File storeDir) {
@@ -120,6 +210,9 @@ public class AutoRollMMapFile implements ComposeMMapFile, SequenceFile, SlicedAb
         List<MmapFile> loadfiles = loadMmapFilesByNamePattern(storeDir, DATA_FILE_PATTERN, this.singleFileSize);
         if (loadfiles == null) return;
         this.allFiles.addAll(loadfiles);
+        for (MmapFile file : loadfiles) {
+            this.segmentTable.put(file.getFileFromOffset(), file);
+        }
         if (this.allFiles.size() > 0) {
             this.currentMMapFile = this.allFiles.get(this.allFiles.size() - 1);
         }
@@ -160,49 +253,74 @@ public class AutoRollMMapFile implements ComposeMMapFile, SequenceFile, SlicedAb
     }
 
 
+    /**
+     * check the end of every file in parallel,the sealed files before the checkpoint are trusted
+     * and only read their metadata,the others check the EOF flag or scan the entries to find the end
+     */
     private boolean recover() {
-        for (MmapFile dataFile : this.allFiles) {
-            String metaDataFileName = dataFile.getFileName() + ".meta";
-            MmapFile metaDataFile = new DefaultMMapFile(metaDataFileName, FILE_META_DATA_SIZE, this.osPageSize);
-            boolean needRepairMetaData = false;
-            if (metaDataFile.getLimit() != FILE_META_DATA_SIZE) {
-                needRepairMetaData = true;
-                log.warn("the metadatafile not match the length,will repair!");
-            } else {
-                ByteBuffer metaDataByteBuffer = metaDataFile.sliceByteBuffer();
-                Long dataFileFromOffet = metaDataByteBuffer.getLong();
-                int limit = metaDataByteBuffer.getInt();
+        List<MmapFile> files = new ArrayList<MmapFile>(this.allFiles);
+        if (files.isEmpty()) {
+            return true;
+        }
+        MmapFile lastFile = files.get(files.size() - 1);
+        long verifiedOffset = this.verifiedFromOffset;
+        ForkJoinPool pool = new ForkJoinPool(Math.min(files.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            return pool.submit(() -> files.parallelStream()
+                    .allMatch(file -> recoverFile(file, file != lastFile && file.getFileFromOffset() <= verifiedOffset))).get();
+        } catch (Exception e) {
+            log.error("recover fail!", e);
+            return false;
+        } finally {
+            pool.shutdown();
+        }
+    }
 
-                if (limit == dataFile.getFileSize()) {
-                    dataFile.setWrotePosition(dataFile.getFileSize());
-                    dataFile.setLimit(limit);
-                } else {
-                    int eofPos = limit;
-                    if (eofPos > dataFile.getFileSize()) {
-                        needRepairMetaData = true;
-                    } else {
-                        metaDataByteBuffer.position(eofPos);
-                        if (metaDataByteBuffer.getInt() == EOF_MAGIC) {
-                            dataFile.setWrotePosition(dataFile.getFileSize());
-                            dataFile.setLimit(limit);
-                        } else {
-                            needRepairMetaData = true;
-                        }
-                    }
-                }
+    private boolean recoverFile(MmapFile dataFile, boolean trusted) {
+        int limit = readMetaDataLimit(dataFile);
+        boolean needRepairMetaData = false;
+        if (limit <= 0) {
+            needRepairMetaData = true;
+            log.warn("the metadatafile of " + dataFile.getFileName() + " is missing or broken,will repair!");
+        } else if (trusted || limit == dataFile.getFileSize()) {
+            dataFile.setWrotePosition(dataFile.getFileSize());
+            dataFile.setLimit(limit);
+        } else if (limit + 4 <= dataFile.getFileSize() && dataFile.sliceByteBuffer().getInt(limit) == EOF_MAGIC) {
+            dataFile.setWrotePosition(dataFile.getFileSize());
+            dataFile.setLimit(limit);
+        } else {
+            needRepairMetaData = true;
+        }
 
-            }
+        if (needRepairMetaData) {
+            repairMetaData(dataFile);
+        }
+        dataFile.setFlushedPosition(dataFile.getWrotePosition());
+        return true;
+    }
 
-            if (needRepairMetaData) {
-                repairMetaData(dataFile, metaDataFile);
+    //return -1 if the metadata file is missing or doesn't belong to the data file
+    private int readMetaDataLimit(MmapFile dataFile) {
+        File metaDataFile = new File(dataFile.getFileName() + ".meta");
+        if (!metaDataFile.exists() || metaDataFile.length() < FILE_META_DATA_SIZE) {
+            return -1;
+        }
+        try {
+            ByteBuffer metaDataByteBuffer = ByteBuffer.wrap(Files.readAllBytes(metaDataFile.toPath()));
+            long dataFileFromOffset = metaDataByteBuffer.getLong();
+            int limit = metaDataByteBuffer.getInt();
+            if (dataFileFromOffset != dataFile.getFileFromOffset() || limit > dataFile.getFileSize()) {
+                return -1;
             }
+            return limit;
+        } catch (IOException e) {
+            log.warn("fail to read " + metaDataFile.getPath(), e);
+            return -1;
         }
-
-        return true;
     }
 
     //FIXME:it's not good to dependency to the data what we write,we can wrap a protocol the identify the size
-    private void repairMetaData(MmapFile dataFile, MmapFile metaDataFile) {
+    private void repairMetaData(MmapFile dataFile) {
         ByteBuffer byteBuffer = dataFile.sliceByteBuffer();
 
         int posInfile = 0;
@@ -213,8 +331,7 @@ public class AutoRollMMapFile implements ComposeMMapFile, SequenceFile, SlicedAb
                 dataFile.setLimit(limit);
                 dataFile.setWrotePosition(dataFile.getFileSize());
                 log.warn("the limit in the metadatafile will repair to " + limit + " filename=" + dataFile.getFileName());
-                writeMetaDataFile(dataFile, metaDataFile);
-                this.allMetaDataFiles.add(dataFile);
+                saveFileMetaData(dataFile);
                 break;
             }
             int entrySize = byteBuffer.getInt();
@@ -227,15 +344,51 @@ public class AutoRollMMapFile implements ComposeMMapFile, SequenceFile, SlicedAb
             if (posInfile >= dataFile.getFileSize()) {
                 dataFile.setLimit(dataFile.getFileSize());
                 dataFile.setWrotePosition(dataFile.getFileSize());
-                writeMetaDataFile(dataFile, metaDataFile);
-                this.allMetaDataFiles.add(dataFile);
-
+                saveFileMetaData(dataFile);
                 break;
             }
             byteBuffer.position(posInfile);
         }
     }
 
+    private long loadCheckpoint() {
+        try {
+            String data = IOUtils.file2String(this.storePath + File.separator + CHECKPOINT_FILE_NAME);
+            if (null == data) {
+                return -1;
+            }
+            Properties properties = IOUtils.string2Properties(data);
+            return Long.valueOf(properties.getProperty(VERIFIED_FROM_OFFSET_KEY));
+        } catch (Throwable t) {
+            log.warn("fail to load the recover checkpoint of " + this.storePath);
+            return -1;
+        }
+    }
+
+    private void saveCheckpoint(long verifiedFromOffset) {
+        Properties properties = new Properties();
+        properties.put(VERIFIED_FROM_OFFSET_KEY, String.valueOf(verifiedFromOffset));
+        try {
+            IOUtils.string2File(IOUtils.properties2String(properties), this.storePath + File.separator + CHECKPOINT_FILE_NAME);
+            this.verifiedFromOffset = verifiedFromOffset;
+        } catch (IOException e) {
+            log.warn("save recover checkpoint fail!", e);
+        }
+    }
+
+    //move the checkpoint to the last sealed file once it has been flushed
+    private void advanceCheckpoint() {
+        int size = this.allFiles.size();
+        if (size < 2) {
+            return;
+        }
+        MmapFile lastSealedFile = this.allFiles.get(size - 2);
+        if (lastSealedFile.getFileFromOffset() > this.verifiedFromOffset && !this.dirtyFiles.contains(lastSealedFile)
+                && lastSealedFile.getFlushedPosition() >= lastSealedFile.getWrotePosition()) {
+            saveCheckpoint(lastSealedFile.getFileFromOffset());
+        }
+    }
+
     @Override
     public boolean checksum() {
         if (!this.allFiles.isEmpty()) {
@@ -258,9 +411,44 @@ public class AutoRollMMapFile implements ComposeMMapFile, SequenceFile, SlicedAb
 
     @Override
     public void flush(int flushLeastPages) {
-        if (null != this.currentMMapFile) {
-            this.currentMMapFile.flush(1);
+        MmapFile current = this.currentMMapFile;
+        for (MmapFile file : this.dirtyFiles) {
+            //remove before flush,a write after the flush marks the file again
+            this.dirtyFiles.remove(file);
+            //the files rolled away will never get more bytes,flush the whole tail
+            file.flush(file == current ? flushLeastPages : 0);
+            if (file.isAvailable() && file.getFlushedPosition() < file.getWrotePosition()) {
+                this.dirtyFiles.add(file);
+            }
+        }
+        //the checkpoint trusts the metadata of the sealed files,so it must reach the disk first
+        for (MmapFile metaDataFile : this.dirtyMetaDataFiles) {
+            this.dirtyMetaDataFiles.remove(metaDataFile);
+            metaDataFile.flush(0);
+        }
+        advanceCheckpoint();
+    }
+
+    /**
+     * @return the bytes not flushed yet of every dirty file,keyed by the file name
+     */
+    public Map<String, Integer> getFlushLag() {
+        Map<String, Integer> lags = new LinkedHashMap<String, Integer>();
+        for (MmapFile file : this.allFiles) {
+            int lag = file.getWrotePosition() - file.getFlushedPosition();
+            if (lag > 0) {
+                lags.put(file.getFileName(), lag);
+            }
+        }
+        return lags;
+    }
+
+    public long getFlushLagBytes() {
+        long lag = 0;
+        for (MmapFile file : this.dirtyFiles) {
+            lag += file.getWrotePosition() - file.getFlushedPosition();
         }
+        return lag;
     }
 
 
@@ -278,14 +466,50 @@ public class AutoRollMMapFile implements ComposeMMapFile, SequenceFile, SlicedAb
     }
 
     public long appendMessage(byte[] data, long offset, int length) {
-        this.allocPos(data.length);
+        this.allocPos(length);
         long pos = this.currentMMapFile.getFileFromOffset() + this.currentMMapFile.getWrotePosition();
         if (-1 == this.currentMMapFile.appendMessage(data, offset, length)) {
             return -1;
         }
+        this.dirtyFiles.add(this.currentMMapFile);
         return pos;
     }
 
+    /**
+     * reserve a writable slice which runs from the wrote position to the end of the current file,
+     * roll to a new file first when the current one can not hold minLength bytes
+     *
+     * @param minLength the least bytes the slice must hold
+     * @return the slice whose gobalPos is where the bytes will start,or null if no file can hold minLength bytes
+     */
+    public SlicedByteBuffer reserve(int minLength) {
+        //no file can hold it,don't seal the current one for nothing
+        if (minLength > this.singleFileSize) {
+            return null;
+        }
+        MmapFile mmapFile = chooseMMapFileToWrite(this.currentMMapFile, minLength);
+        //even a new file can not hold more than the file size
+        if (null == mmapFile || mmapFile.getFileSize() - mmapFile.getWrotePosition() < minLength) {
+            return null;
+        }
+        return mmapFile.reserve(mmapFile.getFileSize() - mmapFile.getWrotePosition());
+    }
+
+    /**
+     * make the bytes written into the reserved slice visible to the readers
+     *
+     * @return the global pos where the bytes start,or -1 if fail
+     */
+    public long commit(SlicedByteBuffer reserved, int length) {
+        MmapFile file = reserved.getBelongFile();
+        long posInFile = file.commit(reserved, length);
+        if (-1 == posInFile) {
+            return -1;
+        }
+        this.dirtyFiles.add(file);
+        return reserved.getGobalPos();
+    }
+
     @Override
     public int getData(long pos, int size, byte[] dest) {
         SlicedByteBuffer slicedByteBuffer = this.selectMappedBuffer(pos, size);
@@ -312,17 +536,17 @@ public class AutoRollMMapFile implements ComposeMMapFile, SequenceFile, SlicedAb
         long size = toPos - fromPos;
         List<SlicedByteBuffer> buffers = new ArrayList<SlicedByteBuffer>();
         //calac the pos belong to which file
-        int fileIndex = (int) fromPos / this.singleFileSize;
+        long fileFromOffset = fileFromOffsetOf(fromPos);
         //calac the pos in the file
-        int posInFile = (int) (fromPos % this.singleFileSize);
+        int posInFile = (int) (fromPos - fileFromOffset);
 
         long willSelectedSize = 0;
         do {
-            if (fileIndex > this.allFiles.size() - 1) {
-                log.warn("the ops overflow ops=" + fromPos + " and filelist size=" + this.allFiles.size());
+            MmapFile file = chooseMMapFileToRead(fileFromOffset);
+            if (null == file) {
+                SlicedByteBufferUtils.safeRelease(buffers);
                 return null;
             }
-            MmapFile file = this.allFiles.get(fileIndex);
             long fileCanSelectSize = file.getWrotePosition() - posInFile;
             willSelectedSize = fileCanSelectSize + willSelectedSize;
             long remainingToselectSize = size - willSelectedSize;
@@ -338,7 +562,7 @@ public class AutoRollMMapFile implements ComposeMMapFile, SequenceFile, SlicedAb
             } else {
                 buffers.add(file.selectMappedBuffer(posInFile, (int) fileCanReadSize));
             }
-            ++fileIndex;
+            fileFromOffset += this.singleFileSize;
             posInFile = 0;
         } while (true);
         return buffers;
@@ -351,7 +575,7 @@ public class AutoRollMMapFile implements ComposeMMapFile, SequenceFile, SlicedAb
         if (null == file) {
             return null;
         }
-        int posInFile = (int) (pos % this.singleFileSize);
+        int posInFile = (int) (pos - file.getFileFromOffset());
         if (posInFile > file.getWrotePosition()) {
             log.warn("the posInFile overflow posInFile=" + posInFile + " and filewrotepos=" + file.getWrotePosition());
             return null;
@@ -371,17 +595,74 @@ public class AutoRollMMapFile implements ComposeMMapFile, SequenceFile, SlicedAb
         return this.selectMappedBuffer(pos, -1);
     }
 
+    //every file starts at a multiple of the file size
+    private long fileFromOffsetOf(long pos) {
+        return pos - pos % this.singleFileSize;
+    }
+
     private MmapFile chooseMMapFileToRead(long pos) {
         //calac the pos belong to which file
-        int fileIndex = (int) pos / this.singleFileSize;
-        if (fileIndex > this.allFiles.size() - 1) {
-            log.warn("the ops overflow ops=" + pos + " and filelist size=" + this.allFiles.size());
+        MmapFile file = this.segmentTable.get(fileFromOffsetOf(pos));
+        if (null == file) {
+            if (pos < this.getMinOffset()) {
+                log.warn("the pos has been trimmed pos=" + pos);
+            } else {
+                log.warn("the ops overflow ops=" + pos + " and maxOffset=" + this.getMaxOffset());
+            }
             return null;
         }
-        MmapFile file = this.allFiles.get(fileIndex);
+        //it's mapped again by this read,let the sweeper keep the cap
+        if (this.maxMappedBytes > 0 && !file.isMapped()) {
+            this.mappingSweeper.trigger();
+        }
         return file;
     }
 
+    /**
+     * unmap the sealed files which have not been read for a while,and then the least recently read ones
+     * until the mapped bytes fall under the cap.the current file and the ones not flushed yet keep mapped
+     *
+     * @return how many files have been unmapped
+     */
+    public int sweepMappings() {
+        long now = System.currentTimeMillis();
+        long mappedBytes = 0;
+        List<MmapFile> candidates = new ArrayList<MmapFile>();
+        for (MmapFile file : this.allFiles) {
+            if (!file.isMapped()) {
+                continue;
+            }
+            mappedBytes += file.getFileSize();
+            if (file != this.currentMMapFile && !this.dirtyFiles.contains(file)) {
+                candidates.add(file);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(MmapFile::getLastAccessTime));
+        int unmapped = 0;
+        for (MmapFile file : candidates) {
+            boolean idle = this.mappedFileIdleMillis > 0 && now - file.getLastAccessTime() >= this.mappedFileIdleMillis;
+            boolean overCap = this.maxMappedBytes > 0 && mappedBytes > this.maxMappedBytes;
+            if (!idle && !overCap) {
+                break;
+            }
+            if (file.unmap()) {
+                mappedBytes -= file.getFileSize();
+                unmapped++;
+            }
+        }
+        return unmapped;
+    }
+
+    public long getMappedBytes() {
+        long mappedBytes = 0;
+        for (MmapFile file : this.allFiles) {
+            if (file.isMapped()) {
+                mappedBytes += file.getFileSize();
+            }
+        }
+        return mappedBytes;
+    }
+
     private MmapFile chooseMMapFileToWrite(MmapFile currentMMapFile, int length) {
         if (null != currentMMapFile && !currentMMapFile.isFull()) {
             if (currentMMapFile.getFileSize() - currentMMapFile.getWrotePosition() >= length + BLANK_THRESHOLD) {
@@ -397,13 +678,13 @@ public class AutoRollMMapFile implements ComposeMMapFile, SequenceFile, SlicedAb
 
 
                 currentMMapFile.appendMessage(bb.array());
+                this.dirtyFiles.add(currentMMapFile);
 
 
-                this.currentMMapFile.setFlushedPosition(currentMMapFile.getFileSize());
+                //keep the flushed position,the tail will be forced by the next flush
                 this.currentMMapFile.setWrotePosition(currentMMapFile.getFileSize());
                 this.currentMMapFile.setLimit(oldLimit);
-                //save this limit to metadata file
-                saveFileMetaData(this.currentMMapFile);
+                //the limit is saved to the metadata file when rolling
                 return createNewMMapFile(currentMMapFile);
             }
 
@@ -415,11 +696,25 @@ public class AutoRollMMapFile implements ComposeMMapFile, SequenceFile, SlicedAb
 
     private void saveFileMetaData(MmapFile archiveFile) {
         String fileName = archiveFile.getFileName() + ".meta";
-        MmapFile newFile = new DefaultMMapFile(fileName, FILE_META_DATA_SIZE, this.osPageSize);
-        writeMetaDataFile(archiveFile, newFile);
-
+        MmapFile metaDataFile = findMetaDataFile(fileName);
+        if (null == metaDataFile) {
+            metaDataFile = new DefaultMMapFile(fileName, FILE_META_DATA_SIZE, this.osPageSize);
+            this.allMetaDataFiles.add(metaDataFile);
+        }
+        writeMetaDataFile(archiveFile, metaDataFile);
+        //not forced here,the next flush does it before the checkpoint moves
+        metaDataFile.setFlushedPosition(0);
+        metaDataFile.setWrotePosition(FILE_META_DATA_SIZE);
+        this.dirtyMetaDataFiles.add(metaDataFile);
+    }
 
-        this.allMetaDataFiles.add(newFile);
+    private MmapFile findMetaDataFile(String metaDataFileName) {
+        for (MmapFile metaDataFile : this.allMetaDataFiles) {
+            if (metaDataFileName.equals(metaDataFile.getFileName())) {
+                return metaDataFile;
+            }
+        }
+        return null;
     }
 
     private void writeMetaDataFile(MmapFile archiveFile, MmapFile metaFile) {
@@ -429,16 +724,25 @@ public class AutoRollMMapFile implements ComposeMMapFile, SequenceFile, SlicedAb
     }
 
     private MmapFile createNewMMapFile(MmapFile currentMMapFile) {
-
-        String fileName;
+        long start = System.nanoTime();
+        long fromOffset;
         if (null == currentMMapFile) {
-            fileName = "0";
+            fromOffset = 0;
         } else {
-            fileName = String.valueOf(currentMMapFile.getFileFromOffset() + currentMMapFile.getFileSize());
+            fromOffset = currentMMapFile.getFileFromOffset() + currentMMapFile.getFileSize();
             saveFileMetaData(this.currentMMapFile);
         }
-        MmapFile newFile = new DefaultMMapFile(storePath + File.separator + fileName, this.singleFileSize, this.osPageSize);
+        String fileName = storePath + File.separator + fromOffset;
+        MmapFile newFile = null;
+        if (null != this.allocator) {
+            newFile = this.allocator.take(fromOffset, fileName);
+        }
+        if (null == newFile) {
+            newFile = new DefaultMMapFile(fileName, this.singleFileSize, this.osPageSize);
+        }
+        this.rollStallHistogram.record(System.nanoTime() - start);
         this.currentMMapFile = newFile;
+        this.segmentTable.put(newFile.getFileFromOffset(), newFile);
         this.allFiles.add(newFile);
         return newFile;
     }
@@ -449,7 +753,8 @@ public class AutoRollMMapFile implements ComposeMMapFile, SequenceFile, SlicedAb
             if (file.getFileFromOffset() >= pos) {
                 break;
             }
-            if (file.getFileFromOffset() + this.singleFileSize < pos) {
+            //only the whole files before pos are deleted,never the one being written
+            if (file.getFileFromOffset() + this.singleFileSize <= pos && file != this.currentMMapFile) {
                 needRemoveFiles.add(file);
             }
             if (file.getFileFromOffset() <= pos && file.getFileFromOffset() + this.singleFileSize > pos) {
@@ -461,6 +766,10 @@ public class AutoRollMMapFile implements ComposeMMapFile, SequenceFile, SlicedAb
     }
 
     public long trimAfter(long pos) {
+        //the files after pos will be written again
+        if (this.verifiedFromOffset + this.singleFileSize > pos) {
+            saveCheckpoint(pos / this.singleFileSize * this.singleFileSize - this.singleFileSize);
+        }
         List<MmapFile> needRemoveFiles = new ArrayList<MmapFile>();
         for (MmapFile file : this.allFiles) {
             if (file.getFileFromOffset() + singleFileSize <= pos) {
@@ -477,12 +786,61 @@ public class AutoRollMMapFile implements ComposeMMapFile, SequenceFile, SlicedAb
         return pos;
     }
 
+    /**
+     * drop all the files and continue writing from pos,the head of the first file before pos
+     * is filled with one blank record so the recover can walk over it
+     */
+    public long resetTo(long pos) {
+        int posInFile = (int) (pos % this.singleFileSize);
+        PreConditions.check(posInFile == 0 || posInFile >= BLANK_RECORD_SIZE, ResultEnums.LOAD_FILE_FAIL, "can not reset to pos=" + pos);
+        clearExpireFiles(new ArrayList<MmapFile>(this.allFiles));
+        this.currentMMapFile = null;
+        saveCheckpoint(-1);
+        if (pos == 0) {
+            return pos;
+        }
+        long fromOffset = pos - posInFile;
+        MmapFile newFile = new DefaultMMapFile(storePath + File.separator + fromOffset, this.singleFileSize, this.osPageSize);
+        if (posInFile > 0) {
+            ByteBuffer bb = ByteBuffer.allocate(BLANK_RECORD_SIZE);
+            bb.putInt(BLANK_MAGIC);
+            bb.putInt(posInFile);
+            newFile.appendMessage(bb.array());
+            newFile.setWrotePosition(posInFile);
+            newFile.setLimit(posInFile);
+            newFile.trimBefore(posInFile);
+            this.dirtyFiles.add(newFile);
+        }
+        this.currentMMapFile = newFile;
+        this.segmentTable.put(newFile.getFileFromOffset(), newFile);
+        this.allFiles.add(newFile);
+        return pos;
+    }
+
     private void clearExpireFiles(List<MmapFile> needRemoveFiles) {
         for (MmapFile file : needRemoveFiles) {
-            file.destroy(1000);
             if (this.allFiles.contains(file)) {
                 this.allFiles.remove(file);
             }
+            this.segmentTable.remove(file.getFileFromOffset(), file);
+            this.dirtyFiles.remove(file);
+            file.destroy(1000);
+            clearMetaDataFile(file);
+        }
+    }
+
+    private void clearMetaDataFile(MmapFile dataFile) {
+        String metaDataFileName = dataFile.getFileName() + ".meta";
+        for (MmapFile metaDataFile : this.allMetaDataFiles) {
+            if (metaDataFileName.equals(metaDataFile.getFileName())) {
+                this.allMetaDataFiles.remove(metaDataFile);
+                this.dirtyMetaDataFiles.remove(metaDataFile);
+                metaDataFile.destroy(1000);
+            }
+        }
+        File file = new File(metaDataFileName);
+        if (file.exists() && !file.delete()) {
+            log.warn("fail to delete " + metaDataFileName);
         }
     }
 
@@ -493,7 +851,7 @@ public class AutoRollMMapFile implements ComposeMMapFile, SequenceFile, SlicedAb
             return 0;
         }
         MmapFile file = this.allFiles.get(0);
-        return file.getStartPosition();
+        return file.getFileFromOffset() + file.getStartPosition();
     }
 
     @Override
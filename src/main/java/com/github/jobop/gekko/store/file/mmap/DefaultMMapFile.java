@@ -56,7 +56,9 @@ public class DefaultMMapFile extends ShutdownableReferenceCountedResource implem
     private String fileName;
     protected File file;
     private FileChannel fileChannel;
-    private MappedByteBuffer mappedByteBuffer;
+    //null after the file is unmapped while idle,see mapped()
+    private volatile MappedByteBuffer mappedByteBuffer;
+    private volatile long lastAccessTime = System.currentTimeMillis();
 
     public DefaultMMapFile(String fileName, int fileSize, int osPageSize) {
         this.fileName = fileName;
@@ -93,6 +95,79 @@ public class DefaultMMapFile extends ShutdownableReferenceCountedResource implem
     }
 
 
+    /**
+     * the mapping may have been dropped by unmap,map it again on demand.
+     * call it while holding a reference,so unmap can not drop the buffer returned
+     */
+    private MappedByteBuffer mapped() {
+        MappedByteBuffer buffer = this.mappedByteBuffer;
+        if (null == buffer) {
+            synchronized (this) {
+                if (null == this.mappedByteBuffer) {
+                    initMappedByteBuffer();
+                }
+                buffer = this.mappedByteBuffer;
+            }
+        }
+        this.lastAccessTime = System.currentTimeMillis();
+        return buffer;
+    }
+
+    /**
+     * drop the mapping while nobody holds a reference besides the file itself,
+     * it's mapped again on the next access
+     *
+     * @return false if the file is in use or not mapped
+     */
+    public synchronized boolean unmap() {
+        MappedByteBuffer buffer = this.mappedByteBuffer;
+        if (null == buffer || !this.available || this.refCnt != 1) {
+            return false;
+        }
+        this.mappedByteBuffer = null;
+        //a reader retained it before seeing the null,keep the mapping for it
+        if (this.refCnt != 1) {
+            this.mappedByteBuffer = buffer;
+            return false;
+        }
+        MmapUtils.clean(buffer);
+        return true;
+    }
+
+    public boolean isMapped() {
+        return null != this.mappedByteBuffer;
+    }
+
+    public long getLastAccessTime() {
+        return this.lastAccessTime;
+    }
+
+    /**
+     * rename the file under the same dir,the mapping keeps valid
+     *
+     * @param newFileName the new full path
+     * @return false if fail
+     */
+    public boolean renameTo(String newFileName) {
+        File newFile = new File(newFileName);
+        if (!this.file.renameTo(newFile)) {
+            log.warn("fail to rename " + this.fileName + " to " + newFileName);
+            return false;
+        }
+        this.file = newFile;
+        this.fileName = newFileName;
+        return true;
+    }
+
+    /**
+     * touch every page of the mapping,so the later writes won't page fault
+     */
+    public void warmup() {
+        for (int i = 0; i < this.fileSize; i += this.osPageSize) {
+            this.mapped().put(i, (byte) 0);
+        }
+    }
+
     public String getFileName() {
         return fileName;
     }
@@ -121,7 +196,7 @@ public class DefaultMMapFile extends ShutdownableReferenceCountedResource implem
         return (Long) autoReleaseTemplate(x -> {
             int currentWrotePos = this.getWrotePosition();
             if (currentWrotePos + length <= this.getFileSize()) {
-                ByteBuffer byteBuffer = this.mappedByteBuffer.slice();
+                ByteBuffer byteBuffer = this.mapped().slice();
                 byteBuffer.position(currentWrotePos);
                 byteBuffer.put(data, (int) offset, length);
                 this.wrotePos.addAndGet(length);
@@ -133,6 +208,48 @@ public class DefaultMMapFile extends ShutdownableReferenceCountedResource implem
         });
     }
 
+    /**
+     * hand out a writable slice of the mapped region from the wrote position,the caller encodes into it directly
+     * and then calls commit,the wrote position won't move until commit,so there must be only one writer at a time.
+     * the slice holds a reference of this file which is released by commit
+     *
+     * @param length the size of the writable slice
+     * @return null if there is not enough space left in this file
+     */
+    @Override
+    public SlicedByteBuffer reserve(int length) {
+        int currentWrotePos = this.getWrotePosition();
+        if (currentWrotePos + length > this.getFileSize()) {
+            return null;
+        }
+        this.retain();
+        ByteBuffer byteBuffer = this.mapped().slice();
+        byteBuffer.position(currentWrotePos);
+        byteBuffer.limit(currentWrotePos + length);
+        return SlicedByteBuffer.builder()
+                .belongFile(this)
+                .filePos(currentWrotePos)
+                .byteBuffer(byteBuffer.slice())
+                .gobalPos(this.getFileFromOffset() + currentWrotePos)
+                .size(length).
+                        build();
+    }
+
+    @Override
+    public long commit(SlicedByteBuffer reserved, int length) {
+        try {
+            if (reserved.getFilePos() != this.getWrotePosition() || length > reserved.getSize()) {
+                log.warn("the reserved slice has expired,filePos=" + reserved.getFilePos() + " wrotePos=" + this.getWrotePosition());
+                return -1;
+            }
+            this.wrotePos.addAndGet(length);
+            this.limit.addAndGet(length);
+            return reserved.getFilePos();
+        } finally {
+            reserved.release();
+        }
+    }
+
     public long getFileFromOffset() {
         return this.fileFromOffset;
     }
@@ -141,8 +258,11 @@ public class DefaultMMapFile extends ShutdownableReferenceCountedResource implem
         return (int) autoReleaseTemplate(x -> {
             if (this.isAvailable()) {
                 if (this.isAbleToFlush(flushLeastPages)) {
-                    this.getMappedByteBuffer().force();
-                    this.flushedPos.set(this.getWrotePosition());
+                    int flushedPos = this.getFlushedPosition();
+                    int writePos = this.getWrotePosition();
+                    //only the pages written since the last flush
+                    MmapUtils.force(this.getMappedByteBuffer(), flushedPos, writePos - flushedPos);
+                    this.flushedPos.set(writePos);
                 }
             }
             return this.getFlushedPosition();
@@ -200,11 +320,11 @@ public class DefaultMMapFile extends ShutdownableReferenceCountedResource implem
 
 
     public MappedByteBuffer getMappedByteBuffer() {
-        return mappedByteBuffer;
+        return this.mapped();
     }
 
     public ByteBuffer sliceByteBuffer() {
-        return this.mappedByteBuffer.slice();
+        return this.mapped().slice();
     }
 
     public long getLastModifiedTimestamp() {
@@ -303,7 +423,7 @@ public class DefaultMMapFile extends ShutdownableReferenceCountedResource implem
         }
 
         return (Integer) this.autoReleaseTemplate(x -> {
-            if (null != this.mappedByteBuffer) {
+            if (this.available) {
                 ByteBuffer sliceByteBuffer = this.sliceByteBuffer(pos, size);
                 if (null == sliceByteBuffer) {
                     return -1;
@@ -324,7 +444,7 @@ public class DefaultMMapFile extends ShutdownableReferenceCountedResource implem
                     + ", limit: " + this.getWrotePosition());
             return null;
         }
-        ByteBuffer srcByteBuffer = this.mappedByteBuffer.slice();
+        ByteBuffer srcByteBuffer = this.mapped().slice();
         srcByteBuffer.position((int) pos);
         ByteBuffer newByteBuffer = srcByteBuffer.slice();
         newByteBuffer.limit(size);
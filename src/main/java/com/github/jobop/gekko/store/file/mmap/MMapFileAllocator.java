@@ -0,0 +1,129 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.jobop.gekko.store.file.mmap;
+
+import com.github.jobop.gekko.utils.NotifyableThread;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * create and map the next files of an AutoRollMMapFile in the background,the prepared files are named
+ * {fromOffset}.alloc and are renamed to the final name when taken,so a crash never leaves a blank data file behind
+ */
+@Slf4j
+public class MMapFileAllocator extends NotifyableThread {
+    public static final String PREPARED_FILE_SUFFIX = ".alloc";
+    private final String storePath;
+    private final int fileSize;
+    private final int osPageSize;
+    private final int preAllocateCount;
+    private final boolean warmMappedFile;
+    //return the fromOffset of the next file to roll to,or -1 if unknown
+    private final LongSupplier nextFromOffsetSupplier;
+    private final Map<Long, DefaultMMapFile> preparedFiles = new ConcurrentHashMap<Long, DefaultMMapFile>();
+
+    public MMapFileAllocator(String storePath, int fileSize, int osPageSize, int preAllocateCount, boolean warmMappedFile, LongSupplier nextFromOffsetSupplier) {
+        super(1, TimeUnit.SECONDS, "mmap-file-allocator");
+        this.setDaemon(true);
+        this.storePath = storePath;
+        this.fileSize = fileSize;
+        this.osPageSize = osPageSize;
+        this.preAllocateCount = preAllocateCount;
+        this.warmMappedFile = warmMappedFile;
+        this.nextFromOffsetSupplier = nextFromOffsetSupplier;
+    }
+
+    @Override
+    public void doWork() {
+        long nextFromOffset = nextFromOffsetSupplier.getAsLong();
+        if (nextFromOffset < 0) {
+            return;
+        }
+        //the files behind the next offset will never be taken,such as the ones prepared before a trimAfter
+        Iterator<Map.Entry<Long, DefaultMMapFile>> it = preparedFiles.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, DefaultMMapFile> entry = it.next();
+            if (entry.getKey() < nextFromOffset) {
+                it.remove();
+                entry.getValue().destroy(1000);
+            }
+        }
+        for (int i = 0; i < preAllocateCount; i++) {
+            long fromOffset = nextFromOffset + (long) i * fileSize;
+            if (preparedFiles.containsKey(fromOffset)) {
+                continue;
+            }
+            DefaultMMapFile file = new DefaultMMapFile(storePath + File.separator + fromOffset + PREPARED_FILE_SUFFIX, fileSize, osPageSize);
+            if (warmMappedFile) {
+                file.warmup();
+            }
+            preparedFiles.put(fromOffset, file);
+        }
+    }
+
+    /**
+     * take the prepared file,and wake up the allocator to prepare the following one
+     *
+     * @param fromOffset    the fromOffset of the file
+     * @param finalFileName the full path the file will be renamed to
+     * @return null if the file has not been prepared yet
+     */
+    public DefaultMMapFile take(long fromOffset, String finalFileName) {
+        DefaultMMapFile file = preparedFiles.remove(fromOffset);
+        this.trigger();
+        if (null == file) {
+            return null;
+        }
+        if (!file.renameTo(finalFileName)) {
+            file.destroy(1000);
+            return null;
+        }
+        return file;
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        for (DefaultMMapFile file : preparedFiles.values()) {
+            file.destroy(1000);
+        }
+        preparedFiles.clear();
+    }
+
+    /**
+     * remove the prepared files left by the last run
+     */
+    public static void clearPreparedFiles(File storeDir) {
+        File[] files = storeDir.listFiles((dir, name) -> name.endsWith(PREPARED_FILE_SUFFIX));
+        if (null == files) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.delete()) {
+                log.warn("fail to delete the prepared file " + file.getPath());
+            }
+        }
+    }
+}
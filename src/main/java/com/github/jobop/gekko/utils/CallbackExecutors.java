@@ -0,0 +1,141 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jobop.gekko.utils;
+
+import com.github.jobop.gekko.core.config.GekkoConfig;
+import com.github.jobop.gekko.core.lifecycle.LifeCycleAdpter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * the executors the rpc callbacks of a node run on,they are created once,named,bounded and shut down with the node.
+ * the callbacks of one peer's replication run one by one in the order they come,the election callbacks share a small pool,
+ * and the pushes from the leader are handled one by one on a follower
+ */
+@Slf4j
+public class CallbackExecutors extends LifeCycleAdpter {
+    private static final String ELECTION_EXECUTOR_NAME = "election-callback";
+    private static final String PUSH_ENTRIES_EXECUTOR_NAME = "push-entries";
+    private GekkoConfig conf;
+    private final Map<String, BoundedExecutor> executors = new ConcurrentHashMap<String, BoundedExecutor>();
+
+    public CallbackExecutors(GekkoConfig conf) {
+        this.conf = conf;
+    }
+
+    @Override
+    public void shutdown() {
+        executors.values().forEach(e -> e.shutdown());
+    }
+
+    //a single thread executor per peer,the same one for the same peer
+    public Executor serialExecutorOf(String peerId) {
+        return executors.computeIfAbsent("replicator-callback-" + peerId, name -> new BoundedExecutor(name, 1, conf.getCallbackQueueCapacity()));
+    }
+
+    public Executor getElectionExecutor() {
+        return executors.computeIfAbsent(ELECTION_EXECUTOR_NAME, name -> new BoundedExecutor(name, conf.getElectionCallbackThreads(), conf.getCallbackQueueCapacity()));
+    }
+
+    //the leader pipelines its batches,they must be appended one by one in the order they come
+    public Executor getPushEntriesExecutor() {
+        return executors.computeIfAbsent(PUSH_ENTRIES_EXECUTOR_NAME, name -> new BoundedExecutor(name, 1, conf.getCallbackQueueCapacity()));
+    }
+
+    /**
+     * @return the callbacks waiting in the queue of each executor
+     */
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new LinkedHashMap<String, Integer>();
+        executors.forEach((name, e) -> depths.put(name, e.getQueue().size()));
+        return depths;
+    }
+
+    /**
+     * @return the most callbacks ever waiting in the queue of each executor
+     */
+    public Map<String, Integer> getPeakQueueDepths() {
+        Map<String, Integer> depths = new LinkedHashMap<String, Integer>();
+        executors.forEach((name, e) -> depths.put(name, e.peakQueueDepth.get()));
+        return depths;
+    }
+
+    /**
+     * @return the callbacks dropped because the queue of each executor was full
+     */
+    public Map<String, Long> getDroppedCounts() {
+        Map<String, Long> counts = new LinkedHashMap<String, Long>();
+        executors.forEach((name, e) -> counts.put(name, e.dropped.get()));
+        return counts;
+    }
+
+    @Override
+    public String toString() {
+        return "CallbackExecutors{queueDepths=" + getQueueDepths() + ",peakQueueDepths=" + getPeakQueueDepths() + ",droppedCounts=" + getDroppedCounts() + "}";
+    }
+
+    /**
+     * a full queue drops the callback instead of running it on the io thread,which would block the io thread
+     * and break the order of a serial executor.a dropped response is the same as a lost one,
+     * the replicator resends the batch once it times out or probes again,and the election times out
+     */
+    static class BoundedExecutor extends ThreadPoolExecutor {
+        private final AtomicInteger peakQueueDepth = new AtomicInteger(0);
+        private final AtomicLong dropped;
+
+        BoundedExecutor(String name, int threads, int queueCapacity) {
+            this(name, threads, queueCapacity, new AtomicLong(0));
+        }
+
+        private BoundedExecutor(String name, int threads, int queueCapacity, AtomicLong dropped) {
+            super(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+                private final AtomicInteger index = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, threads == 1 ? name : name + "-" + index.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            }, (r, executor) -> {
+                if (!executor.isShutdown()) {
+                    dropped.incrementAndGet();
+                    log.warn("the callback queue of " + name + " is full,drop the callback!");
+                }
+            });
+            this.dropped = dropped;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            super.execute(command);
+            int depth = getQueue().size();
+            for (; ; ) {
+                int peak = peakQueueDepth.get();
+                if (depth <= peak || peakQueueDepth.compareAndSet(peak, depth)) {
+                    break;
+                }
+            }
+        }
+    }
+}
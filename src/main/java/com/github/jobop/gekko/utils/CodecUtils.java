@@ -30,17 +30,22 @@ import java.util.List;
 public class CodecUtils {
     public static void encodeData(GekkoEntry entry, ByteBuffer bb) {
         bb.clear();
-        int bodySize = bb.array().length;
-        bb.putInt(entry.getMagic());
+        putData(entry, bb);
+        bb.flip();
+
+    }
 
+    /**
+     * append the entry to the bb from its current position,without clear or flip,so that many entries can be put in one run
+     */
+    public static void putData(GekkoEntry entry, ByteBuffer bb) {
+        bb.putInt(entry.getMagic());
         bb.putInt(entry.getTotalSize());//totalsize
         bb.putLong(entry.getTerm());
         bb.putLong(entry.getEntryIndex());
         bb.putLong(entry.getPos());
         bb.putLong(entry.getChecksum());
         bb.put(entry.getData());
-        bb.flip();
-
     }
 
 //    public static List<GekkoEntry> decodeToList(List<SlicedByteBuffer> slicedByteBuffers) {
@@ -83,6 +88,11 @@ public class CodecUtils {
         return entry;
     }
 
+    //read the term of the entry which starts at the position of bb,without moving the position
+    public static long decodeTerm(ByteBuffer bb) {
+        return bb.getLong(bb.position() + 4 + 4);
+    }
+
 
     public static void encodeIndex(GekkoIndex index, ByteBuffer bb) {
         bb.clear();
@@ -94,6 +104,17 @@ public class CodecUtils {
         bb.flip();
     }
 
+    /**
+     * append an index record to the bb from its current position
+     */
+    public static void putIndex(long dataPos, long dataIndex, int dataSize, ByteBuffer bb) {
+        bb.putInt(GekkoIndex.MAGIC);
+        bb.putInt(GekkoIndex.INDEX_SIZE);
+        bb.putLong(dataPos);
+        bb.putLong(dataIndex);
+        bb.putInt(dataSize);
+    }
+
 
     public static GekkoIndex decodeIndex(ByteBuffer bb) {
         int magic = bb.getInt();//magic
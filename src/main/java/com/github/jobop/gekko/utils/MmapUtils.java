@@ -18,14 +18,49 @@
  */
 package com.github.jobop.gekko.utils;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 
 
 public class MmapUtils {
+    //MappedByteBuffer.force(int,int) is only there since jdk13
+    private static final MethodHandle FORCE_RANGE = lookupForceRange();
 
+    private static MethodHandle lookupForceRange() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(MappedByteBuffer.class, "force",
+                    MethodType.methodType(MappedByteBuffer.class, int.class, int.class));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * force the given range of the mapping,the whole mapping is forced when the jdk can not force a range.
+     * which one is used is decided once by the lookup,a failure of the force itself is thrown to the caller
+     */
+    public static void force(MappedByteBuffer buffer, int index, int length) {
+        if (length <= 0) {
+            return;
+        }
+        if (null == FORCE_RANGE) {
+            buffer.force();
+            return;
+        }
+        try {
+            MappedByteBuffer ignore = (MappedByteBuffer) FORCE_RANGE.invokeExact(buffer, index, length);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
 
     public static void clean(final ByteBuffer buffer) {
         if (buffer == null || !buffer.isDirect() || buffer.capacity() == 0)
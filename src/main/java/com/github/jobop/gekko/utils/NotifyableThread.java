@@ -22,37 +22,36 @@ package com.github.jobop.gekko.utils;
 
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.concurrent.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * provide a thread which can dowork in interval second,and can trigger the job immediately when the trigger method called
  */
 @Slf4j
 public abstract class NotifyableThread extends Thread {
-    private CyclicBarrier cb = new CyclicBarrier(2);
     private int interval;
     private TimeUnit timeUnit;
     private volatile AtomicBoolean shutdowned = new AtomicBoolean(false);
     /**
-     * 1、avoid to hasNotify more then twice
+     * 1、set by trigger and cleared before the next dowork,so a trigger while dowork is running makes it run once more instead of being lost
      * 2、when the dowork method run too long ，and the shutdown method has trigger，it can return immediately without waiting
      */
     protected volatile AtomicBoolean hasNotified = new AtomicBoolean(false);
     private CountDownLatch latch = new CountDownLatch(1);
 
     public void trigger() {
+        //the permit of unpark is kept if the thread is not parked yet,so it never sleeps through the flag
         if (hasNotified.compareAndSet(false, true)) {
-            try {
-                cb.await(0, timeUnit);
-            } catch (Exception e) {
-            }
+            LockSupport.unpark(this);
         }
     }
 
     public void shutdown() {
         if (shutdowned.compareAndSet(false, true)) {
-            this.trigger();
+            LockSupport.unpark(this);
             //wait for awhile
             try {
                 latch.await(10, TimeUnit.SECONDS);
@@ -84,17 +83,16 @@ public abstract class NotifyableThread extends Thread {
     }
 
     public void waiting() {
-        if (hasNotified.compareAndSet(true, false)) {
-            return;
-        }
-        try {
-            cb.reset();//2
-            cb.await(this.interval, timeUnit);//1
-        } catch (Exception e) {
-        } finally {
-            hasNotified.set(false);
+        long deadline = System.nanoTime() + timeUnit.toNanos(interval);
+        long left;
+        while (!hasNotified.get() && !shutdowned.get() && (left = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, left);
+            if (Thread.interrupted()) {
+                break;
+            }
         }
-
+        //cleared before the dowork,the triggers from now on are seen by the next waiting
+        hasNotified.set(false);
     }
 
     public abstract void doWork();
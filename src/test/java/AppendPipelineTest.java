@@ -0,0 +1,285 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.github.jobop.gekko.core.config.GekkoConfig;
+import com.github.jobop.gekko.core.metadata.NodeState;
+import com.github.jobop.gekko.core.replication.AppendPipeline;
+import com.github.jobop.gekko.core.replication.EntriesSynchronizer;
+import com.github.jobop.gekko.core.statemachine.NoopStateMachine;
+import com.github.jobop.gekko.core.statemachine.StateMachineApplier;
+import com.github.jobop.gekko.core.exception.GekkoException;
+import com.github.jobop.gekko.enums.AckModeEnum;
+import com.github.jobop.gekko.enums.ResultEnums;
+import com.github.jobop.gekko.enums.RoleEnum;
+import com.github.jobop.gekko.enums.StoreEnums;
+import com.github.jobop.gekko.protocols.message.GekkoEntry;
+import com.github.jobop.gekko.store.MemoryStore;
+import com.github.jobop.gekko.store.Store;
+import com.github.jobop.gekko.utils.CallbackExecutors;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class AppendPipelineTest extends BaseTest {
+    private byte[] bytes = "1sdfasdfasdfasdfasdfasdfasdfadf54545fasdfasdfasdfasdfasdfasdf".getBytes();
+
+    @Test
+    public void testConcurrentAppends() throws Exception {
+        String path = "/Users/zhengwei/Desktop/appendpipeline";
+        paths.add(path);
+        //a single node commits an entry as soon as it's stored
+        GekkoConfig conf = GekkoConfig.builder().baseFilePath(path).group("group1").selfId("1").leaderId("1")
+                .peer("127.0.0.1:8080").peerId("1").peerApiPort(8081)
+                .storeType(StoreEnums.MEMORY).snapshotThreshold(100000).memorySlabSize(64 * 1024)
+                .appendAckMode(AckModeEnum.APPLIED).appendRingBufferSize(64).appendCoalesceMaxCount(100).build();
+        NodeState nodeState = new NodeState(conf);
+        nodeState.init();
+        Store store = new MemoryStore(conf, nodeState);
+        store.init();
+        store.start();
+        StateMachineApplier applier = new StateMachineApplier(conf, nodeState, store, new NoopStateMachine());
+        applier.init();
+        applier.start();
+        EntriesSynchronizer synchronizer = new EntriesSynchronizer(conf, null, nodeState, store, null, applier, new CallbackExecutors(conf));
+        synchronizer.init();
+        synchronizer.triggerProbes();
+        nodeState.setRole(RoleEnum.LEADER);
+        AppendPipeline pipeline = new AppendPipeline(conf, store, synchronizer, applier);
+        pipeline.init();
+        pipeline.start();
+
+        int threads = 8;
+        int perThread = 500;
+        CountDownLatch latch = new CountDownLatch(threads * perThread);
+        AtomicInteger stored = new AtomicInteger(0);
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                for (int j = 0; j < perThread; j++) {
+                    //every tenth append is a batch of 10
+                    List<GekkoEntry> entries = new ArrayList<GekkoEntry>();
+                    int count = j % 10 == 0 ? 10 : 1;
+                    for (int k = 0; k < count; k++) {
+                        entries.add(GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build());
+                    }
+                    pipeline.publish(entries, (n, result) -> {
+                        if (result == ResultEnums.SUCCESS) {
+                            stored.addAndGet(n);
+                        }
+                        latch.countDown();
+                    });
+                }
+            }).start();
+        }
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        long total = threads * (perThread + perThread / 10 * 9);
+        Assert.assertEquals(total, stored.get());
+        Assert.assertEquals(total, nodeState.getWriteId());
+        Assert.assertEquals(total, nodeState.getCommitId());
+        Assert.assertEquals(total, nodeState.getLastApplied());
+
+        //written but unknown once this node is not the leader
+        synchronizer.stopProbes();
+        nodeState.setRole(RoleEnum.FOLLOWER);
+        CountDownLatch notLeader = new CountDownLatch(1);
+        AtomicReference<ResultEnums> resultAfter = new AtomicReference<ResultEnums>();
+        pipeline.publish(Collections.singletonList(GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build()), (n, result) -> {
+            resultAfter.set(result);
+            notLeader.countDown();
+        });
+        Assert.assertTrue(notLeader.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(ResultEnums.APPEND_UNKNOWN, resultAfter.get());
+
+        pipeline.shutdown();
+        applier.shutdown();
+        store.shutdown();
+    }
+
+    @Test
+    public void testFlushTimeoutIsUnknown() throws Exception {
+        String path = "/Users/zhengwei/Desktop/appendpipelineflush";
+        paths.add(path);
+        GekkoConfig conf = GekkoConfig.builder().baseFilePath(path).group("group1").selfId("1").leaderId("1")
+                .peer("127.0.0.1:8080").peerId("1").peerApiPort(8081)
+                .storeType(StoreEnums.MEMORY).snapshotThreshold(100000).memorySlabSize(64 * 1024).build();
+        NodeState nodeState = new NodeState(conf);
+        nodeState.init();
+        //the entries are written but never known to be forced
+        Store store = new MemoryStore(conf, nodeState) {
+            @Override
+            public void waitForFlush(List<GekkoEntry> entries) {
+                throw new GekkoException(ResultEnums.FLUSH_TIMEOUT);
+            }
+        };
+        store.init();
+        store.start();
+        StateMachineApplier applier = new StateMachineApplier(conf, nodeState, store, new NoopStateMachine());
+        applier.init();
+        applier.start();
+        EntriesSynchronizer synchronizer = new EntriesSynchronizer(conf, null, nodeState, store, null, applier, new CallbackExecutors(conf));
+        synchronizer.init();
+        synchronizer.triggerProbes();
+        nodeState.setRole(RoleEnum.LEADER);
+        AppendPipeline pipeline = new AppendPipeline(conf, store, synchronizer, applier);
+        pipeline.init();
+        pipeline.start();
+
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicInteger stored = new AtomicInteger(-1);
+        AtomicReference<ResultEnums> result = new AtomicReference<ResultEnums>();
+        List<GekkoEntry> entries = new ArrayList<GekkoEntry>();
+        entries.add(GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build());
+        entries.add(GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build());
+        pipeline.publish(entries, (n, r) -> {
+            stored.set(n);
+            result.set(r);
+            latch.countDown();
+        });
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, stored.get());
+        Assert.assertEquals(ResultEnums.APPEND_UNKNOWN, result.get());
+        Assert.assertEquals(2, nodeState.getWriteId());
+
+        pipeline.shutdown();
+        synchronizer.shutdown();
+        applier.shutdown();
+        store.shutdown();
+    }
+
+    @Test
+    public void testStoreErrorIsNotAppendedAgain() throws Exception {
+        String path = "/Users/zhengwei/Desktop/appendpipelineerror";
+        paths.add(path);
+        GekkoConfig conf = GekkoConfig.builder().baseFilePath(path).group("group1").selfId("1").leaderId("1")
+                .peer("127.0.0.1:8080").peerId("1").peerApiPort(8081)
+                .storeType(StoreEnums.MEMORY).snapshotThreshold(100000).memorySlabSize(64 * 1024).build();
+        NodeState nodeState = new NodeState(conf);
+        nodeState.init();
+        //the first batch is written and then the store throws something other than a GekkoException
+        AtomicInteger calls = new AtomicInteger(0);
+        Store store = new MemoryStore(conf, nodeState) {
+            @Override
+            public void appendBatchNoFlushWait(List<GekkoEntry> entries) {
+                super.appendBatchNoFlushWait(entries);
+                if (calls.getAndIncrement() == 0) {
+                    throw new IllegalStateException("fail after the write");
+                }
+            }
+        };
+        store.init();
+        store.start();
+        StateMachineApplier applier = new StateMachineApplier(conf, nodeState, store, new NoopStateMachine());
+        applier.init();
+        applier.start();
+        EntriesSynchronizer synchronizer = new EntriesSynchronizer(conf, null, nodeState, store, null, applier, new CallbackExecutors(conf));
+        synchronizer.init();
+        synchronizer.triggerProbes();
+        nodeState.setRole(RoleEnum.LEADER);
+        AppendPipeline pipeline = new AppendPipeline(conf, store, synchronizer, applier);
+        pipeline.init();
+        pipeline.start();
+
+        CountDownLatch first = new CountDownLatch(1);
+        AtomicInteger stored = new AtomicInteger(-1);
+        List<GekkoEntry> entries = new ArrayList<GekkoEntry>();
+        entries.add(GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build());
+        entries.add(GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build());
+        pipeline.publish(entries, (n, r) -> {
+            stored.set(n);
+            first.countDown();
+        });
+        Assert.assertTrue(first.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, stored.get());
+
+        //the entries of the failed batch are not carried into the next one
+        CountDownLatch second = new CountDownLatch(1);
+        pipeline.publish(Collections.singletonList(GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build()), (n, r) -> second.countDown());
+        Assert.assertTrue(second.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, nodeState.getWriteId());
+
+        pipeline.shutdown();
+        synchronizer.shutdown();
+        applier.shutdown();
+        store.shutdown();
+    }
+
+    @Test
+    public void testOversizedEntryFailsOnlyItsCaller() throws Exception {
+        String path = "/Users/zhengwei/Desktop/appendpipelineoversized";
+        paths.add(path);
+        GekkoConfig conf = GekkoConfig.builder().baseFilePath(path).group("group1").selfId("1").leaderId("1")
+                .peer("127.0.0.1:8080").peerId("1").peerApiPort(8081)
+                .storeType(StoreEnums.MEMORY).snapshotThreshold(100000).memorySlabSize(64 * 1024).build();
+        NodeState nodeState = new NodeState(conf);
+        nodeState.init();
+        Store store = new MemoryStore(conf, nodeState);
+        store.init();
+        store.start();
+        StateMachineApplier applier = new StateMachineApplier(conf, nodeState, store, new NoopStateMachine());
+        applier.init();
+        applier.start();
+        EntriesSynchronizer synchronizer = new EntriesSynchronizer(conf, null, nodeState, store, null, applier, new CallbackExecutors(conf));
+        synchronizer.init();
+        synchronizer.triggerProbes();
+        nodeState.setRole(RoleEnum.LEADER);
+        AppendPipeline pipeline = new AppendPipeline(conf, store, synchronizer, applier);
+        pipeline.init();
+        pipeline.start();
+
+        //no slab can hold the big one,the small ones of the other callers are still stored
+        CountDownLatch latch = new CountDownLatch(3);
+        AtomicReference<ResultEnums> bigResult = new AtomicReference<ResultEnums>();
+        AtomicInteger partialStored = new AtomicInteger(-1);
+        AtomicReference<ResultEnums> partialResult = new AtomicReference<ResultEnums>();
+        AtomicReference<ResultEnums> smallResult = new AtomicReference<ResultEnums>();
+        pipeline.publish(Collections.singletonList(GekkoEntry.builder().magic(0xCAFEDADD).data(new byte[100 * 1024]).build()), (n, r) -> {
+            bigResult.set(r);
+            latch.countDown();
+        });
+        List<GekkoEntry> mixed = new ArrayList<GekkoEntry>();
+        mixed.add(GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build());
+        mixed.add(GekkoEntry.builder().magic(0xCAFEDADD).data(new byte[100 * 1024]).build());
+        mixed.add(GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build());
+        pipeline.publish(mixed, (n, r) -> {
+            partialStored.set(n);
+            partialResult.set(r);
+            latch.countDown();
+        });
+        pipeline.publish(Collections.singletonList(GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build()), (n, r) -> {
+            smallResult.set(r);
+            latch.countDown();
+        });
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(ResultEnums.APPEND_FAIL, bigResult.get());
+        Assert.assertEquals(1, partialStored.get());
+        Assert.assertEquals(ResultEnums.APPEND_FAIL, partialResult.get());
+        Assert.assertEquals(ResultEnums.SUCCESS, smallResult.get());
+        Assert.assertEquals(2, nodeState.getWriteId());
+
+        pipeline.shutdown();
+        synchronizer.shutdown();
+        applier.shutdown();
+        store.shutdown();
+    }
+}
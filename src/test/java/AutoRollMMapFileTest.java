@@ -19,11 +19,16 @@
  */
 
 import com.github.jobop.gekko.store.file.mmap.AutoRollMMapFile;
+import com.github.jobop.gekko.store.file.mmap.SlicedByteBuffer;
 import com.github.jobop.gekko.store.file.SequenceFile;
+import com.github.jobop.gekko.utils.SlicedByteBufferUtils;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.experimental.theories.suppliers.TestedOn;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+
 public class AutoRollMMapFileTest extends BaseTest {
     @Test
     public void testNewAAutoRollMappFile() {
@@ -126,4 +131,185 @@ public class AutoRollMMapFileTest extends BaseTest {
         Assert.assertEquals(sourceStr, destStr);
 
     }
+
+    @Test
+    public void testPreAllocateRollStall() {
+        byte[] bytes = new byte[1024];
+        AutoRollMMapFile inlineFile = rollFiles("/Users/zhengwei/Desktop/inlinerollfiles", 0, bytes);
+        AutoRollMMapFile preAllocatedFile = rollFiles("/Users/zhengwei/Desktop/preallocrollfiles", 2, bytes);
+        System.out.println(inlineFile.getRollStallHistogram());
+        System.out.println(preAllocatedFile.getRollStallHistogram());
+        Assert.assertEquals(inlineFile.getRollStallHistogram().getCount(), preAllocatedFile.getRollStallHistogram().getCount());
+
+        //the pre-allocated files are renamed to the data file names,so they can be loaded again
+        AutoRollMMapFile reloadFile = new AutoRollMMapFile("/Users/zhengwei/Desktop/preallocrollfiles", 1024 * 1024, 1024 * 4);
+        reloadFile.load();
+        Assert.assertTrue(reloadFile.checksum());
+        Assert.assertEquals(0, new java.io.File("/Users/zhengwei/Desktop/preallocrollfiles").list((dir, name) -> name.endsWith(".alloc")).length);
+    }
+
+    private AutoRollMMapFile rollFiles(String dirPath, int preAllocateCount, byte[] bytes) {
+        this.paths.add(dirPath);
+        AutoRollMMapFile file = new AutoRollMMapFile(dirPath, 1024 * 1024, 1024 * 4, preAllocateCount, true);
+        file.load();
+        for (int i = 0; i < 200 * 1024; i++) {
+            file.appendMessage(bytes);
+            //give the allocator a chance to run ahead once a file is full
+            if (i % 1024 == 1023) {
+                Thread.yield();
+            }
+        }
+        file.shutdown();
+        return file;
+    }
+
+    @Test
+    public void testFlushDirtyFiles() {
+        String dirPath = "/Users/zhengwei/Desktop/dirtyfiles";
+        this.paths.add(dirPath);
+        AutoRollMMapFile file = new AutoRollMMapFile(dirPath, 1024 * 1024, 1024 * 4);
+        file.load();
+        byte[] bytes = new byte[1000];
+        //roll over 3 files without flush
+        for (int i = 0; i < 2500; i++) {
+            file.appendMessage(bytes);
+        }
+        Assert.assertEquals(3, file.getFlushLag().size());
+        Assert.assertTrue(file.getFlushLagBytes() >= 2500 * 1000);
+
+        file.flush(1);
+        Assert.assertTrue(file.getFlushLag().isEmpty());
+        Assert.assertEquals(0, file.getFlushLagBytes());
+
+        //the tail less than a page is kept for the next flush
+        file.appendMessage(bytes);
+        file.flush(1);
+        Assert.assertEquals(1000, file.getFlushLagBytes());
+        file.flush(0);
+        Assert.assertEquals(0, file.getFlushLagBytes());
+    }
+
+    @Test
+    public void testReserveLargerThanFile() {
+        String dirPath = "/Users/zhengwei/Desktop/oversizefiles";
+        this.paths.add(dirPath);
+        AutoRollMMapFile file = new AutoRollMMapFile(dirPath, 1024 * 1024, 1024 * 4);
+        file.load();
+        long first = file.appendMessage(new byte[1000]);
+        long rolls = file.getRollStallHistogram().getCount();
+        //refused before the current file is sealed
+        Assert.assertNull(file.reserve(1024 * 1024 + 1));
+        Assert.assertEquals(rolls, file.getRollStallHistogram().getCount());
+        Assert.assertEquals(first + 1000, file.appendMessage(new byte[1000]));
+        file.shutdown();
+    }
+
+    @Test
+    public void testCheckpointedRecover() {
+        String dirPath = "/Users/zhengwei/Desktop/checkpointfiles";
+        this.paths.add(dirPath);
+        AutoRollMMapFile file = new AutoRollMMapFile(dirPath, 1024 * 1024, 1024 * 4);
+        file.load();
+        //the recover scans the tail by the size after the magic
+        ByteBuffer bb = ByteBuffer.allocate(1000);
+        bb.putInt(0xCAFEDADD);
+        bb.putInt(1000);
+        byte[] bytes = bb.array();
+        long pos_100 = 0;
+        for (int i = 0; i < 5000; i++) {
+            long pos = file.appendMessage(bytes);
+            if (i == 100) {
+                pos_100 = pos;
+            }
+        }
+        Assert.assertEquals(-1, file.getVerifiedFromOffset());
+        file.flush(0);
+        //the last sealed file
+        Assert.assertEquals(3 * 1024 * 1024, file.getVerifiedFromOffset());
+
+        AutoRollMMapFile file2 = new AutoRollMMapFile(dirPath, 1024 * 1024, 1024 * 4);
+        file2.load();
+        Assert.assertEquals(3 * 1024 * 1024, file2.getVerifiedFromOffset());
+        Assert.assertEquals(file.getMaxOffset(), file2.getMaxOffset());
+        byte[] dest = new byte[bytes.length];
+        file2.getData(pos_100, dest.length, dest);
+        Assert.assertArrayEquals(bytes, dest);
+
+        //the files after the trimmed pos are not trusted any more
+        file2.trimAfter(2 * 1024 * 1024 + 1000);
+        Assert.assertEquals(1024 * 1024, file2.getVerifiedFromOffset());
+    }
+
+    @Test
+    public void testUnmapSealedFiles() {
+        String dirPath = "/Users/zhengwei/Desktop/unmapfiles";
+        this.paths.add(dirPath);
+        //keep 2 files mapped at most
+        AutoRollMMapFile file = new AutoRollMMapFile(dirPath, 1024 * 1024, 1024 * 4, 0, false, 2 * 1024 * 1024, 0);
+        file.load();
+        byte[] bytes = new byte[1000];
+        bytes[0] = 1;
+        long firstPos = file.appendMessage(bytes);
+        for (int i = 0; i < 5000; i++) {
+            file.appendMessage(new byte[1000]);
+        }
+        Assert.assertTrue(file.getMappedBytes() > 2 * 1024 * 1024);
+
+        //the files not flushed yet keep mapped
+        Assert.assertEquals(0, file.sweepMappings());
+        file.flush(0);
+        Assert.assertTrue(file.sweepMappings() > 0);
+        Assert.assertTrue(file.getMappedBytes() <= 2 * 1024 * 1024);
+
+        //mapped again on demand
+        byte[] dest = new byte[1000];
+        Assert.assertEquals(1000, file.getData(firstPos, 1000, dest));
+        Assert.assertEquals(1, dest[0]);
+
+        //a file with a slice in use is not unmapped
+        SlicedByteBuffer slicedByteBuffer = file.selectMappedBuffer(firstPos, 1000);
+        file.sweepMappings();
+        Assert.assertEquals(1, slicedByteBuffer.getByteBuffer().get(0));
+        slicedByteBuffer.release();
+        file.sweepMappings();
+        Assert.assertTrue(file.getMappedBytes() <= 2 * 1024 * 1024);
+        file.shutdown();
+    }
+
+    @Test
+    public void testLongOffsetAndTrimmedHead() {
+        String dirPath = "/Users/zhengwei/Desktop/longoffsetfiles";
+        this.paths.add(dirPath);
+        AutoRollMMapFile file = new AutoRollMMapFile(dirPath, 1024 * 1024, 1024 * 4);
+        file.load();
+        //start after 3G
+        long base = 3L * 1024 * 1024 * 1024 + 100;
+        file.resetTo(base);
+        long[] positions = new long[3000];
+        byte[] bytes = new byte[1000];
+        for (int i = 0; i < positions.length; i++) {
+            bytes[0] = (byte) i;
+            positions[i] = file.appendMessage(bytes);
+        }
+        Assert.assertEquals(base, positions[0]);
+        Assert.assertTrue(positions[2999] > base + 2 * 1024 * 1024);
+
+        byte[] dest = new byte[1000];
+        Assert.assertEquals(1000, file.getData(positions[1500], 1000, dest));
+        Assert.assertEquals((byte) 1500, dest[0]);
+        List<SlicedByteBuffer> buffers = file.selectMutilBufferToRead(positions[0], positions[2999] + 1000);
+        Assert.assertTrue(buffers.size() >= 3);
+        Assert.assertEquals((byte) 0, buffers.get(0).getByteBuffer().get(0));
+        SlicedByteBufferUtils.safeRelease(buffers);
+
+        //the head files are deleted,the lookup still finds the right file
+        file.trimBefore(positions[2000]);
+        Assert.assertTrue(file.getMinOffset() > base);
+        Assert.assertEquals(-1, file.getData(positions[0], 1000, dest));
+        for (int i = 2000; i < positions.length; i++) {
+            Assert.assertEquals(1000, file.getData(positions[i], 1000, dest));
+            Assert.assertEquals((byte) i, dest[0]);
+        }
+        file.shutdown();
+    }
 }
@@ -0,0 +1,107 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.github.jobop.gekko.core.config.GekkoConfig;
+import com.github.jobop.gekko.utils.CallbackExecutors;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class CallbackExecutorsTest {
+    @Test
+    public void testSerialAndQueueDepth() throws Exception {
+        CallbackExecutors executors = new CallbackExecutors(GekkoConfig.builder().callbackQueueCapacity(16).build());
+        Executor executor = executors.serialExecutorOf("2");
+        Assert.assertSame(executor, executors.serialExecutorOf("2"));
+        Assert.assertNotSame(executor, executors.serialExecutorOf("3"));
+
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(11);
+        List<Integer> order = new CopyOnWriteArrayList<Integer>();
+        executor.execute(() -> {
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+            }
+            done.countDown();
+        });
+        for (int i = 0; i < 10; i++) {
+            int n = i;
+            executor.execute(() -> {
+                order.add(n);
+                done.countDown();
+            });
+        }
+        Assert.assertEquals(Integer.valueOf(10), executors.getQueueDepths().get("replicator-callback-2"));
+        blocker.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(i, order.get(i).intValue());
+        }
+        Assert.assertEquals(Integer.valueOf(0), executors.getQueueDepths().get("replicator-callback-2"));
+        Assert.assertEquals(Integer.valueOf(10), executors.getPeakQueueDepths().get("replicator-callback-2"));
+
+        //the pool is shared by all the election callbacks
+        Assert.assertSame(executors.getElectionExecutor(), executors.getElectionExecutor());
+        Assert.assertSame(executors.getPushEntriesExecutor(), executors.getPushEntriesExecutor());
+        executors.shutdown();
+        Assert.assertTrue(((ExecutorService) executors.getPushEntriesExecutor()).isShutdown());
+    }
+
+    @Test
+    public void testFullQueueDrops() throws Exception {
+        CallbackExecutors executors = new CallbackExecutors(GekkoConfig.builder().callbackQueueCapacity(2).build());
+        Executor executor = executors.serialExecutorOf("2");
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+            }
+        });
+        started.await();
+
+        //two fit in the queue,the rest are dropped and never run on the calling thread
+        List<String> ranOn = new CopyOnWriteArrayList<String>();
+        for (int i = 0; i < 5; i++) {
+            executor.execute(() -> ranOn.add(Thread.currentThread().getName()));
+        }
+        Assert.assertTrue(ranOn.isEmpty());
+        Assert.assertEquals(Long.valueOf(3), executors.getDroppedCounts().get("replicator-callback-2"));
+
+        blocker.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ranOn.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        Assert.assertEquals(2, ranOn.size());
+        for (String name : ranOn) {
+            Assert.assertEquals("replicator-callback-2", name);
+        }
+        executors.shutdown();
+    }
+}
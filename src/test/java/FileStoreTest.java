@@ -20,14 +20,24 @@
 
 import com.github.jobop.gekko.core.config.GekkoConfig;
 import com.github.jobop.gekko.core.metadata.NodeState;
+import com.github.jobop.gekko.enums.FlushModeEnum;
 import com.github.jobop.gekko.enums.StoreEnums;
 import com.github.jobop.gekko.protocols.message.GekkoEntry;
+import com.github.jobop.gekko.protocols.message.GekkoEntryView;
 import com.github.jobop.gekko.store.FileStore;
+import com.github.jobop.gekko.store.LogCursor;
+import com.github.jobop.gekko.store.MemoryStore;
 import com.github.jobop.gekko.store.Store;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class FileStoreTest extends BaseTest {
     @Test
@@ -330,4 +340,373 @@ public class FileStoreTest extends BaseTest {
 
     }
 
+    @Test
+    public void testAppendBatchConcurrently() throws InterruptedException {
+        String dirPath = "/Users/zhengwei/Desktop/batchfiles";
+        this.paths.add(dirPath);
+        GekkoConfig conf = GekkoConfig.builder().baseFilePath(dirPath).selfId("1").leaderId("1").storeType(StoreEnums.FILE).flushInterval(1).storeFileSize(1024 * 1024).indexCountPerFile(1000).osPageSize(1024 * 4).build();
+
+        NodeState nodeState = new NodeState(conf);
+        nodeState.init();
+        Store store = new FileStore(conf, nodeState);
+        store.init();
+        store.start();
+        byte[] bytes = "1sdfasdfasdfasdfasdfasdfasdfadf54545fasdfasdfasdfasdfasdfasdfadfa53345dfasdfasdfasdfasdfasdfasdfad9081nvsdfasdfasdfasdfasdf".getBytes();
+
+        int threadCount = 4;
+        int batchCount = 50;
+        int batchSize = 50;
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            threads[t] = new Thread(() -> {
+                for (int b = 0; b < batchCount; b++) {
+                    List<GekkoEntry> batch = new ArrayList<GekkoEntry>();
+                    for (int i = 0; i < batchSize; i++) {
+                        batch.add(GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build());
+                    }
+                    store.appendBatch(batch);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        int total = threadCount * batchCount * batchSize;
+        Assert.assertEquals(total, store.getMaxIndex());
+        Assert.assertEquals(total, nodeState.getWriteId());
+
+        List<GekkoEntry> entries = store.batchGetByIndex(1, total + 1);
+        Assert.assertEquals(total, entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            GekkoEntry e = entries.get(i);
+            Assert.assertTrue(e.isIntact());
+            Assert.assertEquals(i + 1, e.getEntryIndex());
+            Assert.assertEquals(e.getChecksum(), store.getByIndex(i + 1).getChecksum());
+        }
+        Assert.assertEquals(entries.get(total - 1).getChecksum(), nodeState.getLastChecksum());
+        Assert.assertEquals(entries.get(total - 2).getChecksum(), nodeState.getPreChecksum());
+    }
+
+    @Test
+    public void testIndexCache() {
+        String dirPath = "/Users/zhengwei/Desktop/indexcachefiles";
+        this.paths.add(dirPath);
+        GekkoConfig conf = GekkoConfig.builder().baseFilePath(dirPath).selfId("1").leaderId("1").storeType(StoreEnums.FILE).flushInterval(1).storeFileSize(1024 * 1024).indexCountPerFile(10000).indexCacheSegmentCount(1).osPageSize(1024 * 4).build();
+
+        NodeState nodeState = new NodeState(conf);
+        nodeState.init();
+        FileStore store = new FileStore(conf, nodeState);
+        store.init();
+        store.start();
+        byte[] bytes = "indexcache".getBytes();
+        int total = 70000;
+        for (int i = 0; i < total; i++) {
+            nodeState.getTermAtomic().set(i / 1000);
+            store.append(GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build());
+        }
+
+        //the first segment has been evicted,the lookups fall back to the index file
+        for (long i : new long[]{1, 65535, 65536, total}) {
+            GekkoEntry e = store.getByIndex(i);
+            Assert.assertTrue(e.isIntact());
+            Assert.assertEquals(i, e.getEntryIndex());
+            Assert.assertEquals((i - 1) / 1000, store.getTermByIndex(i));
+        }
+        Assert.assertEquals(total - 1, store.batchGetByIndex(2, total + 1).size());
+
+        //the tail is loaded into the cache again
+        NodeState state = new NodeState(conf);
+        state.setLeaderId("1");
+        state.setSelfId("1");
+        FileStore store2 = new FileStore(conf, state);
+        store2.init();
+        Assert.assertEquals(total, store2.getMaxIndex());
+        Assert.assertEquals((total - 1) / 1000, store2.getTermByIndex(total));
+        Assert.assertEquals(total, store2.getByIndex(total).getEntryIndex());
+
+        store.trimAfter(total - 10);
+        Assert.assertNull(store.getByIndex(total - 9));
+        store.append(GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build());
+        Assert.assertEquals(total - 9, store.getByIndex(total - 9).getEntryIndex());
+    }
+
+    @Test
+    public void testIndexCacheReadWhileRolling() throws Exception {
+        String dirPath = "/Users/zhengwei/Desktop/indexcacherollfiles";
+        this.paths.add(dirPath);
+        GekkoConfig conf = GekkoConfig.builder().baseFilePath(dirPath).selfId("1").leaderId("1").storeType(StoreEnums.FILE).flushInterval(1).storeFileSize(1024 * 1024).indexCountPerFile(10000).indexCacheSegmentCount(1).osPageSize(1024 * 4).build();
+
+        NodeState nodeState = new NodeState(conf);
+        nodeState.init();
+        FileStore store = new FileStore(conf, nodeState);
+        store.init();
+        store.start();
+        byte[] bytes = "indexcache".getBytes();
+        int total = 140000;
+        //the entries of one cache segment
+        int segmentEntries = 1 << 16;
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicLong mismatch = new AtomicLong(-1);
+        //the reader keeps hitting the indexes just behind the segment being reused
+        Thread reader = new Thread(() -> {
+            Random random = new Random();
+            while (writing.get()) {
+                long max = store.getMaxIndex();
+                if (max <= segmentEntries) {
+                    continue;
+                }
+                long i = max - segmentEntries + 1 + random.nextInt(64);
+                long term = store.getTermByIndex(i);
+                if (term != (i - 1) / 1000) {
+                    mismatch.set(i);
+                }
+                if (i % 7 == 0) {
+                    store.trimBefore(i - 1000);
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < total; i++) {
+            nodeState.getTermAtomic().set(i / 1000);
+            store.append(GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build());
+        }
+        writing.set(false);
+        reader.join();
+        Assert.assertEquals(-1, mismatch.get());
+        Assert.assertEquals(total, store.getByIndex(total).getEntryIndex());
+        Assert.assertEquals((total - 1) / 1000, store.getTermByIndex(total));
+        store.shutdown();
+    }
+
+    @Test
+    public void testAppendBatchStopsAtNoSpace() {
+        String dirPath = "/Users/zhengwei/Desktop/nospacefiles";
+        this.paths.add(dirPath);
+        GekkoConfig conf = GekkoConfig.builder().baseFilePath(dirPath).selfId("1").leaderId("1").storeType(StoreEnums.FILE).flushInterval(1).storeFileSize(1024 * 1024).indexCountPerFile(10000).osPageSize(1024 * 4).build();
+
+        NodeState nodeState = new NodeState(conf);
+        nodeState.init();
+        FileStore store = new FileStore(conf, nodeState);
+        store.init();
+        store.start();
+        byte[] bytes = "nospace".getBytes();
+        //no file can hold the second one,so neither it nor the ones after it are stored
+        List<GekkoEntry> entries = new ArrayList<GekkoEntry>();
+        entries.add(GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build());
+        entries.add(GekkoEntry.builder().magic(0xCAFEDADD).data(new byte[2 * 1024 * 1024]).build());
+        entries.add(GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build());
+        store.appendBatch(entries);
+        Assert.assertNotEquals(-1, entries.get(0).getPos());
+        Assert.assertEquals(-1, entries.get(1).getPos());
+        Assert.assertEquals(-1, entries.get(2).getPos());
+        Assert.assertEquals(1, nodeState.getWriteId());
+        Assert.assertEquals(1, store.getMaxIndex());
+        Assert.assertEquals(entries.get(0).getChecksum(), nodeState.getLastChecksum());
+
+        //the next append follows the stored one
+        GekkoEntry next = GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build();
+        store.append(next);
+        Assert.assertEquals(2, next.getEntryIndex());
+        Assert.assertEquals(2, store.getByIndex(2).getEntryIndex());
+        Assert.assertTrue(store.getByIndex(2).isIntact());
+        store.shutdown();
+    }
+
+    @Test
+    public void testScanByIndex() {
+        String dirPath = "/Users/zhengwei/Desktop/scanfiles";
+        this.paths.add(dirPath);
+        GekkoConfig conf = GekkoConfig.builder().baseFilePath(dirPath).selfId("1").leaderId("1").storeType(StoreEnums.FILE).flushInterval(1).storeFileSize(1024 * 1024).indexCountPerFile(1000).osPageSize(1024 * 4).build();
+
+        NodeState nodeState = new NodeState(conf);
+        nodeState.init();
+        Store store = new FileStore(conf, nodeState);
+        store.init();
+        store.start();
+        byte[] bytes = new byte[1000];
+        for (int i = 0; i < 3000; i++) {
+            bytes[0] = (byte) i;
+            store.append(GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build());
+        }
+
+        //cross the files
+        List<GekkoEntryView> pinned = new ArrayList<GekkoEntryView>();
+        long[] expectIndex = {10};
+        store.scanByIndex(10, 2500, view -> {
+            Assert.assertEquals(expectIndex[0]++, view.getEntryIndex());
+            Assert.assertTrue(view.isIntact());
+            Assert.assertEquals(1000, view.data().remaining());
+            Assert.assertEquals((byte) (view.getEntryIndex() - 1), view.data().get(0));
+            if (view.getEntryIndex() % 1000 == 0) {
+                pinned.add(view.retain());
+            }
+            return true;
+        });
+        Assert.assertEquals(2500, expectIndex[0]);
+
+        //the retained views are still readable after the scan
+        Assert.assertEquals(2, pinned.size());
+        for (GekkoEntryView view : pinned) {
+            GekkoEntry entry = view.toEntry();
+            Assert.assertTrue(entry.isIntact());
+            Assert.assertEquals(store.getByIndex(entry.getEntryIndex()).getChecksum(), entry.getChecksum());
+            view.release();
+        }
+
+        //stop early and scan to the end
+        int[] count = {0};
+        store.scanByIndex(2990, -1, view -> ++count[0] < 5);
+        Assert.assertEquals(5, count[0]);
+        count[0] = 0;
+        store.scanByIndex(2990, -1, view -> ++count[0] > 0);
+        Assert.assertEquals(11, count[0]);
+    }
+
+    @Test
+    public void testCursor() {
+        String dirPath = "/Users/zhengwei/Desktop/cursorfiles";
+        this.paths.add(dirPath);
+        GekkoConfig conf = GekkoConfig.builder().baseFilePath(dirPath).selfId("1").leaderId("1").storeType(StoreEnums.FILE).flushInterval(1).storeFileSize(1024 * 1024).indexCountPerFile(1000).osPageSize(1024 * 4).cursorReadAheadBytes(64 * 1024).build();
+
+        NodeState nodeState = new NodeState(conf);
+        nodeState.init();
+        Store store = new FileStore(conf, nodeState);
+        store.init();
+        store.start();
+        byte[] bytes = new byte[1000];
+        for (int i = 0; i < 3000; i++) {
+            bytes[0] = (byte) i;
+            store.append(GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build());
+        }
+
+        //cross the files and stop at the tail
+        LogCursor cursor = store.openCursor(1);
+        GekkoEntry entry;
+        long expectIndex = 1;
+        while ((entry = cursor.next()) != null) {
+            Assert.assertEquals(expectIndex++, entry.getEntryIndex());
+            Assert.assertTrue(entry.isIntact());
+            Assert.assertEquals((byte) (entry.getEntryIndex() - 1), entry.getData()[0]);
+        }
+        Assert.assertEquals(3001, expectIndex);
+        Assert.assertEquals(3001, cursor.getNextIndex());
+
+        //a tail cursor picks up the entries appended later
+        for (int i = 3000; i < 3010; i++) {
+            bytes[0] = (byte) i;
+            store.append(GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build());
+        }
+        while ((entry = cursor.next()) != null) {
+            Assert.assertEquals(expectIndex++, entry.getEntryIndex());
+        }
+        Assert.assertEquals(3011, expectIndex);
+
+        //seek backwards into another file
+        cursor.seek(1500);
+        entry = cursor.next();
+        Assert.assertEquals(1500, entry.getEntryIndex());
+        Assert.assertEquals(store.getByIndex(1500).getChecksum(), entry.getChecksum());
+        Assert.assertEquals(1501, cursor.next().getEntryIndex());
+        cursor.close();
+    }
+
+    @Test
+    public void testReadAndAppendRaw() {
+        String dirPath = "/Users/zhengwei/Desktop/rawleaderfiles";
+        String followerPath = "/Users/zhengwei/Desktop/rawfollowerfiles";
+        this.paths.add(dirPath);
+        this.paths.add(followerPath);
+        GekkoConfig conf = GekkoConfig.builder().baseFilePath(dirPath).selfId("1").leaderId("1").storeType(StoreEnums.FILE).flushInterval(1).storeFileSize(1024 * 1024).indexCountPerFile(1000).osPageSize(1024 * 4).build();
+        NodeState nodeState = new NodeState(conf);
+        nodeState.init();
+        Store store = new FileStore(conf, nodeState);
+        store.init();
+        store.start();
+        byte[] bytes = new byte[1000];
+        for (int i = 0; i < 3000; i++) {
+            bytes[0] = (byte) i;
+            store.append(GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build());
+        }
+
+        GekkoConfig followerConf = GekkoConfig.builder().baseFilePath(followerPath).selfId("2").leaderId("1").storeType(StoreEnums.FILE).flushInterval(1).storeFileSize(1024 * 1024).indexCountPerFile(1000).osPageSize(1024 * 4).build();
+        NodeState followerState = new NodeState(followerConf);
+        followerState.init();
+        Store follower = new FileStore(followerConf, followerState);
+        follower.init();
+        follower.start();
+        String memoryPath = "/Users/zhengwei/Desktop/rawmemoryfiles";
+        this.paths.add(memoryPath);
+        GekkoConfig memoryConf = GekkoConfig.builder().baseFilePath(memoryPath).selfId("2").leaderId("1").storeType(StoreEnums.MEMORY).snapshotThreshold(100000).build();
+        NodeState memoryState = new NodeState(memoryConf);
+        memoryState.init();
+        Store memoryFollower = new MemoryStore(memoryConf, memoryState);
+        memoryFollower.init();
+        memoryFollower.start();
+
+        //cross the files in blocks
+        for (long from = 1; from <= 3000; from += 700) {
+            long to = Math.min(from + 700, 3001);
+            ByteBuffer raw = store.readRawByIndex(from, to);
+            Assert.assertEquals((to - from) * (GekkoEntry.BODY_OFFSET + 1000), raw.remaining());
+            Assert.assertEquals(to - from, follower.appendRaw(raw.duplicate()));
+            Assert.assertEquals(to - from, memoryFollower.appendRaw(raw));
+        }
+        Assert.assertEquals(3000, follower.getMaxIndex());
+        Assert.assertEquals(3000, followerState.getWriteId());
+        Assert.assertEquals(nodeState.getLastChecksum(), followerState.getLastChecksum());
+        Assert.assertEquals(nodeState.getLastChecksum(), memoryState.getLastChecksum());
+        for (long index : new long[]{1, 1000, 1001, 2999, 3000}) {
+            GekkoEntry entry = follower.getByIndex(index);
+            Assert.assertTrue(entry.isIntact());
+            Assert.assertEquals(store.getByIndex(index).getChecksum(), entry.getChecksum());
+            Assert.assertEquals(entry.getChecksum(), memoryFollower.getByIndex(index).getChecksum());
+        }
+
+        //not found
+        Assert.assertFalse(store.readRawByIndex(3001, 3002).hasRemaining());
+    }
+
+    @Test
+    public void testFlushModes() throws InterruptedException {
+        for (FlushModeEnum flushMode : FlushModeEnum.values()) {
+            String dirPath = "/Users/zhengwei/Desktop/flushfiles" + flushMode;
+            this.paths.add(dirPath);
+            GekkoConfig conf = GekkoConfig.builder().baseFilePath(dirPath).selfId("1").leaderId("1").storeType(StoreEnums.FILE).flushMode(flushMode).flushInterval(1).storeFileSize(1024 * 1024).indexCountPerFile(1000).osPageSize(1024 * 4).build();
+
+            NodeState nodeState = new NodeState(conf);
+            nodeState.init();
+            FileStore store = new FileStore(conf, nodeState);
+            store.init();
+            store.start();
+            byte[] bytes = new byte[500];
+            int threadCount = 4;
+            int appendCount = 500;
+            Thread[] threads = new Thread[threadCount];
+            AtomicInteger notFlushed = new AtomicInteger(0);
+            long startTime = System.currentTimeMillis();
+            for (int t = 0; t < threadCount; t++) {
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < appendCount; i++) {
+                        GekkoEntry entry = GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build();
+                        store.append(entry);
+                        //the append returns only after its data has been forced
+                        if (flushMode != FlushModeEnum.ASYNC && store.getFlushedDataOffset() < entry.getPos() + entry.getTotalSize()) {
+                            notFlushed.incrementAndGet();
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            System.out.println(flushMode + " append " + threadCount * appendCount + " entries costs " + (System.currentTimeMillis() - startTime) + "ms");
+            Assert.assertEquals(0, notFlushed.get());
+            Assert.assertEquals(threadCount * appendCount, store.getMaxIndex());
+            store.shutdown();
+        }
+    }
+
 }
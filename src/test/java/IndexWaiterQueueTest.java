@@ -0,0 +1,91 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.github.jobop.gekko.core.replication.IndexWaiterQueue;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class IndexWaiterQueueTest {
+    @Test
+    public void testAdvance() {
+        IndexWaiterQueue queue = new IndexWaiterQueue(2, 10);
+        List<Long> reached = new ArrayList<Long>();
+        queue.await(5, ok -> reached.add(ok ? 5L : -5L));
+        Assert.assertEquals(1, reached.size());
+
+        //more waiters than slots and one out of order
+        for (long i = 11; i <= 20; i++) {
+            long index = i;
+            queue.await(index, ok -> reached.add(ok ? index : -index));
+        }
+        queue.await(12, ok -> reached.add(ok ? 120L : -120L));
+        Assert.assertEquals(11, queue.size());
+
+        queue.advance(12);
+        Assert.assertEquals(4, reached.size());
+        Assert.assertEquals(Long.valueOf(120), reached.get(3));
+
+        //a stale advance does nothing
+        queue.advance(11);
+        Assert.assertEquals(8, queue.size());
+
+        queue.advance(18);
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals(Long.valueOf(18), reached.get(reached.size() - 1));
+
+        queue.failAll();
+        Assert.assertEquals(0, queue.size());
+        Assert.assertEquals(Long.valueOf(-20), reached.get(reached.size() - 1));
+    }
+
+    @Test
+    public void testTerm() {
+        IndexWaiterQueue queue = new IndexWaiterQueue(4, 10);
+        List<Long> reached = new ArrayList<Long>();
+        //closed until a term is opened
+        queue.await(11, 3, ok -> reached.add(ok ? 11L : -11L));
+        Assert.assertEquals(Long.valueOf(-11), reached.get(0));
+
+        queue.open(3);
+        queue.await(5, 3, ok -> reached.add(ok ? 5L : -5L));
+        queue.await(12, 3, ok -> reached.add(ok ? 12L : -12L));
+        //written in another term,the entry at the index may be replaced
+        queue.await(13, 2, ok -> reached.add(ok ? 13L : -13L));
+        Assert.assertEquals(1, queue.size());
+        Assert.assertEquals(Long.valueOf(5), reached.get(1));
+        Assert.assertEquals(Long.valueOf(-13), reached.get(2));
+
+        //a waiter coming after the step down is failed as well
+        queue.failAll();
+        queue.await(14, 3, ok -> reached.add(ok ? 14L : -14L));
+        Assert.assertEquals(0, queue.size());
+        Assert.assertEquals(Long.valueOf(-12), reached.get(3));
+        Assert.assertEquals(Long.valueOf(-14), reached.get(4));
+
+        queue.open(4);
+        queue.await(15, 3, ok -> reached.add(ok ? 15L : -15L));
+        queue.await(15, 4, ok -> reached.add(ok ? 150L : -150L));
+        queue.advance(15);
+        Assert.assertEquals(Long.valueOf(-15), reached.get(5));
+        Assert.assertEquals(Long.valueOf(150), reached.get(6));
+    }
+}
@@ -0,0 +1,121 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.github.jobop.gekko.core.config.GekkoConfig;
+import com.github.jobop.gekko.core.exception.GekkoException;
+import com.github.jobop.gekko.core.metadata.NodeState;
+import com.github.jobop.gekko.enums.StoreEnums;
+import com.github.jobop.gekko.protocols.message.GekkoEntry;
+import com.github.jobop.gekko.store.MemoryStore;
+import com.github.jobop.gekko.store.Store;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class MemoryStoreTest {
+    private byte[] bytes = "1sdfasdfasdfasdfasdfasdfasdfadf54545fasdfasdfasdfasdfasdfasdfadfa53345dfasdfasdfasdfasdfasdfasdfad9081nvsdfasdfasdfasdfasdf".getBytes();
+
+    private Store newStore(NodeState nodeState, GekkoConfig conf) {
+        nodeState.init();
+        Store store = new MemoryStore(conf, nodeState);
+        store.init();
+        store.start();
+        return store;
+    }
+
+    private GekkoEntry newEntry() {
+        return GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build();
+    }
+
+    @Test
+    public void testAppendAndTrimAfter() {
+        GekkoConfig conf = GekkoConfig.builder().baseFilePath("/Users/zhengwei/Desktop/memorystore").selfId("1").leaderId("1").storeType(StoreEnums.MEMORY).snapshotThreshold(100000).memorySlabSize(64 * 1024).build();
+        NodeState nodeState = new NodeState(conf);
+        Store store = newStore(nodeState, conf);
+
+        for (int i = 0; i < 10000; i++) {
+            store.append(newEntry());
+        }
+        Assert.assertEquals(10000, store.getMaxIndex());
+        Assert.assertEquals(10000, nodeState.getWriteId());
+
+        List<GekkoEntry> entries = store.batchGetByIndex(1, 10001);
+        Assert.assertEquals(10000, entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            Assert.assertTrue(entries.get(i).isIntact());
+            Assert.assertEquals(i + 1, entries.get(i).getEntryIndex());
+        }
+        List<GekkoEntry> byPos = store.batchGet(entries.get(0).getPos(), -1);
+        Assert.assertEquals(10000, byPos.size());
+
+        GekkoEntry entry5 = store.getByIndex(5);
+        store.trimAfter(5);
+        Assert.assertEquals(5, store.getMaxIndex());
+        Assert.assertEquals(5, nodeState.getWriteId());
+        Assert.assertEquals(entry5.getChecksum(), nodeState.getLastChecksum());
+        Assert.assertNull(store.getByIndex(6));
+
+        store.append(newEntry());
+        Assert.assertEquals(6, store.getByIndex(6).getEntryIndex());
+        Assert.assertTrue(store.getByIndex(6).isIntact());
+        store.shutdown();
+    }
+
+    @Test
+    public void testBackpressureAndTrimBefore() {
+        GekkoConfig conf = GekkoConfig.builder().baseFilePath("/Users/zhengwei/Desktop/memorystore").selfId("1").leaderId("1").storeType(StoreEnums.MEMORY).snapshotThreshold(100000)
+                .memorySlabSize(4 * 1024).memoryStoreMaxBytes(16 * 1024).memoryStoreAppendTimeout(10).build();
+        NodeState nodeState = new NodeState(conf);
+        Store store = newStore(nodeState, conf);
+
+        int appended = 0;
+        while (true) {
+            GekkoEntry entry = newEntry();
+            store.append(entry);
+            if (entry.getPos() == -1) {
+                break;
+            }
+            appended++;
+        }
+        Assert.assertEquals(appended, store.getMaxIndex());
+
+        //free the head and the ring can go on
+        store.trimBefore(appended / 2);
+        Assert.assertNull(store.getByIndex(appended / 2 - 1));
+        for (int i = 0; i < appended / 4; i++) {
+            GekkoEntry entry = newEntry();
+            store.append(entry);
+            Assert.assertNotEquals(-1, entry.getPos());
+        }
+        List<GekkoEntry> entries = store.batchGetByIndex(appended / 2, store.getMaxIndex() + 1);
+        Assert.assertEquals(store.getMaxIndex() - appended / 2 + 1, entries.size());
+        for (GekkoEntry entry : entries) {
+            Assert.assertTrue(entry.isIntact());
+        }
+        store.shutdown();
+    }
+
+    @Test(expected = GekkoException.class)
+    public void testRequireSnapshot() {
+        //the log would never be trimmed,so the store is refused up front instead of failing every append once full
+        GekkoConfig conf = GekkoConfig.builder().baseFilePath("/Users/zhengwei/Desktop/memorystore").selfId("1").leaderId("1").storeType(StoreEnums.MEMORY)
+                .snapshotThreshold(0).build();
+        newStore(new NodeState(conf), conf);
+    }
+}
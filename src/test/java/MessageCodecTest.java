@@ -0,0 +1,124 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.alipay.remoting.exception.DeserializationException;
+import com.alipay.remoting.rpc.protocol.RpcRequestCommand;
+import com.alipay.remoting.rpc.protocol.RpcResponseCommand;
+import com.github.jobop.gekko.enums.PushResultEnums;
+import com.github.jobop.gekko.enums.ResultEnums;
+import com.github.jobop.gekko.enums.VoteResultEnums;
+import com.github.jobop.gekko.protocols.codec.GekkoCustomSerializer;
+import com.github.jobop.gekko.protocols.codec.MessageCodec;
+import com.github.jobop.gekko.protocols.codec.MessageCodecs;
+import com.github.jobop.gekko.protocols.message.GekkoEntry;
+import com.github.jobop.gekko.protocols.message.api.AppendEntriesReq;
+import com.github.jobop.gekko.protocols.message.api.AppendEntriesResp;
+import com.github.jobop.gekko.protocols.message.api.AppendEntryReq;
+import com.github.jobop.gekko.protocols.message.api.AppendEntryResp;
+import com.github.jobop.gekko.protocols.message.api.PullEntryReq;
+import com.github.jobop.gekko.protocols.message.api.PullEntryResp;
+import com.github.jobop.gekko.protocols.message.node.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MessageCodecTest {
+    private static GekkoEntry newEntry(long index) {
+        byte[] data = new byte[100];
+        data[0] = (byte) index;
+        GekkoEntry entry = GekkoEntry.builder().magic(0xCAFEDADD).term(3).entryIndex(index).pos(index * 140).data(data).build();
+        entry.computSizeInBytes();
+        entry.setChecksum(entry.checksum());
+        return entry;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        List<GekkoEntry> entries = new ArrayList<GekkoEntry>();
+        for (int i = 1; i <= 1000; i++) {
+            entries.add(newEntry(i));
+        }
+        List<Object> msgs = Arrays.asList(
+                PushEntryReq.builder().group("group1").remoteNodeId("1").lastCommitIndex(7).term(3).preCheckSum(-5).startIndex(1).endIndex(1000).count(1000).entries(entries).build(),
+                PushEntryReq.builder().group("group1").remoteNodeId("1").startIndex(1).endIndex(2).count(2).rawEntries(new byte[]{1, 2, 3}).lastCheckSum(99).build(),
+                PushEntryResp.builder().group("group1").term(3).index(1001).acceptNodeId("2").result(PushResultEnums.AGREE).build(),
+                HeartBeatReq.builder().group("group1").remoteNodeId("1").term(3).build(),
+                ProbeReq.builder().group("group1").remoteNodeId("1").term(3).build(),
+                ProbeResp.builder().commitIndex(5).nextIndex(6).result(ResultEnums.SUCCESS).term(3).build(),
+                PreVoteReq.builder().group("组1").term(3).candidateId("1").lastIndex(100).build(),
+                PreVoteResp.builder().group("group1").term(3).voteMemberId("2").result(VoteResultEnums.values()[0]).build(),
+                VoteReq.builder().group("group1").term(3).candidateId("1").lastIndex(100).build(),
+                VoteResp.builder().term(3).voteMemberId("2").build(),
+                InstallSnapshotReq.builder().group("group1").remoteNodeId("1").term(3).lastIncludedIndex(100).fileName("snapshot.meta").fileSize(10).offset(0).data(new byte[10]).done(true).build(),
+                InstallSnapshotResp.builder().group("group1").term(3).acceptNodeId("2").result(PushResultEnums.REJECT).nextOffset(-1).build(),
+                AppendEntryReq.builder().gekkoEntry(GekkoEntry.builder().data("卧槽".getBytes()).build()).build(),
+                AppendEntryResp.builder().index(-1).resultCode(ResultEnums.APPEND_FAIL).build(),
+                AppendEntriesReq.builder().entries(entries.subList(0, 10)).build(),
+                AppendEntriesResp.builder().firstIndex(1).count(10).resultCode(ResultEnums.SUCCESS).build(),
+                PullEntryReq.builder().fromIndex(1).toIndex(10).build(),
+                PullEntryResp.builder().enries(entries.subList(0, 10)).build());
+
+        for (Object msg : msgs) {
+            Assert.assertNotNull(msg.getClass().getName(), MessageCodecs.of(msg.getClass()));
+            GekkoCustomSerializer<?> serializer = GekkoCustomSerializer.of(msg.getClass());
+
+            RpcRequestCommand request = new RpcRequestCommand(msg);
+            Assert.assertTrue(serializer.serializeContent(request, null));
+            RpcRequestCommand received = new RpcRequestCommand();
+            received.setContent(request.getContent());
+            Assert.assertTrue(serializer.deserializeContent(received));
+            Assert.assertEquals(msg, received.getRequestObject());
+
+            RpcResponseCommand response = new RpcResponseCommand(msg);
+            Assert.assertTrue(serializer.serializeContent(response));
+            RpcResponseCommand receivedResponse = new RpcResponseCommand();
+            receivedResponse.setContent(response.getContent());
+            Assert.assertTrue(serializer.deserializeContent(receivedResponse, null));
+            Assert.assertEquals(msg, receivedResponse.getResponseObject());
+        }
+
+        PushEntryReq decoded = (PushEntryReq) roundTrip(msgs.get(0));
+        Assert.assertTrue(decoded.getEntries().get(999).isIntact());
+    }
+
+    @Test(expected = DeserializationException.class)
+    public void testVersionMismatch() throws Exception {
+        MessageCodec<ProbeReq> codec = MessageCodecs.of(ProbeReq.class);
+        GekkoCustomSerializer<ProbeReq> serializer = new GekkoCustomSerializer<ProbeReq>(ProbeReq.class, codec);
+        RpcRequestCommand request = new RpcRequestCommand(ProbeReq.builder().group("group1").build());
+        serializer.serializeContent(request, null);
+        byte[] content = request.getContent();
+        content[0] = GekkoCustomSerializer.PROTOCOL_VERSION + 1;
+        RpcRequestCommand received = new RpcRequestCommand();
+        received.setContent(content);
+        serializer.deserializeContent(received);
+    }
+
+    private Object roundTrip(Object msg) throws Exception {
+        GekkoCustomSerializer<?> serializer = GekkoCustomSerializer.of(msg.getClass());
+        RpcRequestCommand request = new RpcRequestCommand(msg);
+        serializer.serializeContent(request, null);
+        RpcRequestCommand received = new RpcRequestCommand();
+        received.setContent(request.getContent());
+        serializer.deserializeContent(received);
+        return received.getRequestObject();
+    }
+}
@@ -19,9 +19,12 @@
  */
 
 import com.github.jobop.gekko.utils.NotifyableThread;
+import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class NotifyableThreadTest {
 
@@ -81,5 +84,46 @@ public class NotifyableThreadTest {
         t.join();
     }
 
+    @Test
+    public void testTriggerWhileBusy() throws InterruptedException {
+        CountDownLatch busy = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger(0);
+        NotifyableThread t = new NotifyableThread(10, TimeUnit.SECONDS, "testTriggerWhileBusy") {
+            @Override
+            public void doWork() {
+                if (runs.incrementAndGet() == 1) {
+                    busy.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                    }
+                }
+            }
+        };
+        t.start();
+        Assert.assertTrue(busy.await(5, TimeUnit.SECONDS));
+        //fired while the first dowork is running,it must cause one more run long before the interval
+        t.trigger();
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (runs.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(2, runs.get());
 
+        //a trigger right after each run races with the thread going to wait,it must never sleep the whole interval
+        //every wait is bounded,so a lost trigger fails the test instead of hanging it
+        for (int i = 3; i < 20000; i++) {
+            //runs >= i - 1 is what the last round asserted
+            t.trigger();
+            deadline = System.currentTimeMillis() + 2000;
+            while (runs.get() < i && System.currentTimeMillis() < deadline) {
+            }
+            Assert.assertTrue("trigger lost at run " + i, runs.get() >= i);
+        }
+        t.shutdown();
+        t.join(5000);
+        Assert.assertFalse(t.isAlive());
+    }
 }
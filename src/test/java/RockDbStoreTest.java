@@ -0,0 +1,80 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.github.jobop.gekko.core.config.GekkoConfig;
+import com.github.jobop.gekko.core.metadata.NodeState;
+import com.github.jobop.gekko.enums.StoreEnums;
+import com.github.jobop.gekko.protocols.message.GekkoEntry;
+import com.github.jobop.gekko.store.RockDbStore;
+import com.github.jobop.gekko.store.Store;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RockDbStoreTest extends BaseTest {
+    private byte[] bytes = "1sdfasdfasdfasdfasdfasdfasdfadf54545fasdfasdfasdfasdfasdfasdfadfa53345dfasdfasdfasdfasdfasdfasdfad9081nvsdfasdfasdfasdfasdf".getBytes();
+
+    @Test
+    public void testAppendTrimAndReload() {
+        String dirPath = "/Users/zhengwei/Desktop/rocksdbstore";
+        this.paths.add(dirPath);
+        GekkoConfig conf = GekkoConfig.builder().baseFilePath(dirPath).selfId("1").leaderId("1").storeType(StoreEnums.ROCKDB).build();
+        NodeState nodeState = new NodeState(conf);
+        nodeState.init();
+        Store store = new RockDbStore(conf, nodeState);
+        store.init();
+        store.start();
+
+        for (int b = 0; b < 10; b++) {
+            List<GekkoEntry> batch = new ArrayList<GekkoEntry>();
+            for (int i = 0; i < 100; i++) {
+                batch.add(GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build());
+            }
+            store.appendBatch(batch);
+        }
+        Assert.assertEquals(1000, store.getMaxIndex());
+        Assert.assertEquals(1000, nodeState.getWriteId());
+
+        List<GekkoEntry> entries = store.batchGetByIndex(1, 1001);
+        Assert.assertEquals(1000, entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            Assert.assertTrue(entries.get(i).isIntact());
+            Assert.assertEquals(i + 1, entries.get(i).getEntryIndex());
+        }
+        Assert.assertEquals(entries.get(999).getChecksum(), nodeState.getLastChecksum());
+
+        GekkoEntry entry500 = store.getByIndex(500);
+        store.trimAfter(500);
+        Assert.assertEquals(500, store.getMaxIndex());
+        Assert.assertEquals(entry500.getChecksum(), nodeState.getLastChecksum());
+        Assert.assertNull(store.getByIndex(501));
+
+        store.trimBefore(100);
+        Assert.assertNull(store.getByIndex(99));
+        Assert.assertEquals(401, store.batchGetByIndex(1, 1001).size());
+        store.shutdown();
+
+        Store store2 = new RockDbStore(conf, nodeState);
+        store2.init();
+        Assert.assertEquals(500, store2.getMaxIndex());
+        Assert.assertTrue(store2.getByIndex(100).isIntact());
+        store2.shutdown();
+    }
+}
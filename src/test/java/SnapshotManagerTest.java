@@ -0,0 +1,203 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.github.jobop.gekko.core.config.GekkoConfig;
+import com.github.jobop.gekko.core.metadata.NodeState;
+import com.github.jobop.gekko.core.snapshot.SnapshotManager;
+import com.github.jobop.gekko.core.snapshot.SnapshotMeta;
+import com.github.jobop.gekko.core.statemachine.StateMachineAdapter;
+import com.github.jobop.gekko.enums.StoreEnums;
+import com.github.jobop.gekko.protocols.message.GekkoEntry;
+import com.github.jobop.gekko.protocols.message.node.InstallSnapshotReq;
+import com.github.jobop.gekko.store.FileStore;
+import com.github.jobop.gekko.utils.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class SnapshotManagerTest extends BaseTest {
+
+    private static class CountStateMachine extends StateMachineAdapter {
+        long savedIndex = -1;
+        String loaded;
+
+        @Override
+        public boolean onSnapshotSave(String snapshotDir, long lastIncludedIndex) {
+            try {
+                IOUtils.string2File(String.valueOf(lastIncludedIndex), snapshotDir + File.separator + "count");
+            } catch (IOException e) {
+                return false;
+            }
+            savedIndex = lastIncludedIndex;
+            return true;
+        }
+
+        @Override
+        public boolean onSnapshotLoad(String snapshotDir) {
+            try {
+                loaded = IOUtils.file2String(snapshotDir + File.separator + "count");
+            } catch (IOException e) {
+                return false;
+            }
+            return true;
+        }
+    }
+
+    @Test
+    public void testSnapshotAndCompact() {
+        String dirPath = "/Users/zhengwei/Desktop/snapshotfiles";
+        this.paths.add(dirPath);
+        GekkoConfig conf = GekkoConfig.builder().baseFilePath(dirPath).selfId("1").leaderId("1").storeType(StoreEnums.FILE).flushInterval(1).storeFileSize(1024 * 1024).indexCountPerFile(1000).osPageSize(1024 * 4).build();
+
+        NodeState nodeState = new NodeState(conf);
+        nodeState.init();
+        FileStore store = new FileStore(conf, nodeState);
+        store.init();
+        store.start();
+        CountStateMachine stateMachine = new CountStateMachine();
+        SnapshotManager snapshotManager = new SnapshotManager(conf, nodeState, store, stateMachine);
+        snapshotManager.init();
+        Assert.assertNull(snapshotManager.takeSnapshot());
+
+        byte[] bytes = new byte[1000];
+        for (int i = 0; i < 5000; i++) {
+            store.append(GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build());
+        }
+        int dataFileCount = new File(dirPath + File.separator + "data").list((dir, name) -> name.matches("^\\d+$")).length;
+        nodeState.setCommitId(4000);
+        SnapshotMeta meta = snapshotManager.takeSnapshot();
+        Assert.assertEquals(4000, meta.getLastIncludedIndex());
+        Assert.assertEquals(4000, stateMachine.savedIndex);
+        GekkoEntry lastIncludedEntry = store.getByIndex(4000);
+        Assert.assertTrue(lastIncludedEntry.isIntact());
+        Assert.assertEquals(lastIncludedEntry.getChecksum(), meta.getLastIncludedChecksum());
+        Assert.assertEquals(lastIncludedEntry.getTerm(), meta.getLastIncludedTerm());
+
+        //the whole files before the snapshot have been deleted
+        Assert.assertNull(store.getByIndex(1));
+        Assert.assertTrue(new File(dirPath + File.separator + "data").list((dir, name) -> name.matches("^\\d+$")).length < dataFileCount);
+        Assert.assertEquals(1001, store.batchGetByIndex(4000, 5001).size());
+        store.append(GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build());
+        Assert.assertEquals(5001, store.getByIndex(5001).getEntryIndex());
+        store.shutdown();
+
+        //load again
+        NodeState state = new NodeState(conf);
+        state.setLeaderId("1");
+        state.setSelfId("1");
+        FileStore store2 = new FileStore(conf, state);
+        store2.init();
+        Assert.assertEquals(5001, store2.getMaxIndex());
+        Assert.assertNull(store2.getByIndex(1));
+        Assert.assertTrue(store2.getByIndex(4000).isIntact());
+        CountStateMachine stateMachine2 = new CountStateMachine();
+        SnapshotManager snapshotManager2 = new SnapshotManager(conf, state, store2, stateMachine2);
+        snapshotManager2.init();
+        Assert.assertEquals("4000", stateMachine2.loaded);
+        Assert.assertEquals(meta, snapshotManager2.getLastSnapshotMeta());
+    }
+
+    @Test
+    public void testInstallSnapshot() throws IOException {
+        String leaderPath = "/Users/zhengwei/Desktop/installsnapshotleader";
+        String followerPath = "/Users/zhengwei/Desktop/installsnapshotfollower";
+        this.paths.add(leaderPath);
+        this.paths.add(followerPath);
+        GekkoConfig conf = GekkoConfig.builder().baseFilePath(leaderPath).selfId("1").leaderId("1").storeType(StoreEnums.FILE).flushInterval(1).storeFileSize(1024 * 1024).indexCountPerFile(1000).osPageSize(1024 * 4).build();
+        NodeState nodeState = new NodeState(conf);
+        nodeState.init();
+        FileStore store = new FileStore(conf, nodeState);
+        store.init();
+        SnapshotManager snapshotManager = new SnapshotManager(conf, nodeState, store, new CountStateMachine());
+        snapshotManager.init();
+        byte[] bytes = new byte[1000];
+        for (int i = 0; i < 3000; i++) {
+            store.append(GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build());
+        }
+        nodeState.setCommitId(2500);
+        SnapshotMeta meta = snapshotManager.takeSnapshot();
+
+        GekkoConfig followerConf = GekkoConfig.builder().baseFilePath(followerPath).selfId("2").leaderId("1").storeType(StoreEnums.FILE).flushInterval(1).storeFileSize(1024 * 1024).indexCountPerFile(1000).osPageSize(1024 * 4).build();
+        NodeState followerState = new NodeState(followerConf);
+        followerState.init();
+        FileStore followerStore = new FileStore(followerConf, followerState);
+        followerStore.init();
+        CountStateMachine followerStateMachine = new CountStateMachine();
+        SnapshotManager followerSnapshotManager = new SnapshotManager(followerConf, followerState, followerStore, followerStateMachine);
+        followerSnapshotManager.init();
+
+        int chunkSize = 16;
+        for (String fileName : snapshotManager.listSnapshotFiles()) {
+            byte[] fileBytes = Files.readAllBytes(snapshotManager.getSnapshotFile(fileName).toPath());
+            long offset = 0;
+            boolean broken = false;
+            while (offset < fileBytes.length) {
+                int length = Math.min(chunkSize, fileBytes.length - (int) offset);
+                long nextOffset = followerSnapshotManager.receiveChunk(chunkOf(meta, fileName, fileBytes, offset, length));
+                Assert.assertEquals(offset + length, nextOffset);
+                offset = nextOffset;
+                //the leader starts the file again,the follower answers where to go on
+                if (!broken && offset > chunkSize) {
+                    broken = true;
+                    Assert.assertEquals(offset, followerSnapshotManager.receiveChunk(chunkOf(meta, fileName, fileBytes, 0, chunkSize)));
+                }
+            }
+        }
+        Assert.assertTrue(followerSnapshotManager.installReceived(meta.getLastIncludedIndex()));
+        Assert.assertEquals("2500", followerStateMachine.loaded);
+        Assert.assertEquals(meta, followerSnapshotManager.getLastSnapshotMeta());
+        Assert.assertEquals(2500, followerStore.getMaxIndex());
+        Assert.assertEquals(2500, followerState.getWriteId());
+        Assert.assertEquals(meta.getLastIncludedChecksum(), followerState.getLastChecksum());
+
+        //the log goes on after the snapshot
+        followerStore.appendBatch(store.batchGetByIndex(2501, 3001));
+        Assert.assertEquals(3000, followerStore.getMaxIndex());
+        Assert.assertEquals(store.getByIndex(2501).getChecksum(), followerStore.getByIndex(2501).getChecksum());
+        Assert.assertTrue(followerStore.getByIndex(3000).isIntact());
+        Assert.assertNull(followerStore.getByIndex(2500));
+        followerStore.shutdown();
+        store.shutdown();
+
+        //load again
+        NodeState state = new NodeState(followerConf);
+        state.setLeaderId("1");
+        state.setSelfId("2");
+        FileStore followerStore2 = new FileStore(followerConf, state);
+        followerStore2.init();
+        Assert.assertEquals(3000, followerStore2.getMaxIndex());
+        Assert.assertNull(followerStore2.getByIndex(2500));
+        Assert.assertEquals(2501, followerStore2.getByIndex(2501).getEntryIndex());
+        Assert.assertTrue(followerStore2.getByIndex(3000).isIntact());
+        followerStore2.shutdown();
+    }
+
+    private static InstallSnapshotReq chunkOf(SnapshotMeta meta, String fileName, byte[] fileBytes, long offset, int length) {
+        return InstallSnapshotReq.builder()
+                .lastIncludedIndex(meta.getLastIncludedIndex())
+                .fileName(fileName)
+                .fileSize(fileBytes.length)
+                .offset(offset)
+                .data(Arrays.copyOfRange(fileBytes, (int) offset, (int) offset + length))
+                .build();
+    }
+}
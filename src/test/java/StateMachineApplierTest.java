@@ -0,0 +1,110 @@
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.github.jobop.gekko.core.config.GekkoConfig;
+import com.github.jobop.gekko.core.metadata.NodeState;
+import com.github.jobop.gekko.core.statemachine.StateMachineAdapter;
+import com.github.jobop.gekko.core.statemachine.StateMachineApplier;
+import com.github.jobop.gekko.enums.StoreEnums;
+import com.github.jobop.gekko.protocols.message.GekkoEntry;
+import com.github.jobop.gekko.store.MemoryStore;
+import com.github.jobop.gekko.store.Store;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+public class StateMachineApplierTest extends BaseTest {
+    private byte[] bytes = "1sdfasdfasdfasdfasdfasdfasdfadf54545fasdfasdfasdfasdfasdfasdf".getBytes();
+
+    @Test
+    public void testApplyCommitted() throws Exception {
+        String path = "/Users/zhengwei/Desktop/applier";
+        paths.add(path);
+        GekkoConfig conf = GekkoConfig.builder().baseFilePath(path).selfId("1").leaderId("1").storeType(StoreEnums.MEMORY).snapshotThreshold(100000).memorySlabSize(64 * 1024)
+                .applyBatchMaxCount(300).applyInterval(100).build();
+        NodeState nodeState = new NodeState(conf);
+        nodeState.init();
+        Store store = new MemoryStore(conf, nodeState);
+        store.init();
+        store.start();
+        for (int i = 0; i < 2500; i++) {
+            store.append(GekkoEntry.builder().magic(0xCAFEDADD).data(bytes).build());
+        }
+
+        List<Long> applied = new CopyOnWriteArrayList<Long>();
+        AtomicBoolean tooBig = new AtomicBoolean(false);
+        AtomicBoolean failOnce = new AtomicBoolean(true);
+        StateMachineApplier applier = new StateMachineApplier(conf, nodeState, store, new StateMachineAdapter() {
+            @Override
+            public void onApply(List<GekkoEntry> entries) {
+                if (entries.size() > 300) {
+                    tooBig.set(true);
+                }
+                //the same entries come again after a failure
+                if (entries.get(0).getEntryIndex() == 301 && failOnce.compareAndSet(true, false)) {
+                    throw new IllegalStateException("fail once");
+                }
+                for (GekkoEntry entry : entries) {
+                    applied.add(entry.getEntryIndex());
+                }
+            }
+        });
+        applier.init();
+        applier.start();
+
+        CountDownLatch latch = new CountDownLatch(1);
+        applier.waitForApply(2500, ok -> latch.countDown());
+        nodeState.setCommitId(2000);
+        applier.trigger();
+        waitFor(() -> nodeState.getLastApplied() == 2000);
+        Assert.assertEquals(1, latch.getCount());
+
+        nodeState.setCommitId(2500);
+        applier.trigger();
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertFalse(tooBig.get());
+        Assert.assertEquals(2500, applied.size());
+        for (int i = 0; i < applied.size(); i++) {
+            Assert.assertEquals(i + 1, applied.get(i).longValue());
+        }
+
+        //the state machine may be only in memory,so a restart applies again from the snapshot and not from the checkpoint
+        nodeState.saveCheckPoint();
+        NodeState recovered = new NodeState(conf);
+        recovered.init();
+        Assert.assertEquals(2500, recovered.getCommitId());
+        Assert.assertEquals(0, recovered.getLastApplied());
+
+        applier.shutdown();
+        store.shutdown();
+    }
+
+    private void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(condition.getAsBoolean());
+    }
+}